@@ -0,0 +1,110 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Eigener, begrenzter Pool für PBKDF2 (LOGIN/REGISTER): höchstens threads Hashes gleichzeitig, höchstens
+// queueLimit wartende. Ein Login-Sturm belegt damit nicht alle Kerne, Chat-Threads kommen weiter dran.
+// Ist die Queue voll, wird sofort abgelehnt (Future mit RejectedExecutionException) statt zu stauen.
+final class AuthPool {
+
+    private final ThreadPoolExecutor executor;
+
+    // Metriken: Wartezeit in der Queue und Rechenzeit pro Auftrag
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    AuthPool(int threads, int queueLimit) {
+        int n = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueLimit)),
+                r -> {
+                    Thread t = new Thread(r, "AuthWorker");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // auth.threads <= 0: alle Kerne bis auf einen (mind. 1)
+    static int defaultThreads(int configured) {
+        if (configured > 0) return configured;
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    // Ergebnis kommt auf einem AuthWorker an; wer weiter muss (Handler, Event-Loop), hängt sich an das Future
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                record(waitNanos, maxWaitNanos, start - queuedAt);
+                T result = null;
+                Throwable error = null;
+                try {
+                    result = task.get();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                record(hashNanos, maxHashNanos, System.nanoTime() - start);
+                completed.incrementAndGet();
+                if (error == null) f.complete(result);
+                else f.completeExceptionally(error);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    private static void record(AtomicLong sum, AtomicLong max, long nanos) {
+        sum.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Hinweis für BUSY-Antworten: so lange braucht der Pool etwa, um die jetzige Queue abzuarbeiten
+    // (wartende + 1 mal mittlere Rechenzeit, verteilt auf die Threads), 100 ms bis 60 s
+    long retryAfterMillis() {
+        long n = completed.get();
+        double avgMs = n == 0 ? 100 : hashNanos.get() / 1e6 / n;
+        long ms = (long) ((getQueued() + 1) * avgMs / getThreads());
+        return Math.max(100, Math.min(60_000, ms));
+    }
+
+    int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    // für das Server-Log: Anzahl, abgelehnt, Queue, Schnitt/Maximum von Wartezeit und Rechenzeit
+    String summary() {
+        long n = completed.get();
+        return String.format(Locale.ROOT, "threads=%d done=%d rejected=%d queued=%d wait avg=%.1fms max=%.1fms hash avg=%.1fms max=%.1fms",
+                getThreads(), n, rejected.get(), getQueued(),
+                n == 0 ? 0.0 : waitNanos.get() / 1e6 / n, maxWaitNanos.get() / 1e6,
+                n == 0 ? 0.0 : hashNanos.get() / 1e6 / n, maxHashNanos.get() / 1e6);
+    }
+}
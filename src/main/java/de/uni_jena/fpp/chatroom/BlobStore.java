@@ -0,0 +1,279 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Inhaltsadressierte Ablage der Raumdateien: jeder Inhalt liegt genau einmal als data/blobs/<xx>/<sha256>,
+// jeder Raum hat ein Manifest data/rooms/<room>/.manifest (Dateiname=Hash, Properties).
+// Referenzzähler werden beim Start aus den Manifesten berechnet, damit sie nie von der Platte abweichen;
+// ein Blob wird gelöscht, sobald kein Manifest mehr auf ihn zeigt.
+final class BlobStore {
+
+    static final String MANIFEST = ".manifest";
+
+    record LoadStats(int rooms, int files, int blobs, int migrated, int orphans, int missing) {}
+
+    private final Path blobsDir;
+    private final Path roomsDir;
+    // Raum -> (Dateiname -> Hash); gelesen ohne Lock, geändert nur unter lock
+    private final Map<String, Map<String, String>> manifests = new ConcurrentHashMap<>();
+    private final Map<String, Integer> refs = new HashMap<>();
+    // ReentrantLock statt synchronized: unter dem Lock wird verschoben/gelöscht, das soll keinen virtuellen Thread pinnen
+    private final ReentrantLock lock = new ReentrantLock();
+
+    BlobStore(Path blobsDir, Path roomsDir) {
+        this.blobsDir = blobsDir;
+        this.roomsDir = roomsDir;
+    }
+
+    // Manifeste einlesen, alte Einzeldateien (data/rooms/<room>/<datei>) übernehmen, verwaiste Blobs löschen
+    LoadStats load() throws IOException {
+        Files.createDirectories(blobsDir);
+        Files.createDirectories(roomsDir);
+        int rooms = 0, files = 0, migrated = 0, missing = 0;
+
+        lock.lock();
+        try {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(roomsDir)) {
+                for (Path dir : ds) {
+                    if (!Files.isDirectory(dir)) continue;
+                    String room = dir.getFileName().toString();
+                    Map<String, String> m = readManifest(dir.resolve(MANIFEST));
+                    boolean dirty = false;
+
+                    // Einträge ohne Blob (z.B. von Hand gelöscht) fallen weg
+                    for (var it = m.entrySet().iterator(); it.hasNext(); ) {
+                        if (!Files.exists(blobPath(it.next().getValue()))) {
+                            it.remove();
+                            missing++;
+                            dirty = true;
+                        }
+                    }
+
+                    try (DirectoryStream<Path> files1 = Files.newDirectoryStream(dir)) {
+                        for (Path f : files1) {
+                            String name = f.getFileName().toString();
+                            if (!Files.isRegularFile(f) || name.startsWith(".") || name.endsWith(".tmp")) continue;
+                            if (m.containsKey(name)) continue;
+                            m.put(name, store(f));
+                            migrated++;
+                            dirty = true;
+                        }
+                    }
+
+                    if (m.isEmpty() && !dirty) continue;
+                    manifests.put(room, new ConcurrentHashMap<>(m));
+                    for (String hash : m.values()) refs.merge(hash, 1, Integer::sum);
+                    if (dirty) saveManifest(room);
+                    rooms++;
+                    files += m.size();
+                }
+            }
+
+            int orphans = 0;
+            try (Stream<Path> walk = Files.walk(blobsDir)) {
+                for (Path p : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                    if (refs.containsKey(p.getFileName().toString())) continue;
+                    Files.deleteIfExists(p);
+                    orphans++;
+                }
+            }
+            return new LoadStats(rooms, files, refs.size(), migrated, orphans, missing);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Fertig geschriebene Datei file mit SHA-256 hash (beim Upload mitgerechnet) als name in room ablegen;
+    // file wird verschoben oder (Duplikat) gelöscht. true = Inhalt war schon vorhanden, nur das Manifest ändert sich.
+    boolean put(String room, String name, Path file, String hash) throws IOException {
+        lock.lock();
+        try {
+            boolean duplicate = refs.containsKey(hash) || Files.exists(blobPath(hash));
+            if (duplicate) Files.deleteIfExists(file);
+            else store(file, hash);
+            reference(room, name, hash);
+            return duplicate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // UPLOAD_HASH: vorhandenen Inhalt ohne Übertragung als name in room eintragen; false = unbekannt,
+    // dann muss der Client die Bytes schicken. Die Größe muss zusätzlich passen.
+    boolean link(String room, String name, String hash, long size) throws IOException {
+        lock.lock();
+        try {
+            if (!refs.containsKey(hash)) return false;
+            Path blob = blobPath(hash);
+            if (!Files.exists(blob) || Files.size(blob) != size) return false;
+            reference(room, name, hash);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    // Blob zu name in room, null wenn es die Datei nicht gibt
+    Path resolve(String room, String name) {
+        String hash = hashOf(room, name);
+        return hash == null ? null : blobPath(hash);
+    }
+
+    String hashOf(String room, String name) {
+        Map<String, String> m = manifests.get(room);
+        return m == null ? null : m.get(name);
+    }
+
+    List<String> list(String room) {
+        Map<String, String> m = manifests.get(room);
+        if (m == null) return List.of();
+        List<String> out = new ArrayList<>(m.keySet());
+        out.sort(String::compareToIgnoreCase);
+        return out;
+    }
+
+    boolean remove(String room, String name) throws IOException {
+        lock.lock();
+        try {
+            Map<String, String> m = manifests.get(room);
+            String hash = m == null ? null : m.remove(name);
+            if (hash == null) return false;
+            saveManifest(room);
+            release(hash);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Raum gelöscht: nur die Referenzen fallen weg, Blobs anderer Räume bleiben
+    void dropRoom(String room) {
+        lock.lock();
+        try {
+            Map<String, String> m = manifests.remove(room);
+            if (m == null) return;
+            for (String hash : m.values()) release(hash);
+            Files.deleteIfExists(roomsDir.resolve(room).resolve(MANIFEST));
+        } catch (IOException ignore) {
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int blobCount() {
+        lock.lock();
+        try {
+            return refs.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (fc.read(buf.clear()) > 0) md.update(buf.flip());
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private Path blobPath(String hash) {
+        return blobsDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    // Datei als Blob übernehmen (beim Laden: Hash erst berechnen), Duplikat -> Datei löschen
+    private String store(Path file) throws IOException {
+        String hash = sha256(file);
+        if (refs.containsKey(hash) || Files.exists(blobPath(hash))) Files.deleteIfExists(file);
+        else store(file, hash);
+        return hash;
+    }
+
+    private void store(Path file, String hash) throws IOException {
+        Path blob = blobPath(hash);
+        Files.createDirectories(blob.getParent());
+        Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // nur unter lock: name in room zeigt ab jetzt auf hash, ein ersetzter Inhalt verliert eine Referenz
+    private void reference(String room, String name, String hash) throws IOException {
+        String old = manifests.computeIfAbsent(room, r -> new ConcurrentHashMap<>()).put(name, hash);
+        refs.merge(hash, 1, Integer::sum);
+        saveManifest(room);
+        if (old != null) release(old);
+    }
+
+    private void release(String hash) {
+        Integer n = refs.merge(hash, -1, Integer::sum);
+        if (n != null && n > 0) return;
+        refs.remove(hash);
+        try { Files.deleteIfExists(blobPath(hash)); } catch (IOException ignore) {}
+    }
+
+    private static Map<String, String> readManifest(Path file) {
+        Map<String, String> m = new HashMap<>();
+        if (!Files.exists(file)) return m;
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        } catch (IOException ignore) {
+            return m;
+        }
+        for (String name : p.stringPropertyNames()) m.put(name, p.getProperty(name));
+        return m;
+    }
+
+    // Manifest komplett neu schreiben (tmp + atomares Verschieben), leeres Manifest -> Datei weg
+    private void saveManifest(String room) throws IOException {
+        Path dir = roomsDir.resolve(room);
+        Path file = dir.resolve(MANIFEST);
+        Map<String, String> m = manifests.get(room);
+        if (m == null || m.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Properties p = new Properties();
+        p.putAll(m);
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            p.store(out, null);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
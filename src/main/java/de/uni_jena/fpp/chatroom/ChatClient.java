@@ -2,11 +2,23 @@ package de.uni_jena.fpp.chatroom;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatClient {
     private volatile String username;
@@ -24,6 +36,43 @@ public class ChatClient {
     private volatile boolean running = true;
     private final Path downloadDir = Path.of("downloads");
 
+    private static final int HELLO_TIMEOUT_MS = 5000;
+    // 1 = Textprotokoll (writeUTF), 2 = ProtocolV2; wird in connect() per HELLO ausgehandelt
+    private volatile int protocolVersion = 1;
+    // letztes SESSION-Token vom Server; reconnect() meldet damit per RESUME ohne Passwort an
+    private volatile String sessionToken;
+    private Thread listenerThread;
+
+    // Automatisches Wiederverbinden nach Abbruch (nur mit Sitzungs-Token): Wartezeit zufällig in
+    // [0, min(max, base * 2^Versuch)] ("full jitter"), damit nicht alle Clients eines Servers im selben Moment kommen
+    private final long reconnectBaseMs = Config.getClientReconnectBaseMs();
+    private final long reconnectMaxMs = Config.getClientReconnectMaxMs();
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    private volatile boolean closedByUser;
+    // Raum vor dem Abbruch; nach dem RESUME wieder betreten (der Server setzt jeden Login in die Lobby)
+    private volatile String rejoinRoom;
+    // letzte LOGIN-/RESUME-Zeile bis zur Antwort, um sie nach LOGIN_FAILED BUSY zu wiederholen (danach verworfen)
+    private volatile String pendingAuth;
+
+    // UPLOAD_HASH und Chunk-Upload (nur v2): Antworten des Servers gehen vom Listener an den Upload-Thread
+    private static final int UPLOAD_CHUNK_BYTES = 256 * 1024;
+    private static final int UPLOAD_WINDOW = 4;
+    private static final long UPLOAD_REPLY_TIMEOUT_MS = 30_000;
+    private static final int UPLOAD_MAX_REWINDS = 3;
+    private final BlockingQueue<Tokens> uploadReplies = new LinkedBlockingQueue<>();
+    private final Object uploadLock = new Object();
+    private volatile boolean awaitingUploadReply;
+
+    // Downloads per DOWNLOAD_RANGE (nur v2), nach Dateiname; der Listener-Thread schreibt die Bereiche
+    private final Map<String, SegmentedDownload> downloads = new ConcurrentHashMap<>();
+    // Dateinamen der angeforderten Bereiche in Sende-Reihenfolge: der Server antwortet in derselben
+    // Reihenfolge, so lässt sich auch ein DOWNLOAD_FAILED (ohne Dateinamen) zuordnen. Zugriff unter this.
+    private final ArrayDeque<String> pendingRanges = new ArrayDeque<>();
+    // HISTORY_ITEMs bis zum nächsten HISTORY_CURSOR; nur der Listener-Thread
+    private final List<ChatClientListener.HistoryMessage> historyPage = new ArrayList<>();
+    // HISTORY_BATCH-Frames des Joins bis zum letzten (more=0); nur der Listener-Thread
+    private final List<ChatClientListener.HistoryMessage> replayBatch = new ArrayList<>();
+
     // Model + Listener
     private final ClientModel model = new ClientModel();
     private final CopyOnWriteArrayList<ChatClientListener> listeners = new CopyOnWriteArrayList<>();
@@ -47,18 +96,47 @@ public class ChatClient {
 
     // Connection API für gui
     public void connect() throws IOException {
+        closedByUser = false;
         socket = new Socket(host, port);
         in = new DataInputStream(socket.getInputStream());
         out = new DataOutputStream(socket.getOutputStream());
+        negotiateProtocol();
 
         running = true;
         Thread listener = new Thread(this::listenToServer, "ServerListener");
+        listenerThread = listener;
         listener.start();
 
         fireInfo("Verbunden mit " + host + ":" + port);
     }
 
+    // HELLO geht immer als Text raus; ältere Server antworten mit ERROR -> es bleibt beim Textprotokoll
+    private void negotiateProtocol() throws IOException {
+        protocolVersion = 1;
+        if (Config.getProtocolVersion() < ProtocolV2.VERSION) return;
+
+        out.writeUTF(Protocol.buildHello(ProtocolV2.VERSION));
+        out.flush();
+
+        int oldTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(HELLO_TIMEOUT_MS);
+        try {
+            if (ProtocolV2.accepted(new Tokens().parse(in.readUTF()))) {
+                protocolVersion = ProtocolV2.VERSION;
+            }
+        } catch (SocketTimeoutException e) {
+            // keine Antwort -> Textprotokoll
+        } finally {
+            socket.setSoTimeout(oldTimeout);
+        }
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     public void disconnect() {
+        closedByUser = true;
         running = false;
         try { if (socket != null) socket.close(); } catch (IOException ignore) {}
         fireConnectionClosed();
@@ -71,7 +149,9 @@ public class ChatClient {
 
     public void login(String username, String password) throws IOException {
         this.username = username;
-        send(Protocol.buildLogin(username, password));
+        String line = Protocol.buildLogin(username, password);
+        pendingAuth = line;
+        send(line);
     }
 
     public void createRoom(String name) throws IOException {
@@ -91,9 +171,91 @@ public class ChatClient {
     }
 
     public void logout() throws IOException {
+        sessionToken = null;
         send(Protocol.buildLogout());
     }
 
+    // Nach einem Verbindungsabbruch: neu verbinden und per RESUME mit dem Sitzungs-Token anmelden, der Server
+    // rechnet dafür kein PBKDF2. false = kein Token (Server ohne Tokens, Textprotokoll ohne HELLO) -> login().
+    // Ist das Token abgelaufen oder widerrufen, kommt LOGIN_FAILED SESSION_INVALID.
+    public boolean reconnect() throws IOException {
+        String token = sessionToken;
+        if (token == null) return false;
+        // gewolltes Schließen: der alte Listener soll kein automatisches Wiederverbinden anstoßen
+        running = false;
+        try { if (socket != null) socket.close(); } catch (IOException ignore) {}
+        // der alte Listener setzt beim Beenden running = false -> erst abwarten, dann neu verbinden
+        Thread old = listenerThread;
+        if (old != null && old != Thread.currentThread()) {
+            try {
+                old.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("unterbrochen");
+            }
+        }
+        connect();
+        String line = Protocol.buildResume(token);
+        pendingAuth = line;
+        send(line);
+        return true;
+    }
+
+    // nach unerwartetem Verbindungsende: nächster Versuch nach Backoff + Zufall; scheitert connect(), geht es
+    // mit dem nächsten (längeren) Intervall weiter, bis LOGIN_OK den Zähler zurücksetzt
+    private void scheduleReconnect() {
+        if (reconnectBaseMs <= 0 || closedByUser || sessionToken == null) return;
+        if (rejoinRoom == null) rejoinRoom = model.getCurrentRoom();
+        int attempt = reconnectAttempts.getAndIncrement();
+        long cap = Math.min(reconnectMaxMs, reconnectBaseMs << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        fireInfo("Verbindung verloren, neuer Versuch in " + delay + " ms");
+        Thread.ofVirtual().name("Reconnect").start(() -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (closedByUser || sessionToken == null) return;
+            try {
+                reconnect();
+            } catch (IOException e) {
+                scheduleReconnect();
+            }
+        });
+    }
+
+    // LOGIN_FAILED BUSY <ms>: dieselbe Anmeldung frühestens nach dem Hinweis des Servers noch einmal schicken,
+    // dazu Zufall bis zum Hinweis bzw. bis zum Backoff-Intervall (wächst mit jedem BUSY, LOGIN_OK setzt zurück)
+    private void retryAuthLater(String reason) {
+        String line = pendingAuth;
+        if (line == null) return;
+        long hint = 1000;
+        int sp = reason.indexOf(' ');
+        if (sp > 0) {
+            try {
+                hint = Math.max(0, Long.parseLong(reason.substring(sp + 1).trim()));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        int attempt = reconnectAttempts.getAndIncrement();
+        long spread = Math.max(hint, Math.min(reconnectMaxMs, Math.max(1, reconnectBaseMs) << Math.min(attempt, 20)));
+        long delay = hint + ThreadLocalRandom.current().nextLong(spread + 1);
+        fireInfo("Server ausgelastet, neuer Anmeldeversuch in " + delay + " ms");
+        Thread.ofVirtual().name("LoginRetry").start(() -> {
+            try {
+                Thread.sleep(delay);
+                if (running && line.equals(pendingAuth)) send(line);
+            } catch (InterruptedException | IOException ignore) {
+                // Verbindung weg -> scheduleReconnect() übernimmt
+            }
+        });
+    }
+
+    public boolean hasSession() {
+        return sessionToken != null;
+    }
+
     public void start() {
         try {
             connect();
@@ -108,93 +270,102 @@ public class ChatClient {
 
     private void listenToServer() {
         try {
+            Tokens msg = new Tokens();
             while (running && socket != null && !socket.isClosed()) {
-                String line;
                 try {
-                    line = in.readUTF();
+                    msg.read(in, protocolVersion);
                 } catch (EOFException eof) {
                     fireInfo("Server hat Verbindung geschlossen.");
                     break;
                 }
 
-                if (line == null) break;
-                handleServerMessage(line);
+                handleServerMessage(msg);
             }
         } catch (IOException e) {
             if (running) {
                 fireError("Lesen fehlgeschlagen: " + e.getMessage());
             }
         } finally {
+            // running noch true -> nicht per disconnect()/reconnect() beendet, sondern abgebrochen
+            boolean lost = running;
             running = false;
+            // wartenden Upload-Thread sofort wecken statt ihn in den Timeout laufen zu lassen
+            if (awaitingUploadReply) uploadReplies.add(new Tokens().parse(Protocol.buildUploadFailed("CONNECTION_CLOSED")));
+            // Teil-Downloads bleiben liegen und werden beim nächsten downloadFile() fortgesetzt
+            for (SegmentedDownload d : downloads.values()) d.abort(false);
+            downloads.clear();
+            synchronized (this) {
+                pendingRanges.clear();
+            }
+            pendingAuth = null;
             fireConnectionClosed();
+            if (lost) scheduleReconnect();
         }
     }
 
-    private void handleServerMessage(String line) {
-        // CHAT <room> <from> <text...> (4 tokens)
-        if (line.startsWith(Protocol.RES_CHAT + " ")) {
-            String[] t = line.split("\\s+", 4);
-            if (t.length >= 4) {
-                String room = t[1];
-                String from = t[2];
-                String text = t[3];
+    // Felder 1..n mit fester Anzahl pro Typ (siehe Tokens/ProtocolV2), fehlende Felder = ""
+    private void handleServerMessage(Tokens f) {
+        if (awaitingUploadReply && isUploadReply(f.opcode())) {
+            uploadReplies.add(f.copy());
+            // Fehler meldet uploadFile() per Exception, UPLOAD_OK läuft zusätzlich normal durch
+            if (f.opcode() != ProtocolV2.OP_UPLOAD_OK) return;
+        }
+
+        switch (f.opcode()) {
+
+            // CHAT <room> <from> <text...>
+            case ProtocolV2.OP_CHAT -> {
+                if (f.isEmpty(1) || f.isEmpty(2)) {
+                    showRaw(f);
+                    return;
+                }
+                String room = f.get(1);
+                String from = f.get(2);
+                String text = f.get(3);
 
                 model.addChatLine("[" + room + "][" + from + "] " + text);
                 fireChat(room, from, text);
-                return;
             }
-        }
 
-        if (line.startsWith(Protocol.RES_FILE + " ")) {
-            String[] t = line.trim().split("\\s+", 3);
-            if (t.length < 3) {
-                model.addChatLine("[ERROR] Ungültiger FILE Header: " + line);
-                fireError("Ungültiger FILE Header");
-                return;
-            }
+            case ProtocolV2.OP_FILE -> {
+                if (f.isEmpty(1) || f.isEmpty(2)) {
+                    model.addChatLine("[ERROR] Ungültiger FILE Header: " + f.toLine());
+                    fireError("Ungültiger FILE Header");
+                    return;
+                }
 
-            String filename = t[1];
-            long size;
-            try {
-                size = Long.parseLong(t[2]);
-            } catch (NumberFormatException e) {
-                model.addChatLine("[ERROR] Ungültige Dateigröße: " + t[2]);
-                fireError("Ungültige Dateigröße");
-                return;
-            }
+                String filename = f.get(1);
+                long size;
+                try {
+                    size = f.parseLong(2);
+                } catch (NumberFormatException e) {
+                    model.addChatLine("[ERROR] Ungültige Dateigröße: " + f.get(2));
+                    fireError("Ungültige Dateigröße");
+                    return;
+                }
 
-            try {
-                receiveFile(filename, size);
-                String msg = "Download gespeichert: " + filename + " (" + size + " Bytes)";
-                model.addChatLine("[INFO] " + msg);
-                fireInfo(msg);
-            } catch (IOException e) {
-                model.addChatLine("[ERROR] Download fehlgeschlagen: " + e.getMessage());
-                fireError("Download fehlgeschlagen: " + e.getMessage());
+                try {
+                    receiveFile(filename, size);
+                    String msg = "Download gespeichert: " + filename + " (" + size + " Bytes)";
+                    model.addChatLine("[INFO] " + msg);
+                    fireInfo(msg);
+                } catch (IOException e) {
+                    model.addChatLine("[ERROR] Download fehlgeschlagen: " + e.getMessage());
+                    fireError("Download fehlgeschlagen: " + e.getMessage());
+                }
             }
-            return;
-        }
-
-        String[] tokens = Protocol.splitTokens(line);
-        if (tokens.length == 0) return;
-
-        switch (tokens[0]) {
 
-            case Protocol.RES_ROOM_LIST -> {
-                List<String> rooms = (tokens.length >= 2)
-                        ? Protocol.parsePipeList(tokens[1])
-                        : List.of();
+            case ProtocolV2.OP_ROOM_LIST -> {
+                List<String> rooms = Protocol.parsePipeList(f.get(1));
                 model.setRooms(rooms);
                 fireRoomsUpdated(model.getRooms());
             }
 
-            case Protocol.RES_ROOM_USERS -> {
-                if (tokens.length < 2) return;
+            case ProtocolV2.OP_ROOM_USERS -> {
+                if (f.isEmpty(1)) return;
 
-                String room = tokens[1];
-                List<String> users = (tokens.length >= 3)
-                        ? Protocol.parsePipeList(tokens[2])
-                        : List.of();
+                String room = f.get(1);
+                List<String> users = Protocol.parsePipeList(f.get(2));
 
                 String cur = model.getCurrentRoom();
                 boolean roomChanged = (cur == null || cur.isBlank() || !cur.equals(room));
@@ -207,23 +378,23 @@ public class ChatClient {
                 fireUsersUpdated(room, users);
             }
 
-            case Protocol.RES_WARN -> {
-                String txt = payload(tokens);
+            case ProtocolV2.OP_WARN -> {
+                String txt = f.get(1);
                 model.addChatLine("[WARN] " + txt);
                 fireWarn(txt);
             }
 
-            case Protocol.RES_BANNED -> {
-                String reason = payload(tokens);
+            case ProtocolV2.OP_BANNED -> {
+                String reason = f.get(1);
                 model.addChatLine("[BANNED] " + reason);
                 fireBanned(reason);
                 disconnect();
             }
 
-            case Protocol.RES_INFO -> {
-                String txt = payload(tokens);
+            case ProtocolV2.OP_INFO -> {
+                String txt = f.get(1);
 
-                if (txt != null && txt.startsWith("Joined ")) {
+                if (txt.startsWith("Joined ")) {
                     String room = txt.substring("Joined ".length()).trim();
                     if (!room.isBlank()) {
                         String cur = model.getCurrentRoom();
@@ -238,17 +409,44 @@ public class ChatClient {
                 fireInfo(txt);
             }
 
-            case Protocol.RES_ERROR -> {
-                String txt = payload(tokens);
+            case ProtocolV2.OP_ERROR -> {
+                String txt = f.get(1);
                 model.addChatLine("[ERROR] " + txt);
                 fireError(txt);
             }
-            case Protocol.RES_FILE_LIST -> {
-                if (tokens.length < 2) return;
-                String room = tokens[1];
-                List<String> files = (tokens.length >= 3)
-                        ? Protocol.parsePipeList(tokens[2])
-                        : List.of();
+
+            // SESSION <token>: nur merken, nicht anzeigen
+            case ProtocolV2.OP_SESSION -> sessionToken = f.get(1);
+
+            case ProtocolV2.OP_LOGIN_OK -> {
+                pendingAuth = null;
+                reconnectAttempts.set(0);
+                showRaw(f);
+                String room = rejoinRoom;
+                rejoinRoom = null;
+                if (room != null && !room.isBlank() && !room.equals(ChatServer.DEFAULT_ROOM)) {
+                    try {
+                        join(room);
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+
+            case ProtocolV2.OP_LOGIN_FAILED -> {
+                String reason = f.get(1);
+                if (reason.startsWith(Protocol.REASON_BUSY)) {
+                    retryAuthLater(reason);
+                    return;
+                }
+                pendingAuth = null;
+                rejoinRoom = null;
+                if (f.is(1, "SESSION_INVALID")) sessionToken = null;
+                showRaw(f);
+            }
+            case ProtocolV2.OP_FILE_LIST -> {
+                if (f.isEmpty(1)) return;
+                String room = f.get(1);
+                List<String> files = Protocol.parsePipeList(f.get(2));
                 String cur = model.getCurrentRoom();
                 if (cur != null && cur.equals(room)) {
                     model.setFilesInCurrentRoom(files);
@@ -257,31 +455,151 @@ public class ChatClient {
                 fireFileList(room, files);
             }
 
-            case Protocol.RES_UPLOAD_OK -> {
-                String fn = (tokens.length >= 2) ? tokens[1] : "?";
+            case ProtocolV2.OP_UPLOAD_OK -> {
+                String fn = f.isEmpty(1) ? "?" : f.get(1);
                 model.addChatLine("[INFO] Upload OK: " + fn);
                 fireInfo("Upload OK: " + fn);
             }
 
-            case Protocol.RES_UPLOAD_FAILED -> {
-                String reason = payload(tokens);
+            case ProtocolV2.OP_UPLOAD_FAILED -> {
+                String reason = f.get(1);
                 model.addChatLine("[ERROR] Upload failed: " + reason);
                 fireError("Upload failed: " + reason);
             }
 
-            case Protocol.RES_DOWNLOAD_FAILED -> {
-                String reason = payload(tokens);
+            case ProtocolV2.OP_FILE_RANGE -> handleFileRange(f);
+
+            // HISTORY_ITEM <room> <seq> <from> <text...>, gesammelt bis zum HISTORY_CURSOR
+            case ProtocolV2.OP_HISTORY_ITEM -> {
+                try {
+                    historyPage.add(new ChatClientListener.HistoryMessage(f.parseLong(2), f.get(3), f.get(4)));
+                } catch (NumberFormatException e) {
+                    showRaw(f);
+                }
+            }
+
+            // HISTORY_BATCH <room> <beforeSeq> <more> <einträge...>: alles zusammen als ein Model-Update + ein Event
+            case ProtocolV2.OP_HISTORY_BATCH -> {
+                replayBatch.addAll(Protocol.parseHistoryBatch(f.get(4)));
+                if ("1".equals(f.get(3))) return;
+                String room = f.get(1);
+                long before;
+                try {
+                    before = f.parseLong(2);
+                } catch (NumberFormatException e) {
+                    before = 0;
+                }
+                List<ChatClientListener.HistoryMessage> replay = List.copyOf(replayBatch);
+                replayBatch.clear();
+                List<String> lines = new ArrayList<>(replay.size());
+                for (ChatClientListener.HistoryMessage m : replay) lines.add("[" + room + "][" + m.from() + "] " + m.text());
+                model.addChatLines(lines);
+                fireHistoryReplay(room, replay, before);
+            }
+
+            // SEARCH_RESULT <room> <einträge...>, neueste zuerst
+            case ProtocolV2.OP_SEARCH_RESULT -> fireSearchResults(f.get(1), Protocol.parseHistoryBatch(f.get(2)));
+
+            case ProtocolV2.OP_HISTORY_CURSOR -> {
+                long before;
+                try {
+                    before = f.parseLong(2);
+                } catch (NumberFormatException e) {
+                    before = 0;
+                }
+                List<ChatClientListener.HistoryMessage> page = List.copyOf(historyPage);
+                historyPage.clear();
+                fireHistory(f.get(1), page, before);
+            }
+
+            case ProtocolV2.OP_DOWNLOAD_FAILED -> {
+                String reason = f.get(1);
+                SegmentedDownload d = pollRange();
+                if (d != null) {
+                    // fehlende Datei -> Teil-Datei ist wertlos; sonst für einen späteren Versuch behalten
+                    downloads.remove(d.getFilename(), d);
+                    d.abort("NOT_FOUND".equals(reason));
+                }
                 model.addChatLine("[ERROR] Download failed: " + reason);
                 fireError("Download failed: " + reason);
             }
 
-            default -> {
-                model.addChatLine("[SERVER] " + line);
-                fireInfo(line);
+            default -> showRaw(f);
+        }
+    }
+
+    // FILE_RANGE <filename> <offset> <length> <total> <version> + Rohbytes
+    private void handleFileRange(Tokens f) {
+        String filename = f.get(1);
+        long offset, length, total, version;
+        try {
+            offset = f.parseLong(2);
+            length = f.parseLong(3);
+            total = f.parseLong(4);
+            version = f.parseLong(5);
+        } catch (NumberFormatException e) {
+            // ohne Länge lässt sich der Body nicht überspringen
+            fireError("Ungültiger FILE_RANGE Header: " + f.toLine());
+            disconnect();
+            return;
+        }
+
+        SegmentedDownload d = pollRange();
+        try {
+            if (d == null || !d.getFilename().equals(filename)) {
+                in.skipNBytes(length);
+                return;
+            }
+            if (!d.onRange(offset, length, total, version, in)) {
+                fireInfo("Datei auf dem Server geändert, Download beginnt neu: " + filename);
             }
+            if (d.isComplete()) {
+                downloads.remove(filename, d);
+                Path target = d.finish(uniqueDownloadTarget(filename));
+                String msg = "Download gespeichert: " + target.getFileName() + " (" + d.getTotal() + " Bytes)";
+                model.addChatLine("[INFO] " + msg);
+                fireInfo(msg);
+                return;
+            }
+            requestRanges(d);
+        } catch (IOException e) {
+            if (d != null) {
+                downloads.remove(filename, d);
+                d.abort(false);
+            }
+            model.addChatLine("[ERROR] Download fehlgeschlagen: " + e.getMessage());
+            fireError("Download fehlgeschlagen: " + e.getMessage());
         }
     }
 
+    private synchronized SegmentedDownload pollRange() {
+        String filename = pendingRanges.poll();
+        return filename == null ? null : downloads.get(filename);
+    }
+
+    // Fenster von d auffüllen; Anfrage + Eintrag in pendingRanges unter demselben Lock wie send()
+    private synchronized void requestRanges(SegmentedDownload d) throws IOException {
+        String line;
+        while ((line = d.nextRequest()) != null) {
+            pendingRanges.add(d.getFilename());
+            writeFrame(line);
+        }
+        out.flush();
+    }
+
+    private static boolean isUploadReply(int opcode) {
+        return opcode == ProtocolV2.OP_UPLOAD_READY || opcode == ProtocolV2.OP_UPLOAD_ACK
+                || opcode == ProtocolV2.OP_UPLOAD_OK || opcode == ProtocolV2.OP_UPLOAD_FAILED
+                || opcode == ProtocolV2.OP_UPLOAD_NEED;
+    }
+
+    // z.B. LOGIN_OK, REGISTER_OK -> als Textzeile an die UI (LoginFrame prüft auf "LOGIN_OK")
+    private void showRaw(Tokens f) {
+        String line = f.toLine();
+        model.addChatLine("[SERVER] " + line);
+        fireInfo(line);
+    }
+
     private void readConsoleInput() throws IOException {
         System.out.println("""
                 Befehle:
@@ -292,10 +610,13 @@ public class ChatClient {
                   /leave
                   /msg <text>
                   /logout
+                  /reconnect
                   /quit
                   /files <room>
                   /download <room> <filename>
                   /upload <room> <path>
+                  /history <room> [beforeSeq]
+                  /search <room> <wörter...>
                 
                 """);
 
@@ -314,12 +635,6 @@ public class ChatClient {
             }
         }
     }
-    private static String payload(String[] tokens) {
-        if (tokens.length < 2) return "";
-        if (tokens.length == 2) return tokens[1];
-        return tokens[1] + " " + tokens[2];
-    }
-
     private boolean handleConsoleCommand(String line) throws IOException {
         String[] parts = line.split("\\s+", 3);
         String cmd = parts[0];
@@ -348,6 +663,9 @@ public class ChatClient {
                 sendMessage(text);
             }
             case "/logout" -> logout();
+            case "/reconnect" -> {
+                if (!reconnect()) System.out.println("Kein Sitzungs-Token, bitte /login <u> <p>");
+            }
             case "/quit" -> {
                 try { logout(); } catch (IOException ignore) {}
                 running = false;
@@ -365,6 +683,18 @@ public class ChatClient {
                 if (parts.length < 3) { System.out.println("Usage: /upload <room> <path>"); return true; }
                 uploadFile(parts[1], Path.of(parts[2]));
             }
+            case "/history" -> {
+                if (parts.length < 2) { System.out.println("Usage: /history <room> [beforeSeq]"); return true; }
+                try {
+                    requestHistory(parts[1], parts.length > 2 ? Long.parseLong(parts[2]) : 0, 50);
+                } catch (NumberFormatException e) {
+                    System.out.println("Usage: /history <room> [beforeSeq]");
+                }
+            }
+            case "/search" -> {
+                if (parts.length < 3) { System.out.println("Usage: /search <room> <wörter...>"); return true; }
+                search(parts[1], parts[2]);
+            }
 
             default -> System.out.println("Unbekannt: " + cmd);
         }
@@ -373,10 +703,18 @@ public class ChatClient {
 
     private synchronized void send(String msg) throws IOException {
         if (out == null) throw new IOException("Not connected");
-        out.writeUTF(msg);
+        writeFrame(msg);
         out.flush();
     }
 
+    private void writeFrame(String line) throws IOException {
+        if (protocolVersion == ProtocolV2.VERSION) {
+            out.write(ProtocolV2.encodeLine(line));
+        } else {
+            out.writeUTF(line);
+        }
+    }
+
     // Listener helper
     private void fireRoomsUpdated(List<String> rooms) {
         for (ChatClientListener l : listeners) l.onRoomsUpdated(rooms);
@@ -406,6 +744,18 @@ public class ChatClient {
         for (ChatClientListener l : listeners) l.onBanned(reason);
     }
 
+    private void fireHistory(String room, List<ChatClientListener.HistoryMessage> messages, long beforeSeq) {
+        for (ChatClientListener l : listeners) l.onHistory(room, messages, beforeSeq);
+    }
+
+    private void fireHistoryReplay(String room, List<ChatClientListener.HistoryMessage> messages, long beforeSeq) {
+        for (ChatClientListener l : listeners) l.onHistoryReplay(room, messages, beforeSeq);
+    }
+
+    private void fireSearchResults(String room, List<ChatClientListener.HistoryMessage> results) {
+        for (ChatClientListener l : listeners) l.onSearchResults(room, results);
+    }
+
     private void fireConnectionClosed() {
         for (ChatClientListener l : listeners) l.onConnectionClosed();
     }
@@ -414,7 +764,27 @@ public class ChatClient {
         if (size < 0) throw new IOException("Negative Größe");
 
         Files.createDirectories(downloadDir);
+        Path target = uniqueDownloadTarget(filename);
+
+        try (OutputStream fos = Files.newOutputStream(
+                target,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE
+        )) {
+            byte[] buf = new byte[8192];
+            long remaining = size;
+
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buf.length, remaining);
+                int r = in.read(buf, 0, toRead);
+                if (r == -1) throw new IOException("EOF während Download");
+                fos.write(buf, 0, r);
+                remaining -= r;
+            }
+        }
+    }
 
+    private Path uniqueDownloadTarget(String filename) throws IOException {
         Path target = downloadDir.resolve(filename).normalize();
         if (!target.startsWith(downloadDir)) {
             throw new IOException("Ungültiger Dateiname (Path Traversal)");
@@ -435,23 +805,7 @@ public class ChatClient {
                 i++;
             }
         }
-
-        try (OutputStream fos = Files.newOutputStream(
-                target,
-                StandardOpenOption.CREATE_NEW,
-                StandardOpenOption.WRITE
-        )) {
-            byte[] buf = new byte[8192];
-            long remaining = size;
-
-            while (remaining > 0) {
-                int toRead = (int) Math.min(buf.length, remaining);
-                int r = in.read(buf, 0, toRead);
-                if (r == -1) throw new IOException("EOF während Download");
-                fos.write(buf, 0, r);
-                remaining -= r;
-            }
-        }
+        return target;
     }
 
     private static final long MAX_FILE_BYTES = 50L * 1024 * 1024; // 50 MB
@@ -474,9 +828,18 @@ public class ChatClient {
         if (size < 0 || size > MAX_FILE_BYTES) throw new IOException("Datei zu groß (max 50MB)");
         if (!isValidFilename(filename)) throw new IOException("Ungültiger Dateiname");
 
+        if (protocolVersion == ProtocolV2.VERSION) {
+            // erst fragen, ob der Server den Inhalt schon hat (dieselben Folien in mehreren Räumen) -> dann ohne Body.
+            // Nur mit v2: ein Server, der HELLO nicht kennt, kennt auch UPLOAD_HASH nicht und antwortet mit ERROR
+            String sha256 = BlobStore.sha256(file);
+            if (uploadByHash(room, filename, size, sha256)) return;
+            uploadChunked(room, filename, file, size, sha256);
+            return;
+        }
+
         // Wichtig: Header + Bytes dürfen nicht mit anderen send() Calls vermischt werden
         synchronized (this) {
-            out.writeUTF(Protocol.buildUpload(room, filename, size));
+            writeFrame(Protocol.buildUpload(room, filename, size));
             out.flush();
 
             try (InputStream fis = Files.newInputStream(file)) {
@@ -494,12 +857,148 @@ public class ChatClient {
         }
     }
 
+    // UPLOAD_HASH -> true bei UPLOAD_OK (Server hatte den Inhalt, nichts übertragen), false bei UPLOAD_NEED
+    private boolean uploadByHash(String room, String filename, long size, String sha256) throws IOException {
+        synchronized (uploadLock) {
+            uploadReplies.clear();
+            awaitingUploadReply = true;
+            try {
+                send(Protocol.buildUploadHash(room, filename, size, sha256));
+                Tokens reply = awaitUploadReply(ProtocolV2.OP_UPLOAD_OK, ProtocolV2.OP_UPLOAD_NEED);
+                return reply.opcode() == ProtocolV2.OP_UPLOAD_OK;
+            } finally {
+                awaitingUploadReply = false;
+            }
+        }
+    }
+
+    // UPLOAD_BEGIN -> UPLOAD_READY <id> <offset>, dann Chunks ab offset mit bis zu UPLOAD_WINDOW unbestätigten
+    // Chunks unterwegs, zuletzt UPLOAD_COMMIT. Bricht die Verbindung ab, setzt ein erneuter Aufruf (nach
+    // Reconnect + Login + Join) beim zuletzt bestätigten Offset fort. Kehrt erst nach UPLOAD_OK zurück.
+    // BEGIN und Commit tragen den lokalen SHA-256: der Server setzt nur einen Teil-Upload mit demselben
+    // Inhalt fort und prüft den Hash am Ende gegen den beim Empfang berechneten.
+    private void uploadChunked(String room, String filename, Path file, long size, String sha256) throws IOException {
+        synchronized (uploadLock) {
+            uploadReplies.clear();
+            awaitingUploadReply = true;
+            try {
+                send(Protocol.buildUploadBegin(room, filename, size, sha256));
+                Tokens ready = awaitUploadReply(ProtocolV2.OP_UPLOAD_READY);
+                String id = ready.get(1);
+                long acked = ready.parseLong(2);
+                if (acked > 0) {
+                    fireInfo("Upload wird fortgesetzt: " + filename + " ab Byte " + acked + " von " + size);
+                }
+
+                try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                    byte[] buf = new byte[(int) Math.min(UPLOAD_CHUNK_BYTES, Math.max(1, size))];
+                    // erwartete Offsets der unbestätigten Chunks, in Sende-Reihenfolge
+                    ArrayDeque<Long> pending = new ArrayDeque<>();
+                    long sent = acked;
+                    int rewinds = 0;
+
+                    while (acked < size) {
+                        while (sent < size && pending.size() < UPLOAD_WINDOW) {
+                            int len = (int) Math.min(buf.length, size - sent);
+                            readFully(fc, buf, sent, len);
+                            synchronized (this) {
+                                writeFrame(Protocol.buildUploadChunk(id, sent, len));
+                                out.write(buf, 0, len);
+                                out.flush();
+                            }
+                            sent += len;
+                            pending.add(sent);
+                        }
+
+                        long expected = pending.poll();
+                        long offset = awaitUploadReply(ProtocolV2.OP_UPLOAD_ACK).parseLong(2);
+                        if (offset == expected) {
+                            acked = offset;
+                            continue;
+                        }
+
+                        // Server hat verworfen (Lücke/paralleler Chunk): restliche ACKs abwarten, dann ab seinem Offset neu
+                        if (++rewinds > UPLOAD_MAX_REWINDS) {
+                            throw new IOException("Upload-Offset passt nicht (" + offset + " statt " + expected + ")");
+                        }
+                        while (!pending.isEmpty()) {
+                            pending.poll();
+                            offset = awaitUploadReply(ProtocolV2.OP_UPLOAD_ACK).parseLong(2);
+                        }
+                        acked = offset;
+                        sent = offset;
+                    }
+                }
+
+                send(Protocol.buildUploadCommit(id, sha256));
+                awaitUploadReply(ProtocolV2.OP_UPLOAD_OK);
+            } catch (NumberFormatException e) {
+                throw new IOException("Ungültige Antwort vom Server: " + e.getMessage());
+            } finally {
+                awaitingUploadReply = false;
+            }
+        }
+    }
+
+    private Tokens awaitUploadReply(int opcode) throws IOException {
+        return awaitUploadReply(opcode, opcode);
+    }
+
+    private Tokens awaitUploadReply(int opcode, int alternative) throws IOException {
+        Tokens reply;
+        try {
+            reply = uploadReplies.poll(UPLOAD_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload unterbrochen");
+        }
+        if (reply == null) throw new IOException("Keine Antwort vom Server (Timeout)");
+        if (reply.opcode() == ProtocolV2.OP_UPLOAD_FAILED) throw new IOException("Upload failed: " + reply.get(1));
+        if (reply.opcode() != opcode && reply.opcode() != alternative) throw new IOException("Unerwartete Antwort: " + reply.toLine());
+        return reply;
+    }
+
+    private static void readFully(FileChannel fc, byte[] buf, long position, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) < 0) throw new IOException("EOF beim Lesen der Datei");
+        }
+    }
+
     public void listFiles(String room) throws IOException {
         send(Protocol.buildFiles(room));
     }
 
+    // ältere Nachrichten vor beforeSeq (0 = ab der neuesten); die Seite kommt per onHistory
+    public void requestHistory(String room, long beforeSeq, int limit) throws IOException {
+        send(Protocol.buildHistory(room, beforeSeq, limit));
+    }
+
+    // Nachrichten im Raum, die alle Wörter enthalten; die Treffer kommen per onSearchResults
+    public void search(String room, String query) throws IOException {
+        send(Protocol.buildSearch(room, query));
+    }
+
+    // v1: ganze Datei per DOWNLOAD; v2: in Bereichen per DOWNLOAD_RANGE (mehrere gleichzeitig angefordert),
+    // eine vorhandene downloads/<datei>.part wird fortgesetzt. Das Ergebnis meldet der Listener per onInfo/onError.
     public void downloadFile(String room, String filename) throws IOException {
-        send(Protocol.buildDownload(room, filename));
+        if (protocolVersion != ProtocolV2.VERSION) {
+            send(Protocol.buildDownload(room, filename));
+            return;
+        }
+        if (!isValidFilename(filename)) throw new IOException("Ungültiger Dateiname");
+
+        SegmentedDownload d = new SegmentedDownload(room, filename, downloadDir);
+        if (downloads.putIfAbsent(filename, d) != null) throw new IOException("Download läuft bereits: " + filename);
+        try {
+            long offset = d.open();
+            if (offset > 0) fireInfo("Download wird fortgesetzt: " + filename + " ab Byte " + offset);
+            requestRanges(d);
+        } catch (IOException e) {
+            downloads.remove(filename, d);
+            d.abort(false);
+            throw e;
+        }
     }
 
     private void fireFileList(String room, List<String> files) {
@@ -518,7 +1017,7 @@ public class ChatClient {
         if (s.contains("/") || s.contains("\\")) return false;
         if (s.contains("|") || s.contains(";")) return false;
         if (s.contains(" ")) return false;
-        return true;
+        return s.codePoints().noneMatch(Character::isISOControl);
     }
 
     private boolean isAllowedUploadFilename(String filename) {
@@ -4,6 +4,9 @@ import java.util.List;
 
 public interface ChatClientListener {
 
+    // eine ältere Nachricht aus einer HISTORY-Seite
+    record HistoryMessage(long seq, String from, String text) {}
+
     default void onRoomsUpdated(List<String> rooms) {}
     default void onUsersUpdated(String room, List<String> users) {}
     default void onChatMessage(String room, String from, String text) {}
@@ -14,6 +17,16 @@ public interface ChatClientListener {
     default void onConnectionClosed() {}
     default void onFileList(String room, List<String> files) {}
     default void onFilesUpdated(String room, List<String> files) {}
+    // Seite älterer Nachrichten (älteste zuerst, nach dem Join leer); beforeSeq für die nächste Seite, 0 = nichts Älteres
+    default void onHistory(String room, List<HistoryMessage> messages, long beforeSeq) {}
+    // History beim Join (neueste Nachrichten, älteste zuerst) als ein Event; ohne eigene Implementierung
+    // wie einzelne Chatnachrichten plus leere History-Seite mit dem Cursor
+    default void onHistoryReplay(String room, List<HistoryMessage> messages, long beforeSeq) {
+        for (HistoryMessage m : messages) onChatMessage(room, m.from(), m.text());
+        onHistory(room, List.of(), beforeSeq);
+    }
+    // Treffer einer SEARCH-Anfrage, neueste zuerst (leer = nichts gefunden)
+    default void onSearchResults(String room, List<HistoryMessage> results) {}
 
 
 }
@@ -29,6 +29,16 @@ public class ChatClientMain {
                 System.out.println("[" + room + "][" + from + "] " + text);
             }
 
+            @Override public void onHistory(String room, List<HistoryMessage> messages, long beforeSeq) {
+                for (HistoryMessage m : messages) System.out.println("[" + room + "][#" + m.seq() + "][" + m.from() + "] " + m.text());
+                if (!messages.isEmpty() && beforeSeq > 0) System.out.println("[HISTORY@" + room + "] weiter mit /history " + room + " " + beforeSeq);
+            }
+
+            @Override public void onSearchResults(String room, List<HistoryMessage> results) {
+                System.out.println("[SEARCH@" + room + "] " + results.size() + " Treffer");
+                for (HistoryMessage m : results) System.out.println("[" + room + "][#" + m.seq() + "][" + m.from() + "] " + m.text());
+            }
+
             @Override public void onConnectionClosed() {
                 System.out.println("[CONN] geschlossen");
             }
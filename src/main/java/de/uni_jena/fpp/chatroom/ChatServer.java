@@ -1,124 +1,278 @@
 package de.uni_jena.fpp.chatroom;
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
-import java.io.DataInputStream;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayDeque;
 
 
 public class ChatServer {
 
     public static final String DEFAULT_ROOM = "Lobby";
     private static final long MAX_FILE_BYTES = 50L * 1024 * 1024; // 50 MB
+    // Teil-Uploads ohne neuen Chunk seit 24 h werden beim nächsten UPLOAD_BEGIN im Raum entfernt
+    private static final long STALE_UPLOAD_MILLIS = 24L * 60 * 60 * 1000;
     private final Path roomsBaseDir = Path.of("data", "rooms");
+    // Dateiinhalte liegen dedupliziert unter data/blobs, die Räume halten nur Name -> Hash
+    private final BlobStore blobs = new BlobStore(Path.of("data", "blobs"), roomsBaseDir);
     private final int port;
     private final UserRepository userRepo;
+    // PBKDF2 für LOGIN/REGISTER läuft nur hier, nie im Handler-/Loop-Thread
+    private final AuthPool authPool = new AuthPool(
+            AuthPool.defaultThreads(Config.getAuthThreads()), Config.getAuthQueue());
+    // Sitzungs-Tokens für RESUME (null = aus); Widerruf (Ban, Logout) hält SessionTokens persistent
+    private final SessionTokens sessions;
     private volatile boolean running;
     private ServerSocket serverSocket;
-    private final List<ClientHandler> connections = new CopyOnWriteArrayList<>();
+    public static final String ENGINE_PLATFORM = "platform";
+    public static final String ENGINE_VIRTUAL = "virtual";
+    public static final String ENGINE_NIO = "nio";
+    private final String engine;
+    private volatile NioChatServer nioServer;
+    private final int maxProtocolVersion = Math.max(1, Math.min(Config.getProtocolVersion(), ProtocolV2.VERSION));
+    private final int outboundCapacity = Config.getOutboundCapacity();
+    private final OutboundQueue.Overflow outboundOverflow =
+            OutboundQueue.Overflow.parse(Config.getOutboundOverflow(), OutboundQueue.Overflow.DROP_OLDEST);
+    // Set statt CopyOnWriteArrayList: bei vielen tausend Verbindungen wäre jedes add/remove eine Kopie
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
     private final Map<String, ClientHandler> loggedInClients = new ConcurrentHashMap<>();
     private final Map<String, Room> rooms = new ConcurrentHashMap<>();
-    private int nextClientId = 1;
+    // laufende Chunk-Uploads nach id; der Zustand selbst liegt unter data/rooms/<room>/.uploads
+    private final Map<String, ChunkedUpload> chunkedUploads = new ConcurrentHashMap<>();
+    // null = Raum-Arbeit läuft direkt im Thread des Handlers (server.room.shards=0)
+    private final RoomShards shards = Config.getRoomShards() > 0 ? new RoomShards(Config.getRoomShards()) : null;
+    // ROOM_USERS an die übrigen Mitglieder gebündelt: bei Join-Stürmen (Neustart, Reconnect) sonst eine volle
+    // Mitgliederliste an alle pro Join -> quadratisch in der Raumgröße. Daemon wie die Shards.
+    private final long roomUsersDelayMs = Config.getRoomUsersDelayMillis();
+    private final Set<String> roomUsersPending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService roomUsersTimer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("room-users").daemon(true).factory());
+    private final AtomicInteger nextClientId = new AtomicInteger(1);
     private final ServerLogger logger;
     private static final int MAX_HISTORY_PER_ROOM = 200;
+    static final int MAX_HISTORY_PAGE = 200;
+    static final int MAX_SEARCH_RESULTS = 50;
     private static final class ChatEntry {
+        // fortlaufend pro Raum, wie im HistoryLog
+        final long seq;
         final String from;
         final String text;
-        ChatEntry(String from, String text) {
+        ChatEntry(long seq, String from, String text) {
+            this.seq = seq;
             this.from = from;
             this.text = text;
         }
     }
+    // zuletzt gebaute Join-Wiederholung eines Raums, gültig solange der Ring dieselben Einträge liefert
+    private record Replay(long firstSeq, long lastSeq, List<Frame> frames) {}
+    private record PendingChat(String from, String text) {}
+
+    // Ende der History eines Raums plus Schreib-Warteschlange. Wer einreiht und writing bekommt, schreibt alles
+    // Wartende (auch das anderer Threads) nach Log, Ring und Suchindex -> genau ein Schreiber, ohne Monitor;
+    // die übrigen Sender kehren sofort zurück. Mit Shards ist der Schreiber immer der Shard-Thread.
+    private static final class RoomHistory {
+        final HistoryRing<ChatEntry> ring = new HistoryRing<>(MAX_HISTORY_PER_ROOM + 1);
+        final Queue<PendingChat> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writing = new AtomicBoolean();
+    }
 
-    private final Map<String, ArrayDeque<ChatEntry>> roomHistory = new ConcurrentHashMap<>();
-
-    private void ensureHistory(String room) {
-        if (room == null) return;
-        roomHistory.computeIfAbsent(room, r -> new ArrayDeque<>());
+    // maßgeblich ist das HistoryLog auf der Platte; roomHistory hält nur dessen Ende für den Join.
+    // Lesen (Join, HISTORY) geht lockfrei über den HistoryRing, geschrieben wird nur aus sendChat()
+    private final HistoryLog historyLog = new HistoryLog(
+            Path.of(Config.getHistoryDir()), Config.getHistorySegmentBytes(), Config.getHistoryFsyncMillis());
+    private final Map<String, RoomHistory> roomHistory = new ConcurrentHashMap<>();
+    // Volltextindex über dieselbe History, wächst in addHistory() mit
+    private final SearchIndex searchIndex = new SearchIndex(
+            Path.of(Config.getHistoryDir()), historyLog, Config.getSearchSaveSeconds());
+    private final Map<String, Replay> replayCache = new ConcurrentHashMap<>();
+
+    // beim ersten Zugriff (auch nach Neustart/stop()) das Ende aus dem Log laden. Gelesen wird außerhalb der Map
+    // (kein computeIfAbsent, das den Bin sperrt); laden zwei Threads gleichzeitig, gewinnt der erste putIfAbsent.
+    private RoomHistory ensureHistory(String room) {
+        if (room == null) return null;
+        RoomHistory h = roomHistory.get(room);
+        if (h != null) return h;
+
+        RoomHistory loaded = new RoomHistory();
+        for (HistoryLog.Entry e : historyLog.tail(room, MAX_HISTORY_PER_ROOM)) {
+            loaded.ring.add(new ChatEntry(e.seq(), e.from(), e.text()));
+        }
+        h = roomHistory.putIfAbsent(room, loaded);
+        return h != null ? h : loaded;
     }
 
     private void addHistory(String room, String from, String text) {
-        if (room == null) return;
-        ensureHistory(room);
-        ArrayDeque<ChatEntry> dq = roomHistory.get(room);
-        synchronized (dq) {
-            dq.addLast(new ChatEntry(from, text));
-            while (dq.size() > MAX_HISTORY_PER_ROOM) dq.removeFirst();
+        RoomHistory h = ensureHistory(room);
+        if (h == null) return;
+        h.pending.add(new PendingChat(from, text));
+        // seq-Vergabe und Einfügen nur durch den einen Schreiber -> Reihenfolge im Ring = seq-Reihenfolge im Log.
+        // Nach dem Freigeben erneut prüfen: was ein anderer Thread eingereiht hat, während er writing nicht bekam,
+        // darf nicht liegen bleiben.
+        while (!h.pending.isEmpty() && h.writing.compareAndSet(false, true)) {
+            try {
+                PendingChat c;
+                while ((c = h.pending.poll()) != null) {
+                    long seq = historyLog.append(room, c.from(), c.text());
+                    h.ring.add(new ChatEntry(seq, c.from(), c.text()));
+                    searchIndex.add(room, seq, c.text());
+                }
+            } finally {
+                h.writing.set(false);
+            }
         }
     }
 
+    // Raum gelöscht: History im Speicher und auf der Platte weg
+    private void dropHistory(String room) {
+        roomHistory.remove(room);
+        replayCache.remove(room);
+        searchIndex.drop(room);
+        historyLog.drop(room);
+    }
+
     private List<ChatEntry> getHistorySnapshot(String room) {
-        ArrayDeque<ChatEntry> dq = roomHistory.get(room);
-        if (dq == null) return List.of();
-        synchronized (dq) {
-            return new ArrayList<>(dq);
-        }
+        RoomHistory h = roomHistory.get(room);
+        return h == null ? List.of() : h.ring.tail(MAX_HISTORY_PER_ROOM);
     }
 
+    // Join: das Ende der History in wenigen HISTORY_BATCH-Frames (meist einem), darin auch der Cursor,
+    // ab dem der Client mit HISTORY weiterblättert
     private void sendHistoryTo(String room, ClientHandler handler) {
-        for (ChatEntry e : getHistorySnapshot(room)) {
-            try {
-                handler.send(Protocol.buildChat(room, e.from, e.text));
-            } catch (IOException ex) {
-                break;
+        try {
+            for (Frame f : replayFrames(room, getHistorySnapshot(room))) handler.send(f);
+        } catch (IOException e) {
+            System.err.println("[SERVER] History an " + handler.getName() + " fehlgeschlagen: " + e.getMessage());
+        }
+    }
+
+    // Frames je unter HISTORY_BATCH_BYTES; bis zur nächsten Nachricht im Raum bekommen alle Joins dieselben
+    // Frame-Objekte -> gebaut und kodiert wird höchstens einmal pro Protokollversion
+    private List<Frame> replayFrames(String room, List<ChatEntry> snapshot) {
+        long first = snapshot.isEmpty() ? 0 : snapshot.get(0).seq;
+        long last = snapshot.isEmpty() ? 0 : snapshot.get(snapshot.size() - 1).seq;
+        Replay cached = replayCache.get(room);
+        if (cached != null && cached.firstSeq() == first && cached.lastSeq() == last) return cached.frames();
+
+        long cursor = first > 1 ? first : 0;
+        List<Frame> frames = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int bytes = 0;
+        for (ChatEntry e : snapshot) {
+            int mark = sb.length();
+            int n = Protocol.appendHistoryEntry(sb, e.seq, e.from, e.text);
+            if (bytes > 0 && bytes + n > Protocol.HISTORY_BATCH_BYTES) {
+                frames.add(Frame.of(Protocol.buildHistoryBatch(room, cursor, true, sb.subSequence(0, mark))));
+                sb.delete(0, mark);
+                bytes = 0;
             }
+            bytes += n;
         }
+        frames.add(Frame.of(Protocol.buildHistoryBatch(room, cursor, false, sb)));
+        List<Frame> result = List.copyOf(frames);
+        replayCache.put(room, new Replay(first, last, result));
+        return result;
+    }
+
+    // HISTORY: bis zu limit Nachrichten vor beforeSeq (0 = ab der neuesten), älteste zuerst.
+    // Was der Ring abdeckt, kommt aus dem Speicher; nur der ältere Teil [from, erste seq im Ring) aus dem
+    // HistoryLog (Index-Suche, kein Komplettlesen). Die neuesten Einträge können noch beim Writer warten.
+    public List<HistoryLog.Entry> getHistoryPage(String room, long beforeSeq, int limit) {
+        RoomHistory h = ensureHistory(room);
+        List<HistoryLog.Entry> out = new ArrayList<>();
+        List<ChatEntry> tail = h == null ? List.of() : h.ring.tail(MAX_HISTORY_PER_ROOM);
+        if (tail.isEmpty()) return out;
+
+        long newest = tail.get(tail.size() - 1).seq;
+        long before = beforeSeq <= 0 ? newest + 1 : Math.min(beforeSeq, newest + 1);
+        long from = Math.max(1, before - limit);
+        long oldestInRing = tail.get(0).seq;
+        if (from < oldestInRing) {
+            long upTo = Math.min(before, oldestInRing);
+            int count = (int) (upTo - from);
+            List<HistoryLog.Entry> older = historyLog.read(room, upTo, count);
+            if (older.size() < count) {
+                // Writer hängt hinterher (Burst größer als der Ring): warten, bis alles geschrieben ist
+                historyLog.flush();
+                older = historyLog.read(room, upTo, count);
+            }
+            out.addAll(older);
+        }
+        for (ChatEntry e : tail) {
+            if (e.seq >= before) break;
+            if (e.seq >= from) out.add(new HistoryLog.Entry(e.seq, 0, e.from, e.text));
+        }
+        return out;
+    }
+
+    // SEARCH / ServerFrame: neueste Nachrichten mit allen Wörtern aus query, neueste zuerst.
+    // Der Index liefert nur seqs, die Texte kommen wie bei HISTORY aus dem Ring oder dem Log.
+    List<HistoryLog.Entry> searchHistory(String room, String query, int limit) {
+        List<HistoryLog.Entry> out = new ArrayList<>();
+        for (long seq : searchIndex.search(room, query, limit)) {
+            List<HistoryLog.Entry> one = getHistoryPage(room, seq + 1, 1);
+            if (!one.isEmpty() && one.get(0).seq() == seq) out.add(one.get(0));
+        }
+        return out;
     }
 
     public ChatServer(int port, UserRepository userRepo, ServerLogger logger) {
+        this(port, userRepo, logger, Config.getServerEngine());
+    }
+
+    public ChatServer(int port, UserRepository userRepo, ServerLogger logger, String engine) {
         this.port = port;
+        this.engine = engine == null ? ENGINE_PLATFORM : engine;
         this.userRepo = userRepo;
         this.logger = logger;
+        this.sessions = openSessions();
         rooms.putIfAbsent(DEFAULT_ROOM, new Room(DEFAULT_ROOM, true));
         ensureHistory(DEFAULT_ROOM);
+        searchIndex.warm(DEFAULT_ROOM);
         try {
             Files.createDirectories(roomsBaseDir);
+            BlobStore.LoadStats st = blobs.load();
+            logger.info("BLOBS_LOADED rooms=" + st.rooms() + " files=" + st.files() + " blobs=" + st.blobs()
+                    + " migrated=" + st.migrated() + " orphans=" + st.orphans() + " missing=" + st.missing());
         } catch (IOException e) {
-            logger.error("Konnte roomsBaseDir nicht anlegen: " + e.getMessage());
+            logger.error("Konnte Dateiablage nicht laden: " + e.getMessage());
         }
 
     }
 
     public void start() {
-        logger.info("Server startet (Multi-Client) auf Port " + port);
-        System.out.println("[SERVER] Starte ChatServer (Multi-Client) auf Port " + port);
+        logger.info("Server startet (Multi-Client, engine=" + engine
+                + (shards != null ? ", roomShards=" + shards.size() : "") + ") auf Port " + port);
+        System.out.println("[SERVER] Starte ChatServer (Multi-Client, engine=" + engine + ") auf Port " + port);
 
         running = true;
 
-        try (ServerSocket ss = new ServerSocket(port)) {
-            this.serverSocket = ss;
-
-            logger.info("Warte auf eingehende Clients ...");
-            System.out.println("[SERVER] Warte auf eingehende Clients ...");
-
-            while (running) {
-                Socket clientSocket = ss.accept();
-                int id = nextClientId++;
-
-                logger.info("CONNECT id=" + id + " addr=" + clientSocket.getRemoteSocketAddress());
-
-                ClientHandler handler = new ClientHandler(this, clientSocket, id);
-                connections.add(handler);
-                handler.start();
-
-                System.out.println("[SERVER] Verbindung angenommen (" + id + "): " + clientSocket.getRemoteSocketAddress());
+        try {
+            if (ENGINE_NIO.equals(engine)) {
+                runNio();
+            } else {
+                runBlocking();
             }
-
         } catch (IOException e) {
             if (running) {
                 logger.error("ServerSocket Fehler: " + e.getMessage());
@@ -135,6 +289,74 @@ public class ChatServer {
 
         }
     }
+
+    private void runBlocking() throws IOException {
+        // virtual: blockierendes readUTF/PBKDF2 belegt keinen OS-Thread mehr, der Code bleibt derselbe
+        Thread.Builder threads = ENGINE_VIRTUAL.equals(engine) ? Thread.ofVirtual() : Thread.ofPlatform();
+
+        // ServerSocketChannel im Blocking-Modus: die Sockets haben dann einen SocketChannel,
+        // über den Downloads per FileChannel.transferTo laufen können
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ssc.bind(new InetSocketAddress(port));
+            this.serverSocket = ssc.socket();
+
+            logger.info("Warte auf eingehende Clients ...");
+            System.out.println("[SERVER] Warte auf eingehende Clients ...");
+
+            while (running) {
+                Socket clientSocket = ssc.accept().socket();
+                try {
+                    // Antworten werden selbst gebündelt geflusht; Nagle würde kleine Folge-Frames (z.B. beim Join) bis zum ACK aufhalten
+                    clientSocket.setTcpNoDelay(true);
+                } catch (IOException e) {
+                    // Gegenseite schon weg (Reset vor dem Setzen der Option): nur diese Verbindung verwerfen
+                    logger.warn("ACCEPT_FAIL err=" + e.getMessage());
+                    try { clientSocket.close(); } catch (IOException ignore) {}
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(this, clientSocket, nextClientId());
+                addConnection(handler, clientSocket.getRemoteSocketAddress());
+                threads.name(handler.getName()).start(handler);
+            }
+        }
+    }
+
+    private void runNio() throws IOException {
+        NioChatServer nio = new NioChatServer(this, port, Config.getNioThreads());
+        this.nioServer = nio;
+        try {
+            logger.info("Warte auf eingehende Clients (NIO, " + nio.getLoopCount() + " Event-Loops) ...");
+            System.out.println("[SERVER] Warte auf eingehende Clients (NIO) ...");
+            nio.run();
+        } finally {
+            // bei stop() räumt stop() selbst auf, sonst (Fehler) hier
+            if (running) nio.shutdown();
+        }
+    }
+
+    int nextClientId() {
+        return nextClientId.getAndIncrement();
+    }
+
+    // höchste Version, die der Server per HELLO aushandelt (protocol.version)
+    int getMaxProtocolVersion() {
+        return maxProtocolVersion;
+    }
+
+    <T> OutboundQueue<T> newOutboundQueue() {
+        return new OutboundQueue<>(outboundCapacity, outboundOverflow);
+    }
+
+    FlushPolicy newFlushPolicy() {
+        return new FlushPolicy(Config.getFlushBytes(), Config.getFlushDelayMillis());
+    }
+
+    void addConnection(ClientHandler handler, SocketAddress addr) {
+        logger.info("CONNECT id=" + handler.getClientId() + " addr=" + addr);
+        connections.add(handler);
+        System.out.println("[SERVER] Verbindung angenommen (" + handler.getClientId() + "): " + addr);
+    }
+
     public java.util.Map<String, String> getOnlineUserRooms() {
         java.util.Map<String, String> map = new java.util.HashMap<>();
         for (var e : loggedInClients.entrySet()) {
@@ -163,13 +385,20 @@ public class ChatServer {
         } catch (IOException e) {
             logger.error("Fehler beim Schließen des ServerSocket: " + e.getMessage());
         }
+        NioChatServer nio = nioServer;
+        if (nio != null) nio.closeAcceptor();
 
         // Clients trennen, damit nichts mehr weiterläuft
+        Frame bye = Frame.urgent(Protocol.RES_INFO + " Server wird beendet.");
         for (ClientHandler ch : new ArrayList<>(connections)) {
             try {
-                ch.send(Protocol.RES_INFO + " Server wird beendet.");
+                ch.send(bye);
             } catch (Exception ignore) {}
-            ch.closeNow();
+            ch.closeAfterFlush();
+        }
+        if (nio != null) {
+            nio.shutdown();
+            nioServer = null;
         }
 
         // Server-State zurücksetzen
@@ -178,8 +407,13 @@ public class ChatServer {
 
         rooms.clear();
         rooms.putIfAbsent(DEFAULT_ROOM, new Room(DEFAULT_ROOM, true));
+        // History bleibt auf der Platte und wird beim nächsten Zugriff neu geladen
+        historyLog.flush();
+        searchIndex.save();
         roomHistory.clear();
+        replayCache.clear();
         ensureHistory(DEFAULT_ROOM);
+        logger.info("AUTH " + authPool.summary());
         logger.info("Stop komplett (clients geschlossen)");
     }
 
@@ -206,6 +440,69 @@ public class ChatServer {
         }
     }
 
+    // wie registerUser/authenticateUser, aber auf dem AuthPool; bei voller Queue schlägt das Future
+    // mit RejectedExecutionException fehl
+    CompletableFuture<Boolean> registerUserAsync(String username, String password) {
+        if (!isValidSimpleName(username) || password == null) return CompletableFuture.completedFuture(false);
+        return authPool.submit(() -> registerUser(username, password));
+    }
+
+    CompletableFuture<User> authenticateUserAsync(String username, String password) {
+        if (username == null || password == null) return CompletableFuture.completedFuture(null);
+        return authPool.submit(() -> authenticateUser(username, password));
+    }
+
+    private SessionTokens openSessions() {
+        if (Config.getSessionTtlMinutes() <= 0) return null;
+        try {
+            return new SessionTokens(Path.of(Config.getSessionKeyFile()), Config.getSessionTtlMinutes() * 60_000L);
+        } catch (IOException e) {
+            logger.error("Sitzungs-Tokens aus, Schlüssel nicht lesbar: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // null = Tokens aus
+    String issueSession(User user) {
+        return sessions == null ? null : sessions.issue(user.getUsername());
+    }
+
+    // RESUME: HMAC + Ablauf + Widerruf prüfen, dann nur den Datensatz holen (kein PBKDF2).
+    // Gebannte User kommen zurück wie bei verifyLogin, der Handler weist sie ab
+    User resumeSession(String token) {
+        if (sessions == null) return null;
+        SessionTokens.Session s = sessions.verify(token);
+        if (s == null) return null;
+        return userRepo.findUser(s.username());
+    }
+
+    void revokeSessions(String username) {
+        if (sessions == null) return;
+        try {
+            sessions.revoke(username);
+        } catch (IOException e) {
+            logger.error("Widerruf für " + username + " nicht gespeichert, gilt nur bis zum Neustart: " + e.getMessage());
+        }
+    }
+
+    // RESUME, während die alte Verbindung noch eingetragen ist (Server hat den Abbruch noch nicht bemerkt):
+    // die alte wird abgelöst
+    void takeOverSession(String username) {
+        ClientHandler old = loggedInClients.remove(username);
+        if (old == null) return;
+        logger.info("SESSION_TAKEOVER user=" + username + " old=" + old.getName());
+        forceLeaveRoom(old);
+        old.closeNow();
+    }
+
+    long getAuthRetryAfterMillis() {
+        return authPool.retryAfterMillis();
+    }
+
+    public String getAuthStats() {
+        return authPool.summary();
+    }
+
     public List<User> listAllUsers() {
         return userRepo.listUsers();
     }
@@ -228,7 +525,7 @@ public class ChatServer {
         String msg = Protocol.buildWarn(text == null ? "" : text);
 
         try {
-            ch.send(msg);
+            ch.send(Frame.urgent(msg));
             return true;
         } catch (IOException e) {
             System.err.println("[SERVER] WARN an " + username + " fehlgeschlagen: " + e.getMessage());
@@ -241,14 +538,15 @@ public class ChatServer {
         if (username == null || username.isBlank()) return false;
         logger.warn("BAN user=" + username + " reason=" + reason);
         boolean persisted = userRepo.setBanned(username, true);
+        revokeSessions(username);
 
         ClientHandler ch = loggedInClients.get(username);
         if (ch != null) {
             try {
-                ch.send(Protocol.buildBanned(reason == null ? "" : reason));
+                ch.send(Frame.urgent(Protocol.buildBanned(reason == null ? "" : reason)));
             } catch (IOException ignore) {}
             loggedInClients.remove(username);
-            ch.closeNow();
+            ch.closeAfterFlush();
         }
 
         return persisted;
@@ -274,11 +572,16 @@ public class ChatServer {
     public void removeClient(ClientHandler handler) {
         connections.remove(handler);
         String uname = (handler.getUser() != null) ? handler.getUser().getUsername() : ("client-" + handler.getName());
-        logger.info("DISCONNECT " + uname + " (active=" + connections.size() + ")");
+        logger.info("DISCONNECT " + uname + " (active=" + connections.size()
+                + ", maxQueued=" + handler.getOutboundHighWater() + ", dropped=" + handler.getOutboundDropped()
+                + ", flushes=" + handler.getFlushCount()
+                + ", avgBatch=" + String.format(Locale.ROOT, "%.1f", handler.getAverageBatch())
+                + ", maxBatch=" + handler.getMaxBatch() + ")");
 
         if (handler.getUser() != null) {
             forceLeaveRoom(handler);
-            loggedInClients.remove(handler.getUser().getUsername());
+            // nur den eigenen Eintrag: nach RESUME gehört der Name evtl. schon der neuen Verbindung
+            loggedInClients.remove(handler.getUser().getUsername(), handler);
         }
 
         System.out.println("[SERVER] Verbindung entfernt. Aktive Verbindungen: " + connections.size());
@@ -305,19 +608,31 @@ public class ChatServer {
         return false;
     }
 
+    // Raum-Arbeit (Mitglieder, History, Broadcasts): mit Shards auf dem Shard des Raums, sonst direkt
+    private void inRoom(String room, Runnable task) {
+        if (shards == null || shards.owns(room)) task.run();
+        else shards.execute(room, task);
+    }
+
     public boolean joinRoom(String roomName, ClientHandler handler) {
         if (!isValidRoomName(roomName)) return false;
         if (roomName.equals(handler.getCurrentRoom())) {
             return true;
         }
+        if (!rooms.containsKey(roomName)) return false;
 
-        leaveRoom(handler);
-        Room target = rooms.get(roomName);
-        if (target == null) return false;
+        // currentRoom gilt sofort (folgende MSG gehen schon in den neuen Raum); Mitgliedschaft wird
+        // erst auf dem Shard des alten Raums beendet und dann an den Shard des neuen übergeben
+        String old = handler.getCurrentRoom();
         handler.setCurrentRoom(roomName);
-        target.addMember(handler);
-        broadcastRoomUsers(roomName);
-        sendHistoryTo(roomName, handler);
+        if (old == null) {
+            inRoom(roomName, () -> enterRoom(roomName, handler));
+        } else {
+            inRoom(old, () -> {
+                exitRoom(old, handler);
+                inRoom(roomName, () -> enterRoom(roomName, handler));
+            });
+        }
         return true;
     }
 
@@ -326,19 +641,43 @@ public class ChatServer {
 
         if (old == null) return;
 
-        Room room = rooms.get(old);
         handler.setCurrentRoom(null);
+        inRoom(old, () -> exitRoom(old, handler));
+    }
 
-        if (room != null) {
-            room.removeMember(handler);
-            broadcastRoomUsers(old);
-            if (room.isEmpty() && !room.isPersistent() && !DEFAULT_ROOM.equals(old)) {
-                rooms.remove(old);
-                deleteRoomStorage(old);
-                broadcastRoomListToAll();
-                roomHistory.remove(old);
-                logger.info("ROOM_DELETE " + old);
+    // nur auf dem Shard von roomName
+    private void enterRoom(String roomName, ClientHandler handler) {
+        Room target = rooms.get(roomName);
+        if (target == null) {
+            // Raum wurde zwischen joinRoom() und der Übergabe gelöscht -> zurück in die Lobby
+            if (roomName.equals(handler.getCurrentRoom())) {
+                handler.setCurrentRoom(null);
+                joinRoom(DEFAULT_ROOM, handler);
             }
+            return;
+        }
+        target.addMember(handler);
+        if (roomUsersDelayMs > 0) {
+            // der Joinende braucht die Liste sofort (Client leert beim Raumwechsel das Fenster, danach kommt die History)
+            sendRoomUsersTo(roomName, target, handler);
+        }
+        broadcastRoomUsers(roomName);
+        sendHistoryTo(roomName, handler);
+    }
+
+    // nur auf dem Shard von old
+    private void exitRoom(String old, ClientHandler handler) {
+        Room room = rooms.get(old);
+        if (room == null) return;
+
+        room.removeMember(handler);
+        broadcastRoomUsers(old);
+        if (room.isEmpty() && !room.isPersistent() && !DEFAULT_ROOM.equals(old)) {
+            rooms.remove(old);
+            deleteRoomStorage(old);
+            broadcastRoomListToAll();
+            dropHistory(old);
+            logger.info("ROOM_DELETE " + old);
         }
     }
 
@@ -356,7 +695,8 @@ public class ChatServer {
     }
 
     public void broadcastRoomListToAll() {
-        String msg = Protocol.buildRoomList(getRoomNames());
+        // Einmal erzeugen, dasselbe Frame an alle Empfänger (kodiert wird höchstens einmal pro Protokollversion)
+        Frame msg = Frame.of(Protocol.buildRoomList(getRoomNames()));
         for (ClientHandler ch : loggedInClients.values()) {
             try {
                 ch.send(msg);
@@ -367,10 +707,35 @@ public class ChatServer {
     }
 
     public void broadcastRoomUsers(String roomName) {
+        if (roomUsersDelayMs <= 0) {
+            inRoom(roomName, () -> sendRoomUsers(roomName));
+            return;
+        }
+        // schon eine Liste unterwegs -> die liest beim Senden den aktuellen Stand und deckt diese Änderung mit ab
+        if (!roomUsersPending.add(roomName)) return;
+        // eine Liste an alle kostet Mitglieder² Bytes -> große Räume seltener (je 100 Mitglieder ein Intervall mehr, max. 10 s)
+        Room room = rooms.get(roomName);
+        int members = room == null ? 0 : room.getMembers().size();
+        long delay = Math.min(10_000, roomUsersDelayMs * Math.max(1, members / 100));
+        roomUsersTimer.schedule(() -> {
+            roomUsersPending.remove(roomName);
+            inRoom(roomName, () -> sendRoomUsers(roomName));
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendRoomUsersTo(String roomName, Room room, ClientHandler ch) {
+        try {
+            ch.send(Protocol.buildRoomUsers(roomName, room.getMemberNames()));
+        } catch (IOException e) {
+            System.err.println("[SERVER] ROOM_USERS an " + ch.getName() + " fehlgeschlagen: " + e.getMessage());
+        }
+    }
+
+    private void sendRoomUsers(String roomName) {
         Room room = rooms.get(roomName);
         if (room == null) return;
 
-        String msg = Protocol.buildRoomUsers(roomName, room.getMemberNames());
+        Frame msg = Frame.of(Protocol.buildRoomUsers(roomName, room.getMemberNames()));
         for (ClientHandler member : room.getMembers()) {
             try {
                 member.send(msg);
@@ -382,10 +747,14 @@ public class ChatServer {
 
     // Chat in Room
     public void broadcastChatToRoom(String roomName, String from, String text) {
+        inRoom(roomName, () -> sendChat(roomName, from, text));
+    }
+
+    private void sendChat(String roomName, String from, String text) {
         Room room = rooms.get(roomName);
         if (room == null) return;
 
-        String msg = Protocol.buildChat(roomName, from, text);
+        Frame msg = Frame.droppable(Protocol.buildChat(roomName, from, text));
         addHistory(roomName, from, text);
         for (ClientHandler member : room.getMembers()) {
             try {
@@ -417,18 +786,23 @@ public class ChatServer {
         if (room == null) return false;          // <- erst prüfen
         deleteRoomStorage(roomName);             // <- dann löschen
 
-        var members = new java.util.ArrayList<>(room.getMembers());
-
-        for (ClientHandler ch : members) {
-            try { ch.send(Protocol.RES_INFO + " Raum wurde vom Server gelöscht: " + roomName); } catch (Exception ignore) {}
-            room.removeMember(ch);
-            ch.setCurrentRoom(null);
-            joinRoom(DEFAULT_ROOM, ch);
-        }
+        // Mitglieder gehören dem Shard des Raums
+        inRoom(roomName, () -> {
+            var members = new java.util.ArrayList<>(room.getMembers());
+            Frame notice = Frame.of(Protocol.RES_INFO + " Raum wurde vom Server gelöscht: " + roomName);
+
+            for (ClientHandler ch : members) {
+                try { ch.send(notice); } catch (Exception ignore) {}
+                room.removeMember(ch);
+                if (roomName.equals(ch.getCurrentRoom())) {
+                    ch.setCurrentRoom(null);
+                    joinRoom(DEFAULT_ROOM, ch);
+                }
+            }
+            dropHistory(roomName);
+        });
 
         broadcastRoomListToAll();
-        broadcastRoomUsers(DEFAULT_ROOM);
-        roomHistory.remove(roomName);
         logger.info("ROOM_DELETE_ADMIN " + roomName);
         return true;
     }
@@ -436,13 +810,22 @@ public class ChatServer {
     // Validation Helpers
     private boolean isValidRoomName(String s) {
         if (!isValidSimpleName(s)) return false;
-        return !s.contains("|");
+        if (s.contains("|")) return false;
+        // Raumname wird Verzeichnisname unter history.dir / data/rooms -> keine Pfadbestandteile
+        if (s.contains("/") || s.contains("\\")) return false;
+        return !s.equals(".") && !s.equals("..");
+    }
+
+    private static boolean hasControlChars(String s) {
+        return s.codePoints().anyMatch(Character::isISOControl);
     }
 
     private boolean isValidSimpleName(String s) {
         if (s == null) return false;
         if (s.isBlank()) return false;
-        return !s.contains(" ");
+        if (s.contains(" ")) return false;
+        // v2-Felder sind rohes UTF-8 und können \n/\r enthalten (v1 trennt an Whitespace)
+        return !hasControlChars(s);
     }
 
     public Map<String, Room> getRoomsUnsafe() {
@@ -463,100 +846,169 @@ public class ChatServer {
         return roomsBaseDir.resolve(room).normalize();
     }
 
+    // Blob mit dem Inhalt der Datei (nur lesen, er kann zu mehreren Räumen gehören), null = gibt es nicht
     public Path getRoomFilePath(String room, String filename) {
-        if (room == null || filename == null) return null;
-        Path dir = roomDir(room);
-        Path file = dir.resolve(filename).normalize();
-        if (!file.startsWith(dir)) return null;
-        return file;
+        if (room == null || !isValidFilename(filename)) return null;
+        return blobs.resolve(room, filename);
     }
 
-    public List<String> listFilesInRoom(String room) {
+    // ServerFrame: Suchtreffer als fertige Zeilen "#seq [from] text", neueste zuerst
+    public List<String> searchRoom(String room, String query) {
         if (!roomExists(room)) return List.of();
-
-        Path dir = roomDir(room);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) return List.of();
-
-        List<String> out = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
-            for (Path p : ds) {
-                if (Files.isRegularFile(p)) {
-                    String name = p.getFileName().toString();
-                    // optional: tmp ausblenden
-                    if (name.endsWith(".tmp")) continue;
-                    out.add(name);
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("FILES_LIST_FAIL room=" + room + " err=" + e.getMessage());
+        List<String> lines = new ArrayList<>();
+        for (HistoryLog.Entry e : searchHistory(room, query, MAX_SEARCH_RESULTS)) {
+            lines.add("#" + e.seq() + " [" + e.from() + "] " + e.text());
         }
+        return lines;
+    }
 
-        out.sort(String::compareToIgnoreCase);
-        return out;
+    public List<String> listFilesInRoom(String room) {
+        if (!roomExists(room)) return List.of();
+        return blobs.list(room);
     }
 
+    // nur die Referenz des Raums fällt weg; der Blob erst, wenn kein Raum mehr auf ihn zeigt
     public boolean deleteFileInRoom(String room, String filename) {
         if (!roomExists(room)) return false;
         if (!isValidFilename(filename)) return false;
 
-        Path file = getRoomFilePath(room, filename);
-        if (file == null) return false;
-
         try {
-            return Files.deleteIfExists(file);
+            return blobs.remove(room, filename);
         } catch (IOException e) {
             logger.warn("FILE_DELETE_FAIL room=" + room + " file=" + filename + " err=" + e.getMessage());
             return false;
         }
     }
 
-    public boolean saveFileToRoom(String room, String filename, DataInputStream in, long size) {
-        if (!roomExists(room)) return false;
-        if (in == null) return false;
-        if (size < 0 || size > MAX_FILE_BYTES) return false;
-        if (!isValidFilename(filename)) return false;
+    public RoomUpload openUpload(String room, String filename, long size) {
+        if (!roomExists(room)) return null;
+        if (size < 0 || size > MAX_FILE_BYTES) return null;
+        if (!isValidFilename(filename)) return null;
 
         try {
             Files.createDirectories(roomsBaseDir);
             Path dir = roomDir(room);
             Files.createDirectories(dir);
-            Path target = getRoomFilePath(room, filename);
-            if (target == null) return false;
 
             Path tmp = dir.resolve(filename + ".tmp").normalize();
-            if (!tmp.startsWith(dir)) return false;
-
-            try (OutputStream fos = Files.newOutputStream(
-                    tmp,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE
-            )) {
-                byte[] buf = new byte[8192];
-                long remaining = size;
-
-                while (remaining > 0) {
-                    int toRead = (int) Math.min(buf.length, remaining);
-                    int r = in.read(buf, 0, toRead);
-                    if (r == -1) throw new EOFException("EOF während Upload");
-                    fos.write(buf, 0, r);
-                    remaining -= r;
-                }
-            }
+            if (!tmp.startsWith(dir)) return null;
 
-            Files.move(tmp, target,
-                    StandardCopyOption.REPLACE_EXISTING,
-                    StandardCopyOption.ATOMIC_MOVE);
+            return new RoomUpload(room, filename, size, tmp);
 
-            logger.info("FILE_SAVED room=" + room + " file=" + filename + " size=" + size);
+        } catch (IOException e) {
+            logger.warn("FILE_SAVE_FAIL room=" + room + " file=" + filename + " err=" + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean commitUpload(RoomUpload upload) {
+        try {
+            upload.commit();
+            boolean duplicate = blobs.put(upload.getRoom(), upload.getFilename(), upload.getFile(), upload.sha256());
+            logger.info("FILE_SAVED room=" + upload.getRoom() + " file=" + upload.getFilename() + " size=" + upload.getSize()
+                    + (duplicate ? " dedup=true" : ""));
             return true;
+        } catch (IOException e) {
+            abortUpload(upload, e.getMessage());
+            return false;
+        }
+    }
+
+    public void abortUpload(RoomUpload upload, String reason) {
+        upload.abort();
+        logger.warn("FILE_SAVE_FAIL room=" + upload.getRoom() + " file=" + upload.getFilename() + " err=" + reason);
+    }
+
 
+    // UPLOAD_HASH: Inhalt schon vorhanden -> nur im Raum eintragen, keine Bytes nötig
+    public boolean linkUpload(String room, String filename, long size, String sha256) {
+        if (!roomExists(room)) return false;
+        if (size < 0 || size > MAX_FILE_BYTES) return false;
+        if (!isValidFilename(filename) || !BlobStore.isValidHash(sha256)) return false;
+
+        try {
+            if (!blobs.link(room, filename, sha256, size)) return false;
+            logger.info("FILE_SAVED room=" + room + " file=" + filename + " size=" + size + " dedup=true byHash=true");
+            return true;
         } catch (IOException e) {
             logger.warn("FILE_SAVE_FAIL room=" + room + " file=" + filename + " err=" + e.getMessage());
             return false;
         }
     }
 
+    // UPLOAD_BEGIN: Teil-Upload anlegen oder einen vorhandenen (auch von vor einem Neustart) fortsetzen
+    public ChunkedUpload beginUpload(String user, String room, String filename, long size, String sha256) {
+        if (!roomExists(room)) return null;
+        if (size < 0 || size > MAX_FILE_BYTES) return null;
+        if (!isValidFilename(filename)) return null;
+        if (!BlobStore.isValidHash(sha256)) return null;
+
+        Path dir = roomDir(room);
+        if (!dir.startsWith(roomsBaseDir)) return null;
+
+        int stale = ChunkedUpload.removeStale(dir, STALE_UPLOAD_MILLIS);
+        if (stale > 0) {
+            chunkedUploads.values().removeIf(u -> u.getRoom().equals(room) && !u.exists());
+            logger.info("UPLOAD_STALE_REMOVED room=" + room + " count=" + stale);
+        }
+
+        String id = ChunkedUpload.idOf(user, room, filename, size, sha256);
+        try {
+            return chunkedUploads.compute(id, (k, u) -> {
+                if (u != null && u.exists()) return u;
+                try {
+                    return ChunkedUpload.open(user, room, filename, size, sha256, dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            logger.warn("FILE_SAVE_FAIL room=" + room + " file=" + filename + " err=" + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    public ChunkedUpload getUpload(String id) {
+        return ChunkedUpload.isValidId(id) ? chunkedUploads.get(id) : null;
+    }
+
+    // Chunk dauerhaft machen; bei Fehlern bleiben die bisher bestätigten Bytes erhalten
+    public boolean commitChunk(RoomUpload chunk) {
+        try {
+            chunk.commit();
+            return true;
+        } catch (IOException e) {
+            abortUpload(chunk, e.getMessage());
+            return false;
+        }
+    }
+
+    // Hash des Clients gegen den beim Empfang berechneten prüfen; bei Abweichung fängt der Upload neu an
+    public boolean verifyChunkedUpload(ChunkedUpload upload, String expected) {
+        try {
+            String actual = upload.sha256();
+            if (actual.equals(expected)) return true;
+            upload.reset();
+            logger.warn("UPLOAD_HASH_MISMATCH room=" + upload.getRoom() + " file=" + upload.getFilename()
+                    + " expected=" + expected + " actual=" + actual);
+        } catch (IOException e) {
+            logger.warn("FILE_SAVE_FAIL room=" + upload.getRoom() + " file=" + upload.getFilename() + " err=" + e.getMessage());
+        }
+        return false;
+    }
+
+    public boolean commitChunkedUpload(ChunkedUpload upload) {
+        try {
+            boolean duplicate = upload.commit(blobs);
+            chunkedUploads.remove(upload.getId(), upload);
+            logger.info("FILE_SAVED room=" + upload.getRoom() + " file=" + upload.getFilename() + " size=" + upload.getSize()
+                    + " chunked=true" + (duplicate ? " dedup=true" : ""));
+            return true;
+        } catch (IOException e) {
+            logger.warn("FILE_SAVE_FAIL room=" + upload.getRoom() + " file=" + upload.getFilename() + " err=" + e.getMessage());
+            return false;
+        }
+    }
 
     private boolean isValidFilename(String s) {
         if (s == null) return false;
@@ -565,7 +1017,7 @@ public class ChatServer {
         if (s.contains("/") || s.contains("\\") ) return false;
         if (s.contains("|") || s.contains(";")) return false;
         if (s.contains(" ")) return false;
-        return true;
+        return !hasControlChars(s);
     }
 
     private void deleteRoomStorage(String roomName) {
@@ -574,6 +1026,9 @@ public class ChatServer {
 
         Path dir = roomsBaseDir.resolve(roomName).normalize();
         if (!dir.startsWith(roomsBaseDir)) return;
+        chunkedUploads.values().removeIf(u -> u.getRoom().equals(roomName));
+        // Inhalte, die noch in anderen Räumen liegen, bleiben erhalten
+        blobs.dropRoom(roomName);
         if (!Files.exists(dir)) return;
 
         try (Stream<Path> walk = Files.walk(dir)) {
@@ -5,15 +5,15 @@ public class ChatServerMain {
     public static void main(String[] args) throws Exception {
         int port = Config.getServerPort();
 
-        UserRepository repo = new FileUserRepository(
-                Config.getUsersFile(),
-                Config.getPbkdf2Iterations()
-        );
+        UserRepository repo = UserRepository.fromConfig();
 
         ServerLogger logger = new ServerLogger(Config.getServerLogFile());
         ChatServer server = new ChatServer(port, repo, logger);
+        // asynchroner Logger: Rest aus dem Puffer auch bei Strg+C noch in die Datei
+        Runtime.getRuntime().addShutdownHook(new Thread(logger::close));
 
-        logger.info("Config: port=" + port + " users.file=" + Config.getUsersFile()
+        logger.info("Config: port=" + port + " users.store=" + Config.getUsersStore()
+                + " users.file=" + Config.getUsersFile()
                 + " log.file=" + Config.getServerLogFile());
 
         server.start();
@@ -0,0 +1,244 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Wiederaufnehmbarer Upload (UPLOAD_BEGIN/CHUNK/COMMIT). Zustand liegt auf der Platte unter
+// data/rooms/<room>/.uploads/: <id>.part mit den Bytes, <id>.meta mit Besitzer, Dateiname, Größe und Hash.
+// Bestätigter Offset = Länge der .part-Datei, dadurch übersteht ein Teil-Upload auch einen Server-Neustart.
+// Die id hängt von Benutzer, Raum, Dateiname, Größe und dem SHA-256 aus BEGIN ab -> ein erneutes BEGIN
+// mit demselben Inhalt setzt fort, eine geänderte Datei gleicher Größe fängt bei 0 an.
+// SHA-256 läuft mit, solange die Chunks lückenlos von vorn kommen; nach einem Rücksprung oder
+// einer Wiederaufnahme nach Neustart wird die .part-Datei beim Commit einmal komplett gehasht.
+final class ChunkedUpload {
+
+    static final String DIR = ".uploads";
+
+    private final String id;
+    private final String user;
+    private final String room;
+    private final String filename;
+    private final long size;
+    // vom Client in BEGIN angekündigt; der Commit wird dagegen geprüft
+    private final String expectedSha256;
+    private final Path part;
+    private final Path meta;
+
+    // ReentrantLock statt synchronized: commit() hasht und verschiebt Dateien, das soll keinen virtuellen Thread pinnen
+    private final ReentrantLock lock = new ReentrantLock();
+    private long offset;
+    // gerade laufender Chunk (höchstens einer, auch wenn derselbe Benutzer zweimal verbunden ist)
+    private RoomUpload active;
+    private boolean done;
+    // deckt genau [0, offset) ab; null = ungültig, Hash erst beim Commit aus der Datei
+    private MessageDigest digest;
+    private String sha256;
+
+    private ChunkedUpload(String id, String user, String room, String filename, long size, String expectedSha256,
+                          Path dir) {
+        this.id = id;
+        this.user = user;
+        this.room = room;
+        this.filename = filename;
+        this.size = size;
+        this.expectedSha256 = expectedSha256;
+        this.part = dir.resolve(id + ".part");
+        this.meta = dir.resolve(id + ".meta");
+    }
+
+    // Vorhandenen Teil-Upload aufnehmen oder neu anlegen
+    static ChunkedUpload open(String user, String room, String filename, long size, String sha256, Path roomDir)
+            throws IOException {
+        Path dir = roomDir.resolve(DIR);
+        Files.createDirectories(dir);
+        ChunkedUpload u = new ChunkedUpload(idOf(user, room, filename, size, sha256), user, room, filename, size,
+                sha256, dir);
+
+        if (!Files.exists(u.meta) || !u.matches(readMeta(u.meta))) {
+            Files.deleteIfExists(u.part);
+            Properties p = new Properties();
+            p.setProperty("user", user);
+            p.setProperty("room", room);
+            p.setProperty("filename", filename);
+            p.setProperty("size", Long.toString(size));
+            p.setProperty("sha256", sha256);
+            p.setProperty("created", Long.toString(System.currentTimeMillis()));
+            try (OutputStream out = Files.newOutputStream(u.meta)) {
+                p.store(out, null);
+            }
+        }
+        u.offset = Files.exists(u.part) ? Math.min(Files.size(u.part), size) : 0;
+        if (u.offset == 0) u.digest = RoomUpload.newDigest();
+        return u;
+    }
+
+    static String idOf(String user, String room, String filename, long size, String sha256) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] h = md.digest((user + '\n' + room + '\n' + filename + '\n' + size + '\n' + sha256)
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // nur Hex-Zeichen, damit eine id vom Client nie einen Pfad bilden kann
+    static boolean isValidId(String id) {
+        if (id == null || id.length() != 32) return false;
+        for (int i = 0; i < id.length(); i++) {
+            if (Character.digit(id.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    // Teil-Uploads, die länger als maxAgeMillis nicht mehr angefasst wurden, im Raum löschen
+    static int removeStale(Path roomDir, long maxAgeMillis) {
+        Path dir = roomDir.resolve(DIR);
+        if (!Files.isDirectory(dir)) return 0;
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int removed = 0;
+        try (var ds = Files.newDirectoryStream(dir, "*.meta")) {
+            for (Path m : ds) {
+                String name = m.getFileName().toString();
+                Path p = dir.resolve(name.substring(0, name.length() - ".meta".length()) + ".part");
+                long touched = Files.getLastModifiedTime(Files.exists(p) ? p : m).toMillis();
+                if (touched >= cutoff) continue;
+                Files.deleteIfExists(p);
+                Files.deleteIfExists(m);
+                removed++;
+            }
+        } catch (IOException ignore) {
+        }
+        return removed;
+    }
+
+    private static Properties readMeta(Path meta) {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(meta)) {
+            p.load(in);
+        } catch (IOException ignore) {
+        }
+        return p;
+    }
+
+    private boolean matches(Properties p) {
+        return user.equals(p.getProperty("user")) && room.equals(p.getProperty("room"))
+                && filename.equals(p.getProperty("filename")) && Long.toString(size).equals(p.getProperty("size"))
+                && expectedSha256.equals(p.getProperty("sha256"));
+    }
+
+    String getId() { return id; }
+    String getUser() { return user; }
+    String getRoom() { return room; }
+    String getFilename() { return filename; }
+    long getSize() { return size; }
+    String getExpectedSha256() { return expectedSha256; }
+    Path getPartFile() { return part; }
+
+    long offset() {
+        lock.lock();
+        try {
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // false, wenn der Teil-Upload inzwischen als veraltet gelöscht wurde
+    boolean exists() {
+        return Files.exists(meta);
+    }
+
+    boolean isComplete() {
+        return offset() == size;
+    }
+
+    // Chunk ab position öffnen; null, wenn schon ein Chunk läuft, der Upload fertig ist
+    // oder position hinter dem bestätigten Offset liegt (Lücke)
+    RoomUpload openChunk(long position, long length) throws IOException {
+        lock.lock();
+        try {
+            if (active != null || done || position > offset) return null;
+            // Rücksprung: bereits gehashte Bytes könnten überschrieben werden
+            if (position < offset) digest = null;
+            sha256 = null;
+            active = new RoomUpload(this, position, length, digest);
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // von RoomUpload.commit()/abort(): alles bis end liegt lückenlos in der .part-Datei
+    void chunkDone(RoomUpload chunk, long end) {
+        lock.lock();
+        try {
+            if (active != chunk) return;
+            active = null;
+            if (end > offset) offset = Math.min(end, size);
+            // Schreibfehler mitten im Puffer: Hash und Datei laufen auseinander
+            if (digest != null && chunk.digestedEnd() != offset) digest = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // SHA-256 (hex) des vollständigen Uploads, mitgerechnet oder notfalls aus der .part-Datei
+    String sha256() throws IOException {
+        lock.lock();
+        try {
+            if (sha256 != null) return sha256;
+            if (offset != size) throw new IOException("Upload unvollständig (" + offset + "/" + size + ")");
+            if (!Files.exists(part)) Files.createFile(part); // leere Datei
+            sha256 = digest != null ? HexFormat.of().formatHex(digest.digest()) : BlobStore.sha256(part);
+            digest = null;
+            return sha256;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Inhalt passt nicht zum Hash des Clients: alles verwerfen, der nächste BEGIN fängt bei 0 an
+    void reset() throws IOException {
+        lock.lock();
+        try {
+            if (active != null || done) return;
+            try (FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                fc.truncate(0);
+            }
+            offset = 0;
+            digest = RoomUpload.newDigest();
+            sha256 = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // .part an den BlobStore übergeben, .meta entfernen; true = Inhalt war schon vorhanden
+    boolean commit(BlobStore blobs) throws IOException {
+        lock.lock();
+        try {
+            if (done) return false;
+            if (active != null) throw new IOException("Chunk läuft noch");
+            if (offset != size) throw new IOException("Upload unvollständig (" + offset + "/" + size + ")");
+            boolean duplicate = blobs.put(room, filename, part, sha256());
+            Files.deleteIfExists(meta);
+            done = true;
+            return duplicate;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
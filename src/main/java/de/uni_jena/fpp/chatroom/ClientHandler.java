@@ -1,36 +1,57 @@
 package de.uni_jena.fpp.chatroom;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
 import java.net.Socket;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
 
     private final ChatServer server;
     private final Socket socket;
     private final int clientId;
+    private final String name;
+    // Alles Ausgehende läuft über diese Queue; nur der Writer der Verbindung schreibt auf den Socket
+    private final OutboundQueue<Object> outbound;
+    // nur vom Writer-Thread benutzt
+    private final FlushPolicy flushPolicy;
 
     private DataInputStream in;
     private DataOutputStream out;
 
     private User user;
     private String displayName;
-    private String currentRoom;
+    // volatile: wird mit Raum-Shards auch vom Shard-Thread gesetzt (Fallback in die Lobby)
+    private volatile String currentRoom;
 
     private volatile boolean running = true;
+    // Protokollversion der eingehenden Frames (nur vom Lese-Thread benutzt); ausgehend schaltet ein ProtocolSwitch in der Queue um
+    private int inboundVersion = 1;
+    // Client hat HELLO geschickt -> kennt SESSION/RESUME und bekommt nach dem Login ein Token
+    private boolean helloSeen;
 
     public ClientHandler(ChatServer server, Socket socket, int clientId) {
-        super("ClientHandler-" + clientId);
         this.server = server;
         this.socket = socket;
         this.clientId = clientId;
+        this.name = "ClientHandler-" + clientId;
         this.displayName = "client-" + clientId;
+        this.outbound = server.newOutboundQueue();
+        this.flushPolicy = server.newFlushPolicy();
     }
 
     @Override
@@ -39,18 +60,24 @@ public class ClientHandler extends Thread {
 
         try {
             in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            // gepuffert: der Writer sammelt Frames und flusht nach FlushPolicy statt pro Nachricht
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), flushPolicy.getBufferSize()));
 
+            // Writer läuft in derselben Thread-Art wie der Handler (virtuell bei server.engine=virtual)
+            Thread.Builder writer = Thread.currentThread().isVirtual()
+                    ? Thread.ofVirtual()
+                    : Thread.ofPlatform().daemon(true);
+            writer.name(getName() + "-writer").start(this::writeLoop);
+
+            Tokens tokens = new Tokens();
             while (running && !socket.isClosed()) {
-                String line;
                 try {
-                    line = in.readUTF();
+                    tokens.read(in, inboundVersion);
                 } catch (EOFException eof) {
                     break;
                 }
 
-                if (line == null) break;
-                handleCommand(line);
+                handleCommand(tokens);
             }
 
         } catch (IOException e) {
@@ -62,74 +89,119 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleCommand(String line) throws IOException {
-        String[] tokens = Protocol.splitTokens(line);
-        if (tokens.length == 0) {
+    // Felder 1..n mit fester Anzahl pro Kommando (siehe Tokens/ProtocolV2), fehlende Felder = ""
+    void handleCommand(Tokens msg) throws IOException {
+        if (msg.isBlank()) {
             send(Protocol.RES_ERROR + " Leere Nachricht");
             return;
         }
 
-        String cmd = tokens[0];
+        switch (msg.opcode()) {
+            case ProtocolV2.OP_HELLO -> handleHello(msg);
+            case ProtocolV2.OP_REGISTER -> handleRegister(msg);
+            case ProtocolV2.OP_LOGIN -> handleLogin(msg);
+            case ProtocolV2.OP_RESUME -> handleResume(msg);
+
+            case ProtocolV2.OP_CREATE_ROOM -> handleCreateRoom(msg);
+            case ProtocolV2.OP_JOIN -> handleJoin(msg);
+            case ProtocolV2.OP_LEAVE -> handleLeave();
 
-        switch (cmd) {
-            case Protocol.CMD_REGISTER -> handleRegister(tokens);
-            case Protocol.CMD_LOGIN -> handleLogin(tokens);
 
-            case Protocol.CMD_CREATE_ROOM -> handleCreateRoom(tokens);
-            case Protocol.CMD_JOIN -> handleJoin(tokens);
-            case Protocol.CMD_LEAVE -> handleLeave();
+            case ProtocolV2.OP_UPLOAD -> handleUpload(msg);
+            case ProtocolV2.OP_UPLOAD_BEGIN -> handleUploadBegin(msg);
+            case ProtocolV2.OP_UPLOAD_CHUNK -> handleUploadChunk(msg);
+            case ProtocolV2.OP_UPLOAD_COMMIT -> handleUploadCommit(msg);
+            case ProtocolV2.OP_UPLOAD_HASH -> handleUploadHash(msg);
+            case ProtocolV2.OP_FILES -> handleFiles(msg);
+            case ProtocolV2.OP_DOWNLOAD -> handleDownload(msg);
+            case ProtocolV2.OP_DOWNLOAD_RANGE -> handleDownloadRange(msg);
 
 
-            case Protocol.CMD_UPLOAD -> handleUpload(line);
-            case Protocol.CMD_FILES -> handleFiles(tokens);
-            case Protocol.CMD_DOWNLOAD -> handleDownload(tokens);
+            case ProtocolV2.OP_MSG -> handleMsg(msg);
+            case ProtocolV2.OP_HISTORY -> handleHistory(msg);
+            case ProtocolV2.OP_SEARCH -> handleSearch(msg);
+            case ProtocolV2.OP_LOGOUT -> handleLogout();
 
+            default -> send(Protocol.RES_ERROR + " Unbekanntes Kommando: " + msg.name());
+        }
+    }
 
-            case Protocol.CMD_MSG -> handleMsg(line);
-            case Protocol.CMD_LOGOUT -> handleLogout();
+    private static boolean missing(Tokens f, int count) {
+        for (int i = 1; i <= count; i++) {
+            if (f.isEmpty(i)) return true;
+        }
+        return false;
+    }
 
-            default -> send(Protocol.RES_ERROR + " Unbekanntes Kommando: " + cmd);
+    // HELLO <version>: nur einmal vor dem Login; die Antwort geht noch im Textformat raus, danach gilt die Version
+    private void handleHello(Tokens f) throws IOException {
+        helloSeen = true;
+        int version = inboundVersion;
+        if (user == null && inboundVersion == 1) {
+            version = ProtocolV2.negotiate(f, server.getMaxProtocolVersion());
+        }
+        send(Protocol.buildHelloOk(version));
+        if (version != inboundVersion) {
+            enqueue(new ProtocolSwitch(version), false);
+            inboundVersion = version;
         }
     }
 
-    private void handleRegister(String[] tokens) throws IOException {
-        if (tokens.length < 3) {
+    // Queue-Marker: ab hier kodiert der Writer Frames in dieser Version
+    protected record ProtocolSwitch(int version) {}
+
+    protected int inboundVersion() { return inboundVersion; }
+
+    private void handleRegister(Tokens tokens) throws IOException {
+        if (missing(tokens, 2)) {
             send(Protocol.RES_ERROR + " Usage: REGISTER <username> <password>");
             return;
         }
-        boolean ok = server.registerUser(tokens[1], tokens[2]);
-        send(ok ? Protocol.RES_REGISTER_OK : (Protocol.RES_REGISTER_FAILED + " USERNAME_TAKEN"));
-        server.logInfo("REGISTER user=" + tokens[1] + " ok=" + ok);
-
+        String username = tokens.get(1);
+        afterAuth(server.registerUserAsync(username, tokens.get(2)), (ok, error) -> {
+            if (error instanceof RejectedExecutionException) {
+                send(Protocol.RES_REGISTER_FAILED + " " + Protocol.REASON_BUSY + " " + server.getAuthRetryAfterMillis());
+                server.logWarn("REGISTER_BUSY user=" + username);
+                return;
+            }
+            boolean created = Boolean.TRUE.equals(ok);
+            send(created ? Protocol.RES_REGISTER_OK : (Protocol.RES_REGISTER_FAILED + " USERNAME_TAKEN"));
+            server.logInfo("REGISTER user=" + username + " ok=" + created);
+        });
     }
 
     private static final long MAX_FILE_BYTES = 50L * 1024 * 1024; // 50 MB
+    private static final int BODY_BUFFER_BYTES = 64 * 1024;
+    // obere Grenze pro UPLOAD_CHUNK; der Client wählt die Chunkgröße selbst
+    static final int MAX_CHUNK_BYTES = 1 << 20;
+
+    // direkter Puffer für Upload-Bodies, erst beim ersten Upload angelegt
+    private ByteBuffer bodyBuffer;
 
-    private void handleUpload(String line) throws IOException {
+    private void handleUpload(Tokens t) throws IOException {
         if (!requireLogin()) return;
 
         // UPLOAD <room> <filename> <size>
-        String[] t = line.trim().split("\\s+", 4);
-        if (t.length < 4) {
+        if (missing(t, 3)) {
             send(Protocol.RES_ERROR + " Usage: UPLOAD <room> <filename> <size>");
             return;
         }
 
-        String room = t[1];
-        String filename = t[2];
+        String room = t.get(1);
+        String filename = t.get(2);
 
         long size;
         try {
-            size = Long.parseLong(t[3]);
+            size = t.parseLong(3);
         } catch (NumberFormatException e) {
             send(Protocol.buildUploadFailed("INVALID_SIZE"));
-            closeNow();
+            closeAfterFlush();
             return;
         }
 
         if (size < 0 || size > MAX_FILE_BYTES) {
             send(Protocol.buildUploadFailed("SIZE_LIMIT"));
-            closeNow();
+            closeAfterFlush();
             return;
         }
 
@@ -157,17 +229,218 @@ public class ClientHandler extends Thread {
         }
 
 
-        boolean ok = server.saveFileToRoom(room, filename, in, size);
+        RoomUpload upload = server.openUpload(room, filename, size);
+        if (upload == null) {
+            uploadFailed(room, filename, size);
+            return;
+        }
+        readBody(size, upload, () -> completeUpload(upload));
+    }
 
-        if (ok) {
+    private void completeUpload(RoomUpload upload) throws IOException {
+        if (server.commitUpload(upload)) {
+            send(Protocol.buildUploadOk(upload.getFilename()));
+            server.logInfo("UPLOAD user=" + displayName + " room=" + upload.getRoom() + " file=" + upload.getFilename()
+                    + " size=" + upload.getSize() + " ok=true");
+        } else {
+            uploadFailed(upload.getRoom(), upload.getFilename(), upload.getSize());
+        }
+    }
+
+    protected void uploadFailed(String room, String filename, long size) throws IOException {
+        send(Protocol.buildUploadFailed("SAVE_FAILED"));
+        server.logWarn("UPLOAD_FAIL user=" + displayName + " room=" + room + " file=" + filename + " size=" + size);
+        closeAfterFlush();
+    }
+    // UPLOAD_BEGIN <room> <filename> <size> <sha256> -> UPLOAD_READY <id> <offset>; offset > 0 = Wiederaufnahme
+    private void handleUploadBegin(Tokens t) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(t, 4)) {
+            send(Protocol.RES_ERROR + " Usage: UPLOAD_BEGIN <room> <filename> <size> <sha256>");
+            return;
+        }
+
+        String room = t.get(1);
+        String filename = t.get(2);
+
+        long size = checkUploadWithoutBody(room, filename, t);
+        if (size < 0) return;
+
+        String sha256 = t.get(4);
+        if (!BlobStore.isValidHash(sha256)) {
+            send(Protocol.buildUploadFailed("INVALID_HASH"));
+            return;
+        }
+
+        ChunkedUpload upload = server.beginUpload(user.getUsername(), room, filename, size, sha256);
+        if (upload == null) {
+            send(Protocol.buildUploadFailed("SAVE_FAILED"));
+            return;
+        }
+        long offset = upload.offset();
+        send(Protocol.buildUploadReady(upload.getId(), offset));
+        if (offset > 0) {
+            server.logInfo("UPLOAD_RESUME user=" + displayName + " room=" + room + " file=" + filename
+                    + " offset=" + offset + "/" + size);
+        }
+    }
+
+    // UPLOAD_HASH <room> <filename> <size> <sha256> -> UPLOAD_OK <filename> (Inhalt vorhanden) oder UPLOAD_NEED <filename>
+    private void handleUploadHash(Tokens t) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(t, 4)) {
+            send(Protocol.RES_ERROR + " Usage: UPLOAD_HASH <room> <filename> <size> <sha256>");
+            return;
+        }
+
+        String room = t.get(1);
+        String filename = t.get(2);
+        long size = checkUploadWithoutBody(room, filename, t);
+        if (size < 0) return;
+
+        String sha256 = t.get(4);
+        if (!BlobStore.isValidHash(sha256)) {
+            send(Protocol.buildUploadFailed("INVALID_HASH"));
+            return;
+        }
+        if (server.linkUpload(room, filename, size, sha256)) {
             send(Protocol.buildUploadOk(filename));
-            server.logInfo("UPLOAD user=" + displayName + " room=" + room + " file=" + filename + " size=" + size + " ok=true");
+            server.logInfo("UPLOAD user=" + displayName + " room=" + room + " file=" + filename
+                    + " size=" + size + " ok=true byHash=true");
+        } else {
+            send(Protocol.buildUploadNeed(filename));
+        }
+    }
+
+    // gemeinsame Prüfungen für UPLOAD_BEGIN/UPLOAD_HASH (Größe in Feld 3); liefert die Größe oder -1,
+    // dann ist UPLOAD_FAILED schon verschickt. Hier folgen keine Rohbytes -> die Verbindung bleibt offen
+    private long checkUploadWithoutBody(String room, String filename, Tokens t) throws IOException {
+        long size;
+        try {
+            size = t.parseLong(3);
+        } catch (NumberFormatException e) {
+            send(Protocol.buildUploadFailed("INVALID_SIZE"));
+            return -1;
+        }
+        if (size < 0 || size > MAX_FILE_BYTES) {
+            send(Protocol.buildUploadFailed("SIZE_LIMIT"));
+            return -1;
+        }
+        if (currentRoom == null || !room.equals(currentRoom)) {
+            send(Protocol.buildUploadFailed("NOT_IN_ROOM"));
+            return -1;
+        }
+        if (!server.roomExists(room)) {
+            send(Protocol.buildUploadFailed("ROOM_NOT_FOUND"));
+            return -1;
+        }
+        if (!isValidFilename(filename)) {
+            send(Protocol.buildUploadFailed("INVALID_FILENAME"));
+            return -1;
+        }
+        if (!isAllowedUploadFilename(filename)) {
+            send(Protocol.buildUploadFailed("TYPE_NOT_ALLOWED"));
+            return -1;
+        }
+        return size;
+    }
+
+    // UPLOAD_CHUNK <id> <offset> <length> + Rohbytes -> UPLOAD_ACK <id> <neuer Offset>
+    private void handleUploadChunk(Tokens t) throws IOException {
+        // ohne gültige Länge lässt sich der Body nicht überspringen -> Verbindung schließen
+        int length;
+        long offset;
+        try {
+            length = t.parseInt(3);
+            offset = t.parseLong(2);
+        } catch (NumberFormatException e) {
+            send(Protocol.buildUploadFailed("INVALID_SIZE"));
+            closeAfterFlush();
+            return;
+        }
+        if (length <= 0 || length > MAX_CHUNK_BYTES) {
+            send(Protocol.buildUploadFailed("INVALID_SIZE"));
+            closeAfterFlush();
+            return;
+        }
+
+        if (user == null) {
+            discardBytes(length);
+            requireLogin();
+            return;
+        }
+
+        String id = t.get(1);
+        ChunkedUpload upload = server.getUpload(id);
+        if (upload == null || !upload.getUser().equals(user.getUsername())) {
+            send(Protocol.buildUploadFailed("UNKNOWN_UPLOAD"));
+            discardBytes(length);
+            return;
+        }
+        if (offset < 0 || offset + length > upload.getSize()) {
+            send(Protocol.buildUploadFailed("INVALID_OFFSET"));
+            discardBytes(length);
+            return;
+        }
+
+        RoomUpload chunk;
+        try {
+            chunk = upload.openChunk(offset, length);
+        } catch (IOException e) {
+            server.logWarn("FILE_SAVE_FAIL room=" + upload.getRoom() + " file=" + upload.getFilename() + " err=" + e.getMessage());
+            chunk = null;
+        }
+        if (chunk == null) {
+            // Lücke, paralleler Chunk oder Schreibfehler: Bytes verwerfen, der Client setzt am gemeldeten Offset fort
+            readBody(length, null, () -> send(Protocol.buildUploadAck(id, upload.offset())));
+            return;
+        }
+        RoomUpload sink = chunk;
+        readBody(length, sink, () -> {
+            if (server.commitChunk(sink)) send(Protocol.buildUploadAck(id, upload.offset()));
+            else uploadFailed(sink.getRoom(), sink.getFilename(), upload.getSize());
+        });
+    }
+
+    // UPLOAD_COMMIT <id> [<sha256>] -> UPLOAD_OK <filename> oder UPLOAD_FAILED INCOMPLETE <offset>;
+    // passt der Hash des Clients nicht, wird der Teil-Upload verworfen (UPLOAD_FAILED HASH_MISMATCH)
+    private void handleUploadCommit(Tokens t) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(t, 1)) {
+            send(Protocol.RES_ERROR + " Usage: UPLOAD_COMMIT <id> [<sha256>]");
+            return;
+        }
+
+        ChunkedUpload upload = server.getUpload(t.get(1));
+        if (upload == null || !upload.getUser().equals(user.getUsername())) {
+            send(Protocol.buildUploadFailed("UNKNOWN_UPLOAD"));
+            return;
+        }
+        if (!upload.isComplete()) {
+            send(Protocol.buildUploadFailed("INCOMPLETE " + upload.offset()));
+            return;
+        }
+        // Hash aus BEGIN gilt; ein abweichender im COMMIT heißt, der Client hat andere Bytes geschickt
+        if (!t.isEmpty(2) && !t.is(2, upload.getExpectedSha256())) {
+            send(Protocol.buildUploadFailed("HASH_MISMATCH"));
+            return;
+        }
+        if (!server.verifyChunkedUpload(upload, upload.getExpectedSha256())) {
+            send(Protocol.buildUploadFailed("HASH_MISMATCH"));
+            return;
+        }
+        if (server.commitChunkedUpload(upload)) {
+            send(Protocol.buildUploadOk(upload.getFilename()));
+            server.logInfo("UPLOAD user=" + displayName + " room=" + upload.getRoom() + " file=" + upload.getFilename()
+                    + " size=" + upload.getSize() + " ok=true chunked=true");
         } else {
             send(Protocol.buildUploadFailed("SAVE_FAILED"));
-            server.logWarn("UPLOAD_FAIL user=" + displayName + " room=" + room + " file=" + filename + " size=" + size);
-            closeNow();
         }
     }
+
     private boolean isAllowedUploadFilename(String filename) {
         if (filename == null) return false;
         String f = filename.toLowerCase();
@@ -176,17 +449,17 @@ public class ClientHandler extends Thread {
     }
 
 
-    private void handleFiles(String[] tokens) throws IOException {
+    private void handleFiles(Tokens tokens) throws IOException {
         if (!requireLogin()) return;
 
         // FILES <room>
-        if (tokens.length < 2) {
+        if (missing(tokens, 1)) {
             send(Protocol.RES_ERROR + " Usage: FILES <room>");
             return;
         }
 
 
-        String room = tokens[1];
+        String room = tokens.get(1);
 
         if (currentRoom == null || !room.equals(currentRoom)) {
             send(Protocol.RES_ERROR + " Du bist nicht in diesem Raum.");
@@ -202,81 +475,210 @@ public class ClientHandler extends Thread {
         send(Protocol.buildFileList(room, files));
     }
 
-    private void handleDownload(String[] tokens) throws IOException {
+    private void handleDownload(Tokens tokens) throws IOException {
         if (!requireLogin()) return;
 
         // DOWNLOAD <room> <filename>
-        if (tokens.length < 3) {
+        if (missing(tokens, 2)) {
             send(Protocol.RES_ERROR + " Usage: DOWNLOAD <room> <filename>");
             return;
         }
 
-        String room = tokens[1];
-        String filename = tokens[2];
+        String room = tokens.get(1);
+        String filename = tokens.get(2);
+
+        Path file = downloadableFile(room, filename);
+        if (file == null) return;
+        long size = Files.size(file);
 
+        sendFileBytes(file, Protocol.buildFileHeader(filename, size), 0, size);
+        server.logInfo("DOWNLOAD user=" + displayName + " room=" + room + " file=" + filename + " size=" + size);
+    }
+
+    // DOWNLOAD_RANGE <room> <filename> <offset> <length> -> FILE_RANGE <filename> <offset> <length> <total> <version> + Bytes;
+    // length wird am Dateiende gekürzt, offset == total liefert einen leeren Bereich
+    private void handleDownloadRange(Tokens tokens) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(tokens, 4)) {
+            send(Protocol.RES_ERROR + " Usage: DOWNLOAD_RANGE <room> <filename> <offset> <length>");
+            return;
+        }
+
+        String room = tokens.get(1);
+        String filename = tokens.get(2);
+        long offset;
+        long length;
+        try {
+            offset = tokens.parseLong(3);
+            length = tokens.parseLong(4);
+        } catch (NumberFormatException e) {
+            send(Protocol.buildDownloadFailed("INVALID_RANGE"));
+            return;
+        }
+
+        Path file = downloadableFile(room, filename);
+        if (file == null) return;
+        long size = Files.size(file);
+        if (offset < 0 || length < 0 || offset > size) {
+            send(Protocol.buildDownloadFailed("INVALID_RANGE"));
+            return;
+        }
+        long len = Math.min(length, size - offset);
+        long version = Files.getLastModifiedTime(file).toMillis();
+
+        sendFileBytes(file, Protocol.buildFileRange(filename, offset, len, size, version), offset, len);
+        // nur der letzte Bereich wird geloggt, sonst stünde jeder Teil eines großen Downloads im Log
+        if (offset + len == size) {
+            server.logInfo("DOWNLOAD user=" + displayName + " room=" + room + " file=" + filename + " size=" + size + " ranged=true");
+        }
+    }
+
+    // gemeinsame Prüfungen für DOWNLOAD und DOWNLOAD_RANGE; null = DOWNLOAD_FAILED ist schon raus
+    private Path downloadableFile(String room, String filename) throws IOException {
         if (currentRoom == null || !room.equals(currentRoom)) {
             send(Protocol.buildDownloadFailed("NOT_IN_ROOM"));
-            return;
+            return null;
         }
 
         if (!server.roomExists(room)) {
             send(Protocol.buildDownloadFailed("ROOM_NOT_FOUND"));
-            return;
+            return null;
         }
 
         if (!isValidFilename(filename)) {
             send(Protocol.buildDownloadFailed("INVALID_FILENAME"));
-            return;
+            return null;
         }
 
         Path file = server.getRoomFilePath(room, filename);
         if (file == null || !Files.exists(file) || !Files.isRegularFile(file)) {
             send(Protocol.buildDownloadFailed("NOT_FOUND"));
-            return;
+            return null;
         }
 
         long size = Files.size(file);
         if (size < 0 || size > MAX_FILE_BYTES) {
             send(Protocol.buildDownloadFailed("SIZE_LIMIT"));
-            return;
+            return null;
         }
-
-        sendFileBytes(file, filename, size);
-        server.logInfo("DOWNLOAD user=" + displayName + " room=" + room + " file=" + filename + " size=" + size);
+        return file;
     }
 
-    private void sendFileBytes(Path file, String filename, long size) throws IOException {
-        synchronized (this) {
-            out.writeUTF(Protocol.buildFileHeader(filename, size));
-            out.flush();
-
-            try (InputStream fis = Files.newInputStream(file)) {
-                byte[] buf = new byte[8192];
-                long remaining = size;
+    // Download wird nur eingereiht; Header + Bytes [offset, offset+length) schreibt der Writer am Stück
+    protected void sendFileBytes(Path file, String header, long offset, long length) throws IOException {
+        enqueue(new FileDownload(file, header, offset, length), false);
+    }
 
-                while (remaining > 0) {
-                    int toRead = (int) Math.min(buf.length, remaining);
-                    int r = fis.read(buf, 0, toRead);
-                    if (r == -1) throw new IOException("EOF beim Lesen der Datei");
-                    out.write(buf, 0, r);
-                    remaining -= r;
+    private record FileDownload(Path file, String header, long offset, long length) {}
+
+    private void writeFile(FileDownload d, int version) throws IOException {
+        // Header samt allem davor raus, bevor transferTo am Puffer vorbei direkt in den Channel schreibt
+        flushPolicy.onFrame(Frame.of(d.header()).writeTo(out, version), true);
+        flushOut();
+
+        // Socket aus einem ServerSocketChannel (ChatServer.runBlocking): Datei -> Socket per transferTo,
+        // ohne Umweg über einen Heap-Puffer (sendfile, wo das OS es kann)
+        long end = d.offset() + d.length();
+        SocketChannel ch = socket.getChannel();
+        if (ch != null) {
+            try (FileChannel fc = FileChannel.open(d.file(), StandardOpenOption.READ)) {
+                long pos = d.offset();
+                while (pos < end) {
+                    long n = fc.transferTo(pos, end - pos, ch);
+                    if (n <= 0 && pos >= fc.size()) throw new IOException("EOF beim Lesen der Datei");
+                    pos += n;
                 }
             }
-            out.flush();
+            return;
+        }
+
+        try (InputStream fis = Files.newInputStream(d.file())) {
+            fis.skipNBytes(d.offset());
+            byte[] buf = new byte[8192];
+            long remaining = d.length();
+
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buf.length, remaining);
+                int r = fis.read(buf, 0, toRead);
+                if (r == -1) throw new IOException("EOF beim Lesen der Datei");
+                out.write(buf, 0, r);
+                remaining -= r;
+            }
         }
     }
 
     private void discardBytes(long size) throws IOException {
         if (size <= 0) return;
+        readBody(size, null, () -> {});
+    }
+
+    // Liest genau size Rohbytes (Upload-Body) vom Socket in sink (null = verwerfen) und ruft danach done auf.
+    // Der NIO-Handler überschreibt das und liefert die Bytes asynchron aus dem Event-Loop.
+    protected void readBody(long size, RoomUpload sink, IoAction done) throws IOException {
+        // Mit SocketChannel: Socket -> direkter Puffer -> FileChannel, ohne Kopie in einen Heap-Puffer
+        SocketChannel ch = socket.getChannel();
+        byte[] buf = ch == null ? new byte[8192] : null;
         long remaining = size;
-        byte[] buf = new byte[8192];
 
         while (remaining > 0) {
-            int toRead = (int) Math.min(buf.length, remaining);
-            int r = in.read(buf, 0, toRead);
-            if (r == -1) throw new EOFException("EOF while discarding upload bytes");
+            int r;
+            ByteBuffer chunk;
+            if (ch != null) {
+                ByteBuffer direct = bodyBuffer();
+                direct.clear().limit((int) Math.min(direct.capacity(), remaining));
+                r = ch.read(direct);
+                chunk = direct.flip();
+            } else {
+                int toRead = (int) Math.min(buf.length, remaining);
+                r = in.read(buf, 0, toRead);
+                chunk = r > 0 ? ByteBuffer.wrap(buf, 0, r) : null;
+            }
+            if (r == -1) {
+                if (sink != null) server.abortUpload(sink, "EOF während Upload");
+                throw new EOFException("EOF während Upload");
+            }
+            if (sink != null) {
+                try {
+                    sink.write(chunk);
+                } catch (IOException e) {
+                    server.abortUpload(sink, e.getMessage());
+                    uploadFailed(sink.getRoom(), sink.getFilename(), sink.getSize());
+                    return;
+                }
+            }
             remaining -= r;
         }
+        done.run();
+    }
+
+    private ByteBuffer bodyBuffer() {
+        if (bodyBuffer == null) bodyBuffer = ByteBuffer.allocateDirect(BODY_BUFFER_BYTES);
+        return bodyBuffer;
+    }
+
+    @FunctionalInterface
+    protected interface IoAction {
+        void run() throws IOException;
+    }
+
+    // Ergebnis eines AuthPool-Auftrags; error != null bei Fehler, RejectedExecutionException = Pool voll
+    @FunctionalInterface
+    protected interface AuthDone<T> {
+        void accept(T result, Throwable error) throws IOException;
+    }
+
+    // Der Handler-Thread wartet auf das Ergebnis (rechnet selbst nicht; ein virtueller Thread gibt dabei
+    // seinen Träger frei). Der NIO-Handler überschreibt das und setzt im Event-Loop fort.
+    protected <T> void afterAuth(CompletableFuture<T> pending, AuthDone<T> done) throws IOException {
+        T result = null;
+        Throwable error = null;
+        try {
+            result = pending.join();
+        } catch (CompletionException e) {
+            error = e.getCause() != null ? e.getCause() : e;
+        }
+        done.accept(result, error);
     }
 
     private boolean isValidFilename(String s) {
@@ -286,18 +688,18 @@ public class ClientHandler extends Thread {
         if (s.contains("/") || s.contains("\\")) return false;
         if (s.contains("|") || s.contains(";")) return false;
         if (s.contains(" ")) return false;
-        return true;
+        return s.codePoints().noneMatch(Character::isISOControl);
     }
 
 
 
-    private void handleLogin(String[] tokens) throws IOException {
-        if (tokens.length < 3) {
+    private void handleLogin(Tokens tokens) throws IOException {
+        if (missing(tokens, 2)) {
             send(Protocol.RES_ERROR + " Usage: LOGIN <username> <password>");
             return;
         }
-        String username = tokens[1];
-        String password = tokens[2];
+        String username = tokens.get(1);
+        String password = tokens.get(2);
 
         if (this.user != null) {
             send(Protocol.RES_LOGIN_FAILED + " ALREADY_LOGGED_IN");
@@ -311,7 +713,21 @@ public class ClientHandler extends Thread {
             return;
         }
 
-        User u = server.authenticateUser(username, password);
+        afterAuth(server.authenticateUserAsync(username, password), (u, error) -> finishLogin(username, u, error));
+    }
+
+    private void finishLogin(String username, User u, Throwable error) throws IOException {
+        if (error instanceof RejectedExecutionException) {
+            send(Protocol.RES_LOGIN_FAILED + " " + Protocol.REASON_BUSY + " " + server.getAuthRetryAfterMillis());
+            server.logWarn("LOGIN_BUSY user=" + username);
+            return;
+        }
+        // zweiter Blick nach dem Hashen: dieselben Daten können parallel auf einer anderen Verbindung angemeldet worden sein
+        if (u != null && server.isUserLoggedIn(username)) {
+            send(Protocol.RES_LOGIN_FAILED + " ALREADY_LOGGED_IN");
+            server.logInfo("LOGIN_FAIL user=" + username);
+            return;
+        }
         if (u == null) {
             send(Protocol.RES_LOGIN_FAILED + " INVALID_CREDENTIALS");
             server.logInfo("LOGIN_FAIL user=" + username);
@@ -319,19 +735,54 @@ public class ClientHandler extends Thread {
         }
 
         if (u.isBanned()) {
-            send(Protocol.buildBanned("Du bist dauerhaft gebannt."));
+            send(Frame.urgent(Protocol.buildBanned("Du bist dauerhaft gebannt.")));
             server.logWarn("LOGIN_BANNED user=" + username);
-            running = false;
-            closeNow();
+            closeAfterFlush();
             return;
         }
 
+        completeLogin(u, "LOGIN_OK");
+    }
+
+    // RESUME <token>: Anmeldung mit dem Sitzungs-Token vom letzten LOGIN_OK statt mit Passwort.
+    // Nur HMAC-Prüfung + Datensatz holen, deshalb direkt im Handler und ohne AuthPool
+    private void handleResume(Tokens tokens) throws IOException {
+        if (missing(tokens, 1)) {
+            send(Protocol.RES_ERROR + " Usage: RESUME <token>");
+            return;
+        }
+        if (this.user != null) {
+            send(Protocol.RES_LOGIN_FAILED + " ALREADY_LOGGED_IN");
+            return;
+        }
+
+        User u = server.resumeSession(tokens.get(1));
+        if (u == null) {
+            send(Protocol.RES_LOGIN_FAILED + " SESSION_INVALID");
+            server.logInfo("RESUME_FAIL client=" + getName());
+            return;
+        }
+        if (u.isBanned()) {
+            send(Frame.urgent(Protocol.buildBanned("Du bist dauerhaft gebannt.")));
+            server.logWarn("LOGIN_BANNED user=" + u.getUsername());
+            closeAfterFlush();
+            return;
+        }
+
+        // das Token beweist die Identität: eine noch eingetragene alte Verbindung (Netzabbruch) wird abgelöst
+        server.takeOverSession(u.getUsername());
+        completeLogin(u, "RESUME_OK");
+    }
+
+    private void completeLogin(User u, String event) throws IOException {
         this.user = u;
         this.displayName = u.getUsername();
         server.addLoggedInClient(u, this);
 
         send(Protocol.RES_LOGIN_OK);
-        server.logInfo("LOGIN_OK user=" + username);
+        String token = helloSeen ? server.issueSession(u) : null;
+        if (token != null) send(Protocol.buildSession(token));
+        server.logInfo(event + " user=" + u.getUsername());
         server.sendRoomListTo(this);
 
         boolean joined = server.joinRoom(ChatServer.DEFAULT_ROOM, this);
@@ -342,32 +793,33 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleCreateRoom(String[] tokens) throws IOException {
+    private void handleCreateRoom(Tokens tokens) throws IOException {
         if (!requireLogin()) return;
 
-        if (tokens.length < 2) {
+        if (missing(tokens, 1)) {
             send(Protocol.RES_ERROR + " Usage: CREATE_ROOM <room>");
             return;
         }
 
-        boolean ok = server.createRoom(tokens[1]);
+        String room = tokens.get(1);
+        boolean ok = server.createRoom(room);
         if (ok) {
-            send(Protocol.RES_INFO + " Raum erstellt: " + tokens[1]);
-            server.logInfo("CREATE_ROOM by=" + displayName + " room=" + tokens[1] + " ok=" + ok);
+            send(Protocol.RES_INFO + " Raum erstellt: " + room);
+            server.logInfo("CREATE_ROOM by=" + displayName + " room=" + room + " ok=" + ok);
         }
 
         else send(Protocol.RES_ERROR + " Raum konnte nicht erstellt werden (Name ungültig oder existiert).");
     }
 
-    private void handleJoin(String[] tokens) throws IOException {
+    private void handleJoin(Tokens tokens) throws IOException {
         if (!requireLogin()) return;
 
-        if (tokens.length < 2) {
+        if (missing(tokens, 1)) {
             send(Protocol.RES_ERROR + " Usage: JOIN <room>");
             return;
         }
 
-        String room = tokens[1];
+        String room = tokens.get(1);
         if (room.equals(currentRoom)) {
             send(Protocol.RES_INFO + " Du bist schon in diesem Raum.");
             return;
@@ -393,7 +845,7 @@ public class ClientHandler extends Thread {
     }
 
 
-    private void handleMsg(String line) throws IOException {
+    private void handleMsg(Tokens f) throws IOException {
         if (!requireLogin()) return;
 
         if (currentRoom == null) {
@@ -401,12 +853,78 @@ public class ClientHandler extends Thread {
             return;
         }
 
-        String text = extractTextAfterCommand(line, Protocol.CMD_MSG);
+        String text = f.get(1);
         server.broadcastChatToRoom(currentRoom, displayName, text);
         server.logInfo("MSG room=" + currentRoom + " from=" + displayName + " len=" + text.length());
     }
 
+    // HISTORY <room> <beforeSeq> <limit> -> HISTORY_ITEM ... (älteste zuerst), HISTORY_CURSOR <room> <nächstes beforeSeq>
+    private void handleHistory(Tokens tokens) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(tokens, 3)) {
+            send(Protocol.RES_ERROR + " Usage: HISTORY <room> <beforeSeq> <limit>");
+            return;
+        }
+
+        String room = tokens.get(1);
+        if (currentRoom == null || !room.equals(currentRoom)) {
+            send(Protocol.RES_ERROR + " Du bist nicht in diesem Raum.");
+            return;
+        }
+        long beforeSeq;
+        int limit;
+        try {
+            beforeSeq = tokens.parseLong(2);
+            limit = (int) Math.min(tokens.parseLong(3), ChatServer.MAX_HISTORY_PAGE);
+        } catch (NumberFormatException e) {
+            send(Protocol.RES_ERROR + " Usage: HISTORY <room> <beforeSeq> <limit>");
+            return;
+        }
+        if (limit <= 0) limit = ChatServer.MAX_HISTORY_PAGE;
+
+        List<HistoryLog.Entry> page = server.getHistoryPage(room, beforeSeq, limit);
+        for (HistoryLog.Entry e : page) send(Protocol.buildHistoryItem(room, e.seq(), e.from(), e.text()));
+        long oldest = page.isEmpty() ? 1 : page.get(0).seq();
+        send(Protocol.buildHistoryCursor(room, oldest > 1 ? oldest : 0));
+    }
+
+    // SEARCH <room> <wörter...> -> SEARCH_RESULT <room> <einträge...> (neueste zuerst, passend in einen Frame)
+    private void handleSearch(Tokens tokens) throws IOException {
+        if (!requireLogin()) return;
+
+        if (missing(tokens, 2)) {
+            send(Protocol.RES_ERROR + " Usage: SEARCH <room> <wörter...>");
+            return;
+        }
+
+        String room = tokens.get(1);
+        if (currentRoom == null || !room.equals(currentRoom)) {
+            send(Protocol.RES_ERROR + " Du bist nicht in diesem Raum.");
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        List<HistoryLog.Entry> hits = server.searchHistory(room, tokens.get(2), ChatServer.MAX_SEARCH_RESULTS);
+        StringBuilder sb = new StringBuilder();
+        int bytes = 0;
+        for (HistoryLog.Entry e : hits) {
+            int mark = sb.length();
+            int n = Protocol.appendHistoryEntry(sb, e.seq(), e.from(), e.text());
+            if (bytes + n > Protocol.HISTORY_BATCH_BYTES) {
+                sb.setLength(mark);
+                break;
+            }
+            bytes += n;
+        }
+        send(Protocol.buildSearchResult(room, sb));
+        server.logInfo("SEARCH room=" + room + " from=" + displayName + " hits=" + hits.size()
+                + " us=" + (System.nanoTime() - t0) / 1000);
+    }
+
     private void handleLogout() throws IOException {
+        // ausdrücklich abgemeldet -> bisherige Tokens taugen nicht mehr für RESUME
+        if (user != null) server.revokeSessions(user.getUsername());
         send(Protocol.RES_INFO + " Bye.");
         server.logInfo("LOGOUT user=" + displayName);
         running = false;
@@ -420,29 +938,118 @@ public class ClientHandler extends Thread {
         return true;
     }
 
-    private String extractTextAfterCommand(String line, String cmd) {
-        if (line.length() <= cmd.length()) return "";
-        return line.substring(cmd.length()).trim();
+    public void send(String message) throws IOException {
+        send(message, false);
+    }
+
+    // droppable = darf bei voller Queue verworfen werden (Chat); Steuer-Nachrichten nie
+    public void send(String message, boolean droppable) throws IOException {
+        send(droppable ? Frame.droppable(message) : Frame.of(message));
     }
 
-    public synchronized void send(String message) throws IOException {
-        if (out == null) return;
-        out.writeUTF(message);
+    // Bereits kodiertes Frame (Broadcast): wird ohne erneutes Kodieren eingereiht
+    public void send(Frame frame) throws IOException {
+        enqueue(frame, frame.isDroppable());
+    }
+
+    // Kostet den Aufrufer (z.B. einen Broadcast) nur das Einreihen, nie einen Socket-Write
+    protected void enqueue(Object item, boolean droppable) throws IOException {
+        if (outbound.offer(item, droppable)) return;
+        if (outbound.isClosed()) throw new IOException("Socket closed");
+
+        server.logWarn("SLOW_CONSUMER user=" + displayName + " queued=" + outbound.size()
+                + " dropped=" + outbound.getDropped());
+        closeNow();
+        throw new IOException("Sende-Queue voll");
+    }
+
+    private void writeLoop() {
+        int version = 1;
+        try {
+            Object item;
+            while ((item = outbound.take()) != null) {
+                if (item instanceof Frame f) {
+                    try {
+                        if (flushPolicy.onFrame(f.writeTo(out, version), f.isUrgent())) flushOut();
+                    } catch (UTFDataFormatException e) {
+                        // > 64 KB passt nicht in writeUTF: für v1-Clients überspringen statt trennen
+                        System.err.println("[SERVER] " + getName() + ": Nachricht für Protokoll v1 zu lang, übersprungen");
+                    }
+                } else if (item instanceof FileDownload d) {
+                    writeFile(d, version);
+                } else if (item instanceof ProtocolSwitch ps) {
+                    version = ps.version();
+                }
+                // Queue leer -> nichts mehr zum Sammeln da
+                if (outbound.isEmpty()) flushOut();
+            }
+        } catch (IOException e) {
+            if (running) System.err.println("[SERVER] Schreibfehler " + getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            outbound.closeAndClear();
+            // weckt auch den Reader aus readUTF()
+            try { socket.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    private void flushOut() throws IOException {
         out.flush();
+        flushPolicy.flushed();
     }
 
+    // Sofort trennen, noch eingereihte Nachrichten werden verworfen
     public void closeNow() {
         running = false;
+        outbound.closeAndClear();
         try { socket.close(); } catch (IOException ignore) {}
     }
 
+    // Erst alles Eingereihte (z.B. BANNED, "Server wird beendet.") ausliefern, dann trennen
+    public void closeAfterFlush() {
+        running = false;
+        outbound.close();
+    }
+
     private void cleanup() {
         running = false;
         server.removeClient(this);
-        try { socket.close(); } catch (IOException ignore) {}
+        // Writer schreibt den Rest (z.B. "Bye.") und schließt dann den Socket
+        outbound.close();
+        if (out == null) {
+            try { socket.close(); } catch (IOException ignore) {}
+        }
         System.out.println("[SERVER] " + getName() + " beendet.");
     }
 
+    protected OutboundQueue<Object> outbound() { return outbound; }
+
+    public int getOutboundDepth() { return outbound.size(); }
+
+    public int getOutboundHighWater() { return outbound.getHighWater(); }
+
+    public long getOutboundDropped() { return outbound.getDropped(); }
+
+    // Batching: Anzahl Flushes und Frames pro Flush (Schnitt/Maximum)
+    public long getFlushCount() { return flushPolicy().getFlushes(); }
+
+    public double getAverageBatch() { return flushPolicy().getAverageBatch(); }
+
+    public int getMaxBatch() { return flushPolicy().getMaxBatch(); }
+
+    protected FlushPolicy flushPolicy() { return flushPolicy; }
+
+    protected boolean isRunning() { return running; }
+
+    protected void stopRunning() { running = false; }
+
+    protected ChatServer server() { return server; }
+
+    public int getClientId() { return clientId; }
+
+    public String getName() { return name; }
+
     public User getUser() { return user; }
 
     public String getDisplayName() { return displayName; }
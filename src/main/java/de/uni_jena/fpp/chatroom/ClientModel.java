@@ -60,4 +60,11 @@ public class ClientModel {
             chatLines.remove(0);
         }
     }
+
+    // mehrere Zeilen (z.B. History beim Join) in einem Schritt
+    public synchronized void addChatLines(List<String> lines) {
+        chatLines.addAll(lines);
+        int excess = chatLines.size() - maxChatLines;
+        if (excess > 0) chatLines.subList(0, excess).clear();
+    }
 }
@@ -13,7 +13,38 @@ public class Config {
 
     private static String usersFile;
     private static int pbkdf2Iterations;
+    private static int usersJournalCompact;
+    private static String usersStore;
+    private static String usersMapFile;
+    private static int authThreads;
+    private static int authQueue;
+    private static int sessionTtlMinutes;
+    private static String sessionKeyFile;
     private static String serverLogFile;
+    private static int logBufferLines;
+    private static int logFlushMillis;
+    private static int logFlushBytes;
+    private static String logOverflow;
+
+    private static String serverEngine;
+    private static int nioThreads;
+
+    private static int protocolVersion;
+
+    private static int clientReconnectBaseMs;
+    private static int clientReconnectMaxMs;
+
+    private static int outboundCapacity;
+    private static String outboundOverflow;
+    private static int flushBytes;
+    private static int flushDelayMillis;
+    private static int roomShards;
+    private static int roomUsersDelayMillis;
+
+    private static String historyDir;
+    private static int historySegmentBytes;
+    private static int historyFsyncMillis;
+    private static int searchSaveSeconds;
 
     static {
         load();
@@ -39,7 +70,40 @@ public class Config {
                 props.getProperty("security.pbkdf2.iterations"),
                 PasswordUtil.DEFAULT_ITERATIONS
         );
+        usersJournalCompact = parseInt(props.getProperty("users.journal.compact"), 1000);
+        usersStore = props.getProperty("users.store", "file").trim().toLowerCase();
+        usersMapFile = props.getProperty("users.map.file", "data/users.map");
+        authThreads = parseInt(props.getProperty("auth.threads"), 0);
+        authQueue = parseInt(props.getProperty("auth.queue"), 256);
+        sessionTtlMinutes = parseInt(props.getProperty("session.ttl.minutes"), 720);
+        sessionKeyFile = props.getProperty("session.key.file", "data/session.key");
         serverLogFile = props.getProperty("server.log.file", "data/server.log");
+        logBufferLines = parseInt(props.getProperty("server.log.buffer"), 8192);
+        logFlushMillis = parseInt(props.getProperty("server.log.flush.ms"), 100);
+        logFlushBytes = parseInt(props.getProperty("server.log.flush.bytes"), 64 * 1024);
+        logOverflow = props.getProperty("server.log.overflow", "drop_info").trim().toLowerCase();
+
+        serverEngine = props.getProperty("server.engine", "platform").trim().toLowerCase();
+        nioThreads = parseInt(props.getProperty("server.nio.threads"), 0);
+        if (nioThreads <= 0) nioThreads = Runtime.getRuntime().availableProcessors();
+
+        protocolVersion = parseInt(props.getProperty("protocol.version"), ProtocolV2.VERSION);
+
+        clientReconnectBaseMs = parseInt(props.getProperty("client.reconnect.base.ms"), 500);
+        clientReconnectMaxMs = parseInt(props.getProperty("client.reconnect.max.ms"), 30_000);
+
+        outboundCapacity = parseInt(props.getProperty("server.outbound.capacity"), 1024);
+        outboundOverflow = props.getProperty("server.outbound.overflow", "drop_oldest").trim().toLowerCase();
+        flushBytes = parseInt(props.getProperty("server.flush.bytes"), 16 * 1024);
+        flushDelayMillis = parseInt(props.getProperty("server.flush.delay.ms"), 2);
+        roomShards = parseInt(props.getProperty("server.room.shards"), 0);
+        if (roomShards < 0) roomShards = Runtime.getRuntime().availableProcessors();
+        roomUsersDelayMillis = parseInt(props.getProperty("server.room.users.delay.ms"), 0);
+
+        historyDir = props.getProperty("history.dir", "data/history");
+        historySegmentBytes = parseInt(props.getProperty("history.segment.bytes"), 4 * 1024 * 1024);
+        historyFsyncMillis = parseInt(props.getProperty("history.fsync.ms"), 100);
+        searchSaveSeconds = parseInt(props.getProperty("search.save.seconds"), 60);
     }
 
     private static int parseInt(String s, int def) {
@@ -63,8 +127,86 @@ public class Config {
     public static int getPbkdf2Iterations() {
         return pbkdf2Iterations;
     }
+    public static int getUsersJournalCompact() {
+        return usersJournalCompact;
+    }
+    public static String getUsersStore() {
+        return usersStore;
+    }
+    public static String getUsersMapFile() {
+        return usersMapFile;
+    }
+    public static int getAuthThreads() {
+        return authThreads;
+    }
+    public static int getAuthQueue() {
+        return authQueue;
+    }
+    public static int getSessionTtlMinutes() {
+        return sessionTtlMinutes;
+    }
+    public static String getSessionKeyFile() {
+        return sessionKeyFile;
+    }
     public static String getServerLogFile() {
         return serverLogFile;
     }
+    public static int getLogBufferLines() {
+        return logBufferLines;
+    }
+    public static int getLogFlushMillis() {
+        return logFlushMillis;
+    }
+    public static int getLogFlushBytes() {
+        return logFlushBytes;
+    }
+    public static String getLogOverflow() {
+        return logOverflow;
+    }
+    public static String getServerEngine() {
+        return serverEngine;
+    }
+    public static int getNioThreads() {
+        return nioThreads;
+    }
+    public static int getProtocolVersion() {
+        return protocolVersion;
+    }
+    public static int getClientReconnectBaseMs() {
+        return clientReconnectBaseMs;
+    }
+    public static int getClientReconnectMaxMs() {
+        return clientReconnectMaxMs;
+    }
+    public static int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+    public static String getOutboundOverflow() {
+        return outboundOverflow;
+    }
+    public static int getFlushBytes() {
+        return flushBytes;
+    }
+    public static int getFlushDelayMillis() {
+        return flushDelayMillis;
+    }
+    public static int getRoomShards() {
+        return roomShards;
+    }
+    public static int getRoomUsersDelayMillis() {
+        return roomUsersDelayMillis;
+    }
+    public static String getHistoryDir() {
+        return historyDir;
+    }
+    public static int getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+    public static int getHistoryFsyncMillis() {
+        return historyFsyncMillis;
+    }
+    public static int getSearchSaveSeconds() {
+        return searchSaveSeconds;
+    }
 
 }
@@ -3,42 +3,79 @@ package de.uni_jena.fpp.chatroom;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
+// users.db ist der Schnappschuss, jede Änderung landet zusätzlich als komplette User-Zeile (gleiches Format)
+// am Ende von users.db.journal. Laden = Schnappschuss + Journal der Reihe nach darüber (letzte Zeile gewinnt).
+// Ab compactEvery Journal-Zeilen schreibt ein Hintergrund-Thread einen neuen Schnappschuss und schneidet
+// den davon abgedeckten Anfang des Journals ab; Registrierung/Ban hängen also nur eine Zeile an.
 public class FileUserRepository implements UserRepository {
 
+    static final String JOURNAL_SUFFIX = ".journal";
+
     private final Path file;
+    private final Path journalFile;
     private final int defaultIterations;
+    private final int compactEvery;
     private final Map<String, User> users = new ConcurrentHashMap<>();
+    // ReentrantLock statt synchronized: Datei-I/O unter einem Monitor würde virtuelle Threads pinnen
+    private final ReentrantLock lock = new ReentrantLock();
+    // unter lock: offenes Journal, seine Länge und Zeilenzahl
+    private FileChannel journal;
+    private long journalBytes;
+    private int journalRecords;
+    private final AtomicBoolean compacting = new AtomicBoolean();
 
     public FileUserRepository(String filePath, int defaultIterations) {
+        this(filePath, defaultIterations, Config.getUsersJournalCompact());
+    }
+
+    public FileUserRepository(String filePath, int defaultIterations, int compactEvery) {
         this.file = Path.of(filePath);
+        this.journalFile = file.resolveSibling(file.getFileName().toString() + JOURNAL_SUFFIX);
         this.defaultIterations = Math.max(10_000, defaultIterations);
+        this.compactEvery = Math.max(1, compactEvery);
         loadAll();
+        maybeCompact();
     }
 
     @Override
-    public synchronized boolean createUser(String username, char[] password) {
+    public boolean createUser(String username, char[] password) {
         if (!isValidName(username) || password == null) return false;
         if (users.containsKey(username)) return false;
 
+        // PBKDF2 außerhalb des Locks: parallele Registrierungen blockieren sich nicht gegenseitig
         byte[] salt = PasswordUtil.newSalt();
         byte[] hash = PasswordUtil.pbkdf2(password, salt, defaultIterations);
-
         User u = new User(username, defaultIterations, salt, hash, false);
-        users.put(username, u);
 
-        return saveAll();
+        lock.lock();
+        try {
+            if (users.putIfAbsent(username, u) != null) return false;
+            if (!append(u)) {
+                users.remove(username, u);
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        maybeCompact();
+        return true;
     }
 
     @Override
@@ -49,6 +86,11 @@ public class FileUserRepository implements UserRepository {
         return PasswordUtil.matches(password, u) ? u : null;
     }
 
+    @Override
+    public User findUser(String username) {
+        return username == null ? null : users.get(username);
+    }
+
     @Override
     public List<User> listUsers() {
         List<User> list = new ArrayList<>(users.values());
@@ -57,38 +99,183 @@ public class FileUserRepository implements UserRepository {
     }
 
     @Override
-    public synchronized boolean setBanned(String username, boolean banned) {
+    public boolean setBanned(String username, boolean banned) {
         if (username == null) return false;
-        User old = users.get(username);
-        if (old == null) return false;
+        lock.lock();
+        try {
+            User old = users.get(username);
+            if (old == null) return false;
 
-        users.put(username, old.withBanned(banned));
-        return saveAll();
+            User updated = old.withBanned(banned);
+            users.put(username, updated);
+            if (!append(updated)) {
+                users.put(username, old);
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        maybeCompact();
+        return true;
     }
 
-    private synchronized void loadAll() {
+    private void loadAll() {
         users.clear();
 
         try {
             if (file.getParent() != null) Files.createDirectories(file.getParent());
-            if (!Files.exists(file)) return;
+            if (Files.exists(file)) readLines(file);
+            openJournal();
+        } catch (IOException e) {
+            System.err.println("[USER-REPO] Laden fehlgeschlagen: " + e.getMessage());
+        }
+    }
 
-            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty() || line.startsWith("#")) continue;
+    private int readLines(Path f) throws IOException {
+        int n = 0;
+        try (BufferedReader br = Files.newBufferedReader(f, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
 
-                    User u = parseLine(line);
-                    if (u != null) users.put(u.getUsername(), u);
-                }
+                User u = parseLine(line);
+                if (u != null && !redefines(u)) users.put(u.getUsername(), u);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // Spätere Zeilen zu einem Nutzer dürfen nur den Ban-Status ändern; Salt/Hash/Iterationen stammen immer aus
+    // der Zeile, die ihn angelegt hat. Eine Zeile mit anderen Zugangsdaten wäre eine untergeschobene Neuanlage.
+    private boolean redefines(User u) {
+        User old = users.get(u.getUsername());
+        if (old == null) return false;
+        if (old.getIterations() == u.getIterations()
+                && Arrays.equals(old.getSalt(), u.getSalt())
+                && Arrays.equals(old.getPasswordHash(), u.getPasswordHash())) {
+            return false;
+        }
+        System.err.println("[USER-REPO] Zeile für " + u.getUsername() + " mit abweichenden Zugangsdaten ignoriert");
+        return true;
+    }
+
+    // Journal nachspielen und zum Anhängen öffnen; eine beim Absturz halb geschriebene letzte Zeile
+    // (ohne Zeilenende) wird abgeschnitten, sonst klebte die nächste Zeile an ihr
+    private void openJournal() throws IOException {
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = journal.size();
+        long end = size;
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (end > 0) {
+            one.clear();
+            journal.read(one, end - 1);
+            if (one.get(0) == '\n') break;
+            end--;
+        }
+        if (end < size) {
+            journal.truncate(end);
+            System.err.println("[USER-REPO] Journal: unvollständige letzte Zeile abgeschnitten");
+        }
+        journalRecords = readLines(journalFile);
+        journalBytes = end;
+        journal.position(end);
+    }
+
+    // nur unter lock: eine Zeile ans Journal
+    private boolean append(User u) {
+        if (journal == null) {
+            System.err.println("[USER-REPO] Speichern fehlgeschlagen: Journal nicht geöffnet");
+            return false;
+        }
+        String line = toLine(u);
+        if (line == null) {
+            System.err.println("[USER-REPO] Speichern verweigert: ungültiger Nutzername");
+            return false;
+        }
+        ByteBuffer b = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (b.hasRemaining()) journalBytes += journal.write(b);
+            journalRecords++;
+            return true;
+        } catch (IOException e) {
+            System.err.println("[USER-REPO] Speichern fehlgeschlagen: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void maybeCompact() {
+        lock.lock();
+        try {
+            if (journalRecords < compactEvery) return;
+        } finally {
+            lock.unlock();
+        }
+        if (!compacting.compareAndSet(false, true)) return;
+        Thread.ofPlatform().name("user-repo-compact").daemon(true).start(() -> {
+            try {
+                compact();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    // Schnappschuss außerhalb des Locks schreiben, danach nur den bis dahin geschriebenen Journal-Anfang entfernen.
+    // Absturz dazwischen: das Journal enthält dann Zeilen, die schon im Schnappschuss stehen -> beim Nachspielen harmlos.
+    private void compact() {
+        List<User> snapshot;
+        long upTo;
+        int records;
+        lock.lock();
+        try {
+            if (journal == null) return;
+            snapshot = new ArrayList<>(users.values());
+            upTo = journalBytes;
+            records = journalRecords;
+        } finally {
+            lock.unlock();
+        }
+        snapshot.sort(Comparator.comparing(User::getUsername, String.CASE_INSENSITIVE_ORDER));
+        if (!saveAll(snapshot)) return;
+
+        lock.lock();
+        try {
+            // was seit dem Schnappschuss angehängt wurde, bleibt im Journal
+            ByteBuffer rest = ByteBuffer.allocate((int) (journalBytes - upTo));
+            while (rest.hasRemaining() && journal.read(rest, upTo + rest.position()) > 0) { }
+            rest.flip();
+            Path tmp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (rest.hasRemaining()) fc.write(rest);
             }
+            journal.close();
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalBytes = journal.size();
+            journal.position(journalBytes);
+            journalRecords -= records;
         } catch (IOException e) {
-            System.err.println("[USER-REPO] Laden fehlgeschlagen: " + e.getMessage());
+            System.err.println("[USER-REPO] Journal kürzen fehlgeschlagen: " + e.getMessage());
+            // Journal wieder öffnen, damit weiter angehängt werden kann (doppelte Zeilen sind harmlos)
+            try {
+                if (journal == null || !journal.isOpen()) {
+                    journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    journalBytes = journal.size();
+                    journal.position(journalBytes);
+                }
+            } catch (IOException ex) {
+                journal = null;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    private synchronized boolean saveAll() {
+    // Schnappschuss atomar schreiben (tmp + Verschieben); läuft ohne lock, nur ein compact() gleichzeitig
+    private boolean saveAll(List<User> snapshot) {
         try {
             if (file.getParent() != null) Files.createDirectories(file.getParent());
 
@@ -104,8 +291,10 @@ public class FileUserRepository implements UserRepository {
                 bw.write("# username;iterations;saltBase64;hashBase64;banned");
                 bw.newLine();
 
-                for (User u : listUsers()) {
-                    bw.write(toLine(u));
+                for (User u : snapshot) {
+                    String line = toLine(u);
+                    if (line == null) continue;
+                    bw.write(line);
                     bw.newLine();
                 }
             }
@@ -141,7 +330,10 @@ public class FileUserRepository implements UserRepository {
         }
     }
 
+    // null, wenn der Nutzername Trenn- oder Steuerzeichen enthält: eine Zeile muss genau ein Datensatz bleiben.
+    // Die übrigen Felder (Zahl, Base64, Boolean) können weder ';' noch Zeilenenden enthalten.
     private String toLine(User u) {
+        if (!isValidName(u.getUsername())) return null;
         String saltB64 = Base64.getEncoder().encodeToString(u.getSalt());
         String hashB64 = Base64.getEncoder().encodeToString(u.getPasswordHash());
         return u.getUsername() + ";" + u.getIterations() + ";" + saltB64 + ";" + hashB64 + ";" + u.isBanned();
@@ -150,6 +342,8 @@ public class FileUserRepository implements UserRepository {
     private boolean isValidName(String s) {
         if (s == null) return false;
         if (s.isBlank()) return false;
-        return !s.contains(" ") && !s.contains("|") && !s.contains(";");
+        if (s.contains(" ") || s.contains("|") || s.contains(";")) return false;
+        // Steuerzeichen (v.a. \n/\r) würden eine eigene Zeile in users.db bzw. das Journal schreiben
+        return s.codePoints().noneMatch(Character::isISOControl);
     }
 }
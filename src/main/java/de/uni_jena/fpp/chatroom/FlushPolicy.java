@@ -0,0 +1,70 @@
+package de.uni_jena.fpp.chatroom;
+
+// Entscheidet pro Verbindung, wann gesammelte Frames rausgehen: bei leerer Queue, ab maxBytes,
+// nach maxDelay seit dem ersten wartenden Frame oder sofort bei dringenden Frames (BANNED, WARN, ...).
+// Wird nur vom Writer der Verbindung benutzt; die Zähler dürfen von außen gelesen werden.
+final class FlushPolicy {
+
+    private final int maxBytes;
+    private final long maxDelayNanos;
+
+    // aktueller, noch nicht geflushter Batch
+    private int pendingFrames;
+    private long pendingBytes;
+    private long firstPendingAt;
+
+    // Metriken
+    private volatile long flushes;
+    private volatile long frames;
+    private volatile int maxBatch;
+
+    FlushPolicy(int maxBytes, long maxDelayMillis) {
+        this.maxBytes = Math.max(512, maxBytes);
+        this.maxDelayNanos = Math.max(0, maxDelayMillis) * 1_000_000L;
+    }
+
+    // Puffergröße des Writers; größere Frames gehen ohnehin direkt durch
+    int getBufferSize() {
+        return maxBytes;
+    }
+
+    // true = jetzt flushen
+    boolean onFrame(int bytes, boolean urgent) {
+        long now = System.nanoTime();
+        if (pendingFrames == 0) firstPendingAt = now;
+        pendingFrames++;
+        pendingBytes += bytes;
+        return urgent || pendingBytes >= maxBytes || now - firstPendingAt >= maxDelayNanos;
+    }
+
+    boolean hasPending() {
+        return pendingFrames > 0;
+    }
+
+    // Writer hat geflusht -> Batch zählen
+    void flushed() {
+        if (pendingFrames == 0) return;
+        flushes++;
+        frames += pendingFrames;
+        if (pendingFrames > maxBatch) maxBatch = pendingFrames;
+        pendingFrames = 0;
+        pendingBytes = 0;
+    }
+
+    long getFlushes() {
+        return flushes;
+    }
+
+    long getFrames() {
+        return frames;
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    double getAverageBatch() {
+        long f = flushes;
+        return f == 0 ? 0 : (double) frames / f;
+    }
+}
@@ -0,0 +1,69 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Server-Nachricht, die pro Protokollversion höchstens einmal kodiert wird, unveränderlich.
+// Ein Broadcast erzeugt ein Frame und reiht es bei allen Empfängern ein; der erste Writer einer
+// Version kodiert (v1: writeUTF-Format, v2: ProtocolV2), alle weiteren benutzen dieselben Bytes.
+public final class Frame {
+
+    private final String text;
+    private final boolean droppable;
+    // sofort flushen statt auf den Rest des Batches zu warten (BANNED, WARN, Serverstop)
+    private final boolean urgent;
+    // Cache pro Version; doppeltes Kodieren bei gleichzeitigen Writern ist harmlos (gleiches Ergebnis)
+    private volatile byte[] v1;
+    private volatile byte[] v2;
+
+    private Frame(String text, boolean droppable, boolean urgent) {
+        this.text = text;
+        this.droppable = droppable;
+        this.urgent = urgent;
+    }
+
+    public static Frame of(String text) {
+        return new Frame(text, false, false);
+    }
+
+    // darf bei voller Sende-Queue verworfen werden (Chat)
+    public static Frame droppable(String text) {
+        return new Frame(text, true, false);
+    }
+
+    // Steuer-Nachricht: geht ohne Batching raus
+    public static Frame urgent(String text) {
+        return new Frame(text, false, true);
+    }
+
+    public String getText() { return text; }
+
+    public boolean isDroppable() { return droppable; }
+
+    public boolean isUrgent() { return urgent; }
+
+    // v1 wirft UTFDataFormatException, wenn der Text über 64 KB liegt (nur v2 kann das transportieren)
+    private byte[] bytes(int version) throws IOException {
+        if (version == ProtocolV2.VERSION) {
+            byte[] b = v2;
+            if (b == null) v2 = b = ProtocolV2.encodeLine(text);
+            return b;
+        }
+        byte[] b = v1;
+        if (b == null) v1 = b = ModifiedUtf8.encode(text);
+        return b;
+    }
+
+    // liefert die Anzahl geschriebener Bytes (für die FlushPolicy)
+    public int writeTo(OutputStream out, int version) throws IOException {
+        byte[] b = bytes(version);
+        out.write(b);
+        return b.length;
+    }
+
+    // eigene Position pro Empfänger, die Bytes werden geteilt
+    public ByteBuffer buffer(int version) throws IOException {
+        return ByteBuffer.wrap(bytes(version)).asReadOnlyBuffer();
+    }
+}
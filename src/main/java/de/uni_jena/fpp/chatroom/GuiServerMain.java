@@ -10,10 +10,7 @@ public class GuiServerMain {
 
         int port = Config.getServerPort();
 
-        UserRepository repo = new FileUserRepository(
-                Config.getUsersFile(),
-                Config.getPbkdf2Iterations()
-        );
+        UserRepository repo = UserRepository.fromConfig();
 
         ServerLogger logger = new ServerLogger(Config.getServerLogFile());
         ChatServer server = new ChatServer(port, repo, logger);
@@ -0,0 +1,600 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Persistente Raum-History: pro Raum ein Verzeichnis <dir>/<room>/ mit Segmenten <erste seq>.log, nur angehängt.
+// Datensatz: int Länge, int CRC32, dann long seq, long Zeit, int+UTF-8 from, int+UTF-8 text.
+// append() vergibt nur die Sequenznummer und reiht ein; der Writer-Thread schreibt alles Wartende am Stück
+// (Group Commit) und ruft force() höchstens alle fsyncMillis auf -> der Chat-Pfad wartet nie auf die Platte.
+// Ein beim Absturz halb geschriebener letzter Datensatz fällt beim Öffnen über Länge/CRC auf und wird abgeschnitten.
+// Neben jedem Segment liegt ein dünner Index <erste seq>.idx (long seq, long Offset für jeden INDEX_EVERY-ten
+// Datensatz); read() findet das Segment über die Segment-Map und die Startposition per binärer Suche im Index.
+final class HistoryLog {
+
+    record Entry(long seq, long time, String from, String text) {}
+
+    private static final String SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int HEADER = 8; // Länge + CRC
+    private static final int INDEX_EVERY = 32;
+    private static final int INDEX_ENTRY = 16;
+    // Datensatz kaputt (Länge/CRC), im Gegensatz zu null = Puffer endet mitten im Datensatz
+    private static final Entry INVALID = new Entry(-1, 0, "", "");
+
+    private record Append(RoomLog log, Entry entry) {}
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long fsyncNanos;
+    private final Map<String, RoomLog> logs = new ConcurrentHashMap<>();
+    // Append oder CountDownLatch (flush)
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    private final class RoomLog {
+        final String room;
+        final Path dir;
+        // unter this: Vergabe der seq + Einreihen, damit die Queue-Reihenfolge der seq-Reihenfolge entspricht
+        long nextSeq;
+        volatile boolean closed;
+        // erste seq -> Segment; der Writer trägt neue Segmente ein, read() liest ohne Lock
+        final NavigableMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+        // Datensätze im letzten Segment beim Öffnen (davon hängt ab, wann der nächste Indexeintrag fällig ist)
+        int lastSegmentRecords;
+
+        // unter fileLock (Writer-Thread bzw. drop()); pending gehört nur dem Writer-Thread
+        final Object fileLock = new Object();
+        FileChannel channel;
+        FileChannel indexChannel;
+        long segmentSize;
+        int segmentRecords;
+        final List<ByteBuffer> pending = new ArrayList<>();
+
+        RoomLog(String room, Path dir) {
+            this.room = room;
+            this.dir = dir;
+        }
+    }
+
+    HistoryLog(Path dir, long segmentBytes, int fsyncMillis) {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        this.fsyncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fsyncMillis));
+        Thread.ofPlatform().name("history-writer").daemon(true).start(this::writeLoop);
+    }
+
+    // Nachricht anhängen; liefert die seq (pro Raum lückenlos ab 1). Geschrieben wird asynchron.
+    long append(String room, String from, String text) {
+        while (true) {
+            RoomLog log = logs.computeIfAbsent(room, this::open);
+            synchronized (log) {
+                if (!log.closed) {
+                    long seq = log.nextSeq++;
+                    queue.add(new Append(log, new Entry(seq, System.currentTimeMillis(), from, text)));
+                    return seq;
+                }
+            }
+            // Raum wird gerade gelöscht: warten, bis die Dateien weg sind, dann neu anfangen
+            synchronized (log.fileLock) {
+                logs.remove(room, log);
+            }
+        }
+    }
+
+    // die letzten max Einträge eines Raums, älteste zuerst (nur bereits geschriebene).
+    // Über den Index wie read(): es werden höchstens max + INDEX_EVERY Datensätze gelesen, nie ganze Segmente.
+    List<Entry> tail(String room, int max) {
+        RoomLog log = logs.computeIfAbsent(room, this::open);
+        long next;
+        synchronized (log) {
+            next = log.nextSeq;
+        }
+        return read(room, next, max);
+    }
+
+    // Seite für HISTORY: Einträge mit seq in [beforeSeq - limit, beforeSeq), älteste zuerst (nur bereits geschriebene).
+    // Kosten: Segmentsuche in der Map, O(log n) Lesezugriffe im Index, dann höchstens INDEX_EVERY Datensätze überlesen.
+    List<Entry> read(String room, long beforeSeq, int limit) {
+        List<Entry> out = new ArrayList<>();
+        long from = Math.max(1, beforeSeq - limit);
+        if (limit <= 0 || beforeSeq <= from) return out;
+        RoomLog log = logs.computeIfAbsent(room, this::open);
+        Map.Entry<Long, Path> seg = log.segments.floorEntry(from);
+        if (seg == null) seg = log.segments.firstEntry();
+        try {
+            while (seg != null) {
+                long offset = seg.getKey() < from ? seekIndex(log, seg.getValue(), from) : 0;
+                if (scan(seg.getValue(), offset, from, beforeSeq, out)) break;
+                seg = log.segments.higherEntry(seg.getKey());
+            }
+        } catch (IOException e) {
+            // Segment kann währenddessen per drop() verschwunden sein
+            System.err.println("[SERVER] History lesen fehlgeschlagen (" + room + "): " + e.getMessage());
+        }
+        return out;
+    }
+
+    // wartet, bis alles Eingereihte geschrieben und per force() auf der Platte ist
+    void flush() {
+        CountDownLatch done = new CountDownLatch(1);
+        queue.add(done);
+        try {
+            done.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Raum gelöscht -> seine History auch
+    void drop(String room) {
+        RoomLog log = logs.get(room);
+        if (log != null) {
+            synchronized (log) {
+                log.closed = true;
+            }
+        }
+        Path d;
+        try {
+            d = roomDir(room);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[SERVER] History löschen verweigert: " + e.getMessage());
+            return;
+        }
+        Object lock = log != null ? log.fileLock : new Object();
+        synchronized (lock) {
+            if (log != null) closeChannel(log);
+            if (Files.exists(d)) {
+                try (Stream<Path> walk = Files.walk(d)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                        try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+                    });
+                } catch (IOException e) {
+                    System.err.println("[SERVER] History löschen fehlgeschlagen (" + room + "): " + e.getMessage());
+                }
+            }
+        }
+        if (log != null) logs.remove(room, log);
+    }
+
+    // <dir>/<room>; alles, was nach normalize() nicht echt unterhalb von dir liegt (../.., ., absolut), wird abgelehnt
+    private Path roomDir(String room) {
+        Path d = dir.resolve(room).normalize();
+        if (!d.startsWith(dir) || d.equals(dir)) {
+            throw new IllegalArgumentException("Raumname außerhalb von history.dir: " + room);
+        }
+        return d;
+    }
+
+    // Raum-Log öffnen: nächste seq aus dem letzten gültigen Datensatz, kaputtes Ende abschneiden.
+    // Im letzten Segment wird nur ab dem letzten Indexeintrag geprüft (openFromIndex); passt der Index nicht,
+    // wird das Segment komplett gelesen und sein Index neu geschrieben (an ihm wird weitergeschrieben).
+    private RoomLog open(String room) {
+        RoomLog log = new RoomLog(room, roomDir(room));
+        log.nextSeq = 1;
+        List<Path> segments = segments(log.dir);
+        for (Path seg : segments) log.segments.put(firstSeqOf(seg), seg);
+        if (!segments.isEmpty()) {
+            try {
+                long last = openFromIndex(log, segments.get(segments.size() - 1));
+                if (last > 0) {
+                    log.nextSeq = last + 1;
+                    return log;
+                }
+            } catch (IOException e) {
+                System.err.println("[SERVER] History-Index " + room + " unbrauchbar, Segment wird gelesen: " + e.getMessage());
+            }
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Path seg = segments.get(i);
+            List<Entry> entries = new ArrayList<>();
+            try {
+                List<Long> offsets = new ArrayList<>();
+                long valid = readSegment(seg, entries, offsets);
+                if (valid < Files.size(seg)) {
+                    try (FileChannel fc = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+                        fc.truncate(valid);
+                    }
+                    System.err.println("[SERVER] History " + room + ": unvollständiges Ende von " + seg.getFileName() + " abgeschnitten");
+                }
+                if (i == segments.size() - 1) {
+                    writeIndex(seg, entries, offsets);
+                    log.lastSegmentRecords = entries.size();
+                }
+            } catch (IOException e) {
+                System.err.println("[SERVER] History öffnen fehlgeschlagen (" + room + "): " + e.getMessage());
+            }
+            if (!entries.isEmpty()) {
+                log.nextSeq = entries.get(entries.size() - 1).seq() + 1;
+                break;
+            }
+            // leeres Segment am Ende: seq steht im Namen
+            log.nextSeq = Math.max(log.nextSeq, firstSeqOf(seg));
+        }
+        return log;
+    }
+
+    // Schnellweg für das letzte Segment: Indexeinträge hinter dem Segmentende verwerfen, ab dem letzten verbliebenen
+    // bis zum Ende lesen (höchstens INDEX_EVERY Datensätze, sofern der Index vollständig war), ein kaputtes Ende
+    // abschneiden und fehlende Indexeinträge nachtragen. Liefert die letzte seq oder -1, wenn der Index nicht zum
+    // Segment passt (fehlt, leer, Eintrag zeigt nicht auf den erwarteten Datensatz) -> open() liest komplett.
+    private long openFromIndex(RoomLog log, Path seg) throws IOException {
+        Path idx = indexOf(seg);
+        if (!Files.exists(idx)) return -1;
+        long segSize = Files.size(seg);
+        try (FileChannel fc = FileChannel.open(idx, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long count = fc.size() / INDEX_ENTRY;
+            ByteBuffer b = ByteBuffer.allocate(INDEX_ENTRY);
+            long seq = 0, offset = 0;
+            while (count > 0) {
+                b.clear();
+                while (b.hasRemaining() && fc.read(b, (count - 1) * INDEX_ENTRY + b.position()) > 0) { }
+                if (b.hasRemaining()) return -1;
+                seq = b.getLong(0);
+                offset = b.getLong(8);
+                if (offset < segSize) break;
+                count--;
+            }
+            if (count == 0) return -1;
+
+            List<Entry> entries = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            long valid = readSegment(seg, offset, entries, offsets);
+            if (entries.isEmpty() || entries.get(0).seq() != seq) return -1;
+
+            if (valid < segSize) {
+                try (FileChannel data = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+                    data.truncate(valid);
+                }
+                System.err.println("[SERVER] History " + log.room + ": unvollständiges Ende von " + seg.getFileName() + " abgeschnitten");
+            }
+            // Einträge 0..count-1 stimmen; Datensatz k ab dem letzten davon hat die Nummer (count - 1) * INDEX_EVERY + k
+            fc.truncate(count * INDEX_ENTRY);
+            ByteBuffer missing = ByteBuffer.allocate((entries.size() / INDEX_EVERY + 1) * INDEX_ENTRY);
+            for (int k = INDEX_EVERY; k < entries.size(); k += INDEX_EVERY) {
+                missing.putLong(entries.get(k).seq()).putLong(offsets.get(k));
+            }
+            missing.flip();
+            long pos = count * INDEX_ENTRY;
+            while (missing.hasRemaining()) pos += fc.write(missing, pos);
+
+            log.lastSegmentRecords = (int) ((count - 1) * INDEX_EVERY + entries.size());
+            return entries.get(entries.size() - 1).seq();
+        }
+    }
+
+    private static List<Path> segments(Path roomDir) {
+        if (!Files.isDirectory(roomDir)) return List.of();
+        List<Path> out = new ArrayList<>();
+        try (Stream<Path> s = Files.list(roomDir)) {
+            s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(out::add);
+        } catch (IOException ignore) {
+        }
+        out.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        return out;
+    }
+
+    private static Path indexOf(Path segment) {
+        String n = segment.getFileName().toString();
+        return segment.resolveSibling(n.substring(0, n.length() - SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    // Index komplett aus den gelesenen Datensätzen schreiben (tmp + atomares Verschieben)
+    private static void writeIndex(Path segment, List<Entry> entries, List<Long> offsets) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate((entries.size() + INDEX_EVERY - 1) / INDEX_EVERY * INDEX_ENTRY);
+        for (int k = 0; k < entries.size(); k += INDEX_EVERY) b.putLong(entries.get(k).seq()).putLong(offsets.get(k));
+        b.flip();
+        Path idx = indexOf(segment);
+        Path tmp = idx.resolveSibling(idx.getFileName() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) fc.write(b);
+        }
+        Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Offset des letzten indizierten Datensatzes mit seq <= target (binäre Suche direkt in der .idx-Datei).
+    // Fehlt der Index (Segment aus einer älteren Version), wird er einmal aus dem Segment erzeugt.
+    private long seekIndex(RoomLog log, Path segment, long target) throws IOException {
+        Path idx = indexOf(segment);
+        if (!Files.exists(idx)) {
+            synchronized (log.segments) {
+                if (!Files.exists(idx)) {
+                    List<Entry> entries = new ArrayList<>();
+                    List<Long> offsets = new ArrayList<>();
+                    readSegment(segment, entries, offsets);
+                    writeIndex(segment, entries, offsets);
+                }
+            }
+        }
+        try (FileChannel fc = FileChannel.open(idx, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(INDEX_ENTRY);
+            long lo = 0, hi = fc.size() / INDEX_ENTRY - 1, offset = 0;
+            while (lo <= hi) {
+                long mid = (lo + hi) >>> 1;
+                b.clear();
+                while (b.hasRemaining() && fc.read(b, mid * INDEX_ENTRY + b.position()) > 0) { }
+                if (b.hasRemaining()) break;
+                if (b.getLong(0) <= target) {
+                    offset = b.getLong(8);
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+
+    // Segment ab offset lesen, Einträge mit seq in [from, before) an out; true = Ende des Bereichs erreicht
+    private static boolean scan(Path segment, long offset, long from, long before, List<Entry> out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        CRC32 crc = new CRC32();
+        try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long pos = offset;
+            while (true) {
+                buf.clear();
+                int n = fc.read(buf, pos);
+                if (n <= 0) return false;
+                buf.flip();
+                while (true) {
+                    int start = buf.position();
+                    Entry e = next(buf, crc);
+                    if (e == INVALID) return false; // Writer ist mitten im Datensatz
+                    if (e == null) {
+                        // Dateiende mitten im Datensatz: der Writer schreibt ihn gerade
+                        if (buf.limit() < buf.capacity()) return false;
+                        // Datensatz größer als der Puffer -> Puffer vergrößern
+                        if (start == 0) buf = ByteBuffer.allocate(HEADER + buf.getInt(0));
+                        break;
+                    }
+                    pos += buf.position() - start;
+                    if (e.seq() >= before) return true;
+                    if (e.seq() >= from) out.add(e);
+                }
+            }
+        }
+    }
+
+    private static long firstSeqOf(Path segment) {
+        String n = segment.getFileName().toString();
+        try {
+            return Long.parseLong(n.substring(0, n.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    // alle gültigen Datensätze an out anhängen (offsets: ihre Startpositionen, darf null sein);
+    // liefert die Länge des gültigen Anfangs
+    static long readSegment(Path segment, List<Entry> out, List<Long> offsets) throws IOException {
+        return readSegment(segment, 0, out, offsets);
+    }
+
+    // wie oben, aber erst ab offset (Anfang eines Datensatzes); liefert das Ende des gültigen Bereichs
+    static long readSegment(Path segment, long offset, List<Entry> out, List<Long> offsets) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buf = ByteBuffer.allocate((int) Math.min(Math.max(0, fc.size() - offset), Integer.MAX_VALUE - 8));
+            while (buf.hasRemaining() && fc.read(buf, offset + buf.position()) > 0) { }
+        }
+        buf.flip();
+        CRC32 crc = new CRC32();
+        while (true) {
+            int start = buf.position();
+            Entry e = next(buf, crc);
+            if (e == null || e == INVALID) return offset + start;
+            out.add(e);
+            if (offsets != null) offsets.add(offset + start);
+        }
+    }
+
+    // nächster Datensatz ab buf.position(); null = Puffer endet vorher (Position bleibt), INVALID = Länge/CRC falsch
+    private static Entry next(ByteBuffer buf, CRC32 crc) {
+        int start = buf.position();
+        if (buf.remaining() < HEADER) return null;
+        int len = buf.getInt();
+        int sum = buf.getInt();
+        if (len < 24) return INVALID;
+        if (len > buf.remaining()) {
+            buf.position(start);
+            return null;
+        }
+        crc.reset();
+        crc.update(buf.array(), buf.position(), len);
+        if ((int) crc.getValue() != sum) return INVALID;
+
+        long seq = buf.getLong();
+        long time = buf.getLong();
+        String from = readString(buf);
+        String text = readString(buf);
+        buf.position(start + HEADER + len);
+        return new Entry(seq, time, from, text);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int n = buf.getInt();
+        String s = new String(buf.array(), buf.position(), n, StandardCharsets.UTF_8);
+        buf.position(buf.position() + n);
+        return s;
+    }
+
+    static ByteBuffer encode(Entry e) {
+        byte[] from = e.from().getBytes(StandardCharsets.UTF_8);
+        byte[] text = e.text().getBytes(StandardCharsets.UTF_8);
+        int len = 8 + 8 + 4 + from.length + 4 + text.length;
+        ByteBuffer b = ByteBuffer.allocate(HEADER + len);
+        b.putInt(len).putInt(0)
+                .putLong(e.seq()).putLong(e.time())
+                .putInt(from.length).put(from)
+                .putInt(text.length).put(text);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), HEADER, len);
+        b.putInt(4, (int) crc.getValue());
+        return b.flip();
+    }
+
+    // ---------- Writer-Thread ----------
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        List<CountDownLatch> waiting = new ArrayList<>();
+        // geschrieben, aber noch nicht per force() gesichert
+        Set<RoomLog> unsynced = new HashSet<>();
+        long lastSync = System.nanoTime();
+
+        while (true) {
+            try {
+                Object first;
+                if (unsynced.isEmpty()) {
+                    first = queue.take();
+                } else {
+                    long wait = lastSync + fsyncNanos - System.nanoTime();
+                    first = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+
+                Set<RoomLog> touched = new HashSet<>();
+                for (Object o : batch) {
+                    if (o instanceof Append a) {
+                        a.log().pending.add(encode(a.entry()));
+                        touched.add(a.log());
+                    } else if (o instanceof CountDownLatch l) {
+                        waiting.add(l);
+                    }
+                }
+                batch.clear();
+                for (RoomLog log : touched) {
+                    if (writePending(log)) unsynced.add(log);
+                }
+
+                if (!unsynced.isEmpty() && (!waiting.isEmpty() || System.nanoTime() - lastSync >= fsyncNanos)) {
+                    for (RoomLog log : unsynced) force(log);
+                    unsynced.clear();
+                    lastSync = System.nanoTime();
+                }
+                if (unsynced.isEmpty()) lastSync = System.nanoTime();
+                for (CountDownLatch l : waiting) l.countDown();
+                waiting.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[SERVER] history-writer: " + e);
+            }
+        }
+    }
+
+    // alle wartenden Datensätze eines Raums schreiben (ein gathering write pro Segment); false = nichts geschrieben
+    private boolean writePending(RoomLog log) {
+        synchronized (log.fileLock) {
+            if (log.closed) {
+                log.pending.clear();
+                return false;
+            }
+            try {
+                int from = 0;
+                List<ByteBuffer> p = log.pending;
+                ByteBuffer index = ByteBuffer.allocate((p.size() / INDEX_EVERY + 1) * INDEX_ENTRY);
+                while (from < p.size()) {
+                    if (log.channel == null || log.segmentSize >= segmentBytes) roll(log, p.get(from));
+                    // so viele Datensätze, wie noch ins aktuelle Segment passen (mindestens einer);
+                    // jeder INDEX_EVERY-te bekommt einen Indexeintrag mit seinem Offset
+                    int to = from;
+                    long size = log.segmentSize;
+                    index.clear();
+                    while (to < p.size() && (to == from || size < segmentBytes)) {
+                        ByteBuffer r = p.get(to++);
+                        if (log.segmentRecords++ % INDEX_EVERY == 0) index.putLong(r.getLong(HEADER)).putLong(size);
+                        size += r.remaining();
+                    }
+
+                    ByteBuffer[] bufs = p.subList(from, to).toArray(new ByteBuffer[0]);
+                    long n = 0;
+                    while (bufs[bufs.length - 1].hasRemaining()) n += log.channel.write(bufs);
+                    log.segmentSize += n;
+                    // erst nach den Daten: ein Indexeintrag zeigt nie auf einen noch nicht geschriebenen Datensatz
+                    index.flip();
+                    while (index.hasRemaining()) log.indexChannel.write(index);
+                    from = to;
+                }
+                return true;
+            } catch (IOException e) {
+                System.err.println("[SERVER] History schreiben fehlgeschlagen (" + log.room + "): " + e.getMessage());
+                closeChannel(log);
+                return false;
+            } finally {
+                log.pending.clear();
+            }
+        }
+    }
+
+    // Segment zum Schreiben öffnen: ist das aktuelle voll, ein neues, benannt nach der seq des ersten
+    // Datensatzes; sonst (erstes Schreiben nach dem Start) ans letzte Segment anhängen, solange es Platz hat
+    private void roll(RoomLog log, ByteBuffer firstRecord) throws IOException {
+        boolean full = log.channel != null;
+        if (full) {
+            log.channel.force(false);
+            log.indexChannel.force(false);
+            closeChannel(log);
+        }
+        Files.createDirectories(log.dir);
+        List<Path> segments = segments(log.dir);
+        Path last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        Path seg;
+        if (!full && last != null && Files.size(last) < segmentBytes) {
+            seg = last;
+            log.segmentRecords = log.lastSegmentRecords;
+        } else {
+            long seq = firstRecord.getLong(HEADER);
+            seg = log.dir.resolve(String.format("%020d", seq) + SUFFIX);
+            log.segmentRecords = 0;
+            Files.deleteIfExists(indexOf(seg));
+        }
+        log.channel = FileChannel.open(seg, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        log.indexChannel = FileChannel.open(indexOf(seg), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        log.segmentSize = log.channel.size();
+        log.segments.put(firstSeqOf(seg), seg);
+    }
+
+    private void force(RoomLog log) {
+        synchronized (log.fileLock) {
+            if (log.channel == null) return;
+            try {
+                log.channel.force(false);
+            } catch (IOException e) {
+                System.err.println("[SERVER] History fsync fehlgeschlagen (" + log.room + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeChannel(RoomLog log) {
+        if (log.channel == null) return;
+        try { log.channel.close(); } catch (IOException ignore) {}
+        try { log.indexChannel.close(); } catch (IOException ignore) {}
+        log.channel = null;
+        log.indexChannel = null;
+    }
+}
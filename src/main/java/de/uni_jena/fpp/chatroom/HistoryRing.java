@@ -0,0 +1,63 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+
+// Ringpuffer fester Größe für das Ende der Raum-History: ein Schreiber, beliebig viele Leser ohne Lock.
+// head zählt alle je eingefügten Einträge; Eintrag k liegt in slots[k & mask]. Der Schreiber legt erst den
+// Slot ab und erhöht dann head (volatile) -> wer head liest, sieht alle Einträge davor.
+// Leser kopieren nur Referenzen und prüfen danach head erneut (wie ein Seqlock): was der Schreiber
+// inzwischen überschrieben haben kann, fällt vorn weg. Die Einträge selbst müssen unveränderlich sein.
+final class HistoryRing<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    private volatile long head;
+
+    // capacity wird auf eine Zweierpotenz aufgerundet; lesbar sind höchstens capacity - 1 Einträge,
+    // weil der Slot, den der Schreiber gerade füllt, nie als gültig gilt
+    HistoryRing(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Object[n];
+        mask = n - 1;
+    }
+
+    // nur ein Schreiber gleichzeitig (Shard-Thread des Raums bzw. unter dem Schreib-Lock des Aufrufers)
+    void add(T entry) {
+        long h = head;
+        slots[(int) (h & mask)] = entry;
+        head = h + 1;
+    }
+
+    // die letzten max Einträge, älteste zuerst; blockiert den Schreiber nie
+    @SuppressWarnings("unchecked")
+    List<T> tail(int max) {
+        long h = head;
+        long from = Math.max(0, h - Math.min(max, mask));
+        int n = (int) (h - from);
+        Object[] out = new Object[n];
+        // höchstens zwei Blockkopien (bis zum Array-Ende, Rest von vorn)
+        int start = (int) (from & mask);
+        int first = Math.min(n, slots.length - start);
+        System.arraycopy(slots, start, out, 0, first);
+        System.arraycopy(slots, 0, out, first, n - first);
+        // Die Slot-Lesezugriffe sind normale Loads; ohne Fence dürften sie hinter das erneute Lesen von head
+        // rutschen und die Prüfung wäre wertlos. acquireFence ordnet sie davor (wie StampedLock.validate).
+        VarHandle.acquireFence();
+        // alles vor h2 - mask kann während des Kopierens überschrieben worden sein (auch der Slot, der gerade entsteht)
+        long valid = Math.max(from, head - mask);
+        if (valid >= h) return List.of();
+        List<Object> list = Arrays.asList(out);
+        return (List<T>) (valid == from ? list : list.subList((int) (valid - from), out.length));
+    }
+
+    // Anzahl je eingefügter Einträge (nicht die gehaltenen)
+    long count() {
+        return head;
+    }
+
+    int capacity() {
+        return mask;
+    }
+}
@@ -0,0 +1,73 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Begrenzter Ringpuffer ohne Lock: beliebig viele Schreiber, genau ein Leser (ServerLogger-Thread).
+// Jeder Slot hat eine Sequenznummer: seq == t heißt "frei für Position t", seq == t + 1 "Position t belegt".
+// Schreiber reservieren eine Position per CAS auf tail, legen den Eintrag ab und geben ihn erst dann über
+// seq (volatile) frei -> der Leser sieht nie einen halb geschriebenen Slot. Voll = offer() liefert false.
+final class LogRing<T> {
+
+    private final Object[] slots;
+    private final AtomicLongArray seq;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // nur der Leser schreibt head; volatile nur für size()
+    private volatile long head;
+
+    // capacity wird auf eine Zweierpotenz aufgerundet
+    LogRing(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Object[n];
+        seq = new AtomicLongArray(n);
+        mask = n - 1;
+        for (int i = 0; i < n; i++) seq.set(i, i);
+    }
+
+    // false = Ring voll, nichts abgelegt
+    boolean offer(T entry) {
+        long t = tail.get();
+        while (true) {
+            int i = (int) (t & mask);
+            long d = seq.get(i) - t;
+            if (d == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots[i] = entry;
+                    seq.set(i, t + 1);
+                    return true;
+                }
+                t = tail.get();
+            } else if (d < 0) {
+                // Slot noch vom Leser belegt (eine Runde zurück) -> voll
+                return false;
+            } else {
+                // anderer Schreiber war schneller
+                t = tail.get();
+            }
+        }
+    }
+
+    // null = leer (oder der nächste Eintrag ist reserviert, aber noch nicht abgelegt); nur vom Leser-Thread
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head;
+        int i = (int) (h & mask);
+        if (seq.get(i) != h + 1) return null;
+        T e = (T) slots[i];
+        slots[i] = null;
+        // Slot für die nächste Runde freigeben
+        seq.set(i, h + mask + 1);
+        head = h + 1;
+        return e;
+    }
+
+    // ungefähr (Schreiber können gerade reservieren)
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,316 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// UserRepository für sehr viele Konten: eine per mmap eingeblendete Hash-Tabelle (offene Adressierung,
+// lineares Sondieren) mit Datensätzen fester Größe. Beim Start wird nur der Kopf gelesen, ein Login liest
+// über Name -> Slot meist genau eine Seite; es gibt keine Map im Heap.
+// Kopf (HEADER Bytes): MAGIC, VERSION, Slots (Zweierpotenz), Anzahl. Slot (SLOT Bytes):
+// state, Namenslänge, banned, Salt-Länge, Hash-Länge, 3 frei, iterations, Namens-Hash, Name, Salt, Hash.
+// Geschrieben wird erst der Inhalt, zuletzt state -> ein halb geschriebener Slot gilt als leer.
+public class MappedUserRepository implements UserRepository {
+
+    private static final int MAGIC = 0x55534D50; // "USMP"
+    private static final int VERSION = 1;
+    private static final int HEADER = 4096;
+    private static final int SLOT = 128;
+    static final int MAX_NAME_BYTES = 64;
+    private static final int MAX_SALT = 16;
+    private static final int MAX_HASH = 32;
+    private static final int MIN_SLOTS = 1024;
+    // eine Einblendung ist auf 2 GB begrenzt -> höchstens 2^24 Slots (~11 Mio. Konten bei 70 % Füllgrad)
+    private static final int MAX_SLOTS = 1 << 24;
+
+    private static final int OFF_STATE = 0;
+    private static final int OFF_NAME_LEN = 1;
+    private static final int OFF_BANNED = 2;
+    private static final int OFF_SALT_LEN = 3;
+    private static final int OFF_HASH_LEN = 4;
+    private static final int OFF_ITERATIONS = 8;
+    private static final int OFF_NAME_HASH = 12;
+    private static final int OFF_NAME = 16;
+    private static final int OFF_SALT = OFF_NAME + MAX_NAME_BYTES;
+    private static final int OFF_HASH = OFF_SALT + MAX_SALT;
+
+    private final Path file;
+    private final int defaultIterations;
+    // Lesen (Login, Liste) parallel, Schreiben exklusiv; beim Vergrößern wird die Einblendung ausgetauscht
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int slots;
+    private int count;
+
+    public MappedUserRepository(String filePath, int defaultIterations) {
+        this(filePath, defaultIterations, null);
+    }
+
+    // importFrom: gibt es die Tabelle noch nicht, werden die Konten einmalig aus dieser users.db (+ Journal) übernommen
+    public MappedUserRepository(String filePath, int defaultIterations, String importFrom) {
+        this.file = Path.of(filePath);
+        this.defaultIterations = Math.max(10_000, defaultIterations);
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            if (!Files.exists(file)) {
+                List<User> initial = List.of();
+                if (importFrom != null && Files.exists(Path.of(importFrom))) {
+                    initial = new FileUserRepository(importFrom, defaultIterations).listUsers();
+                    System.out.println("[USER-REPO] " + initial.size() + " Konten aus " + importFrom + " übernommen");
+                }
+                build(file, initial);
+            }
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Benutzertabelle " + file + " nicht nutzbar", e);
+        }
+    }
+
+    // neue Tabelle mit passender Größe für users schreiben (tmp + atomares Verschieben)
+    static void build(Path target, Collection<User> users) throws IOException {
+        int n = tableSize(users.size());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer m = fc.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER + (long) n * SLOT);
+            int stored = 0;
+            for (User u : users) {
+                if (insert(m, n, u)) stored++;
+            }
+            writeHeader(m, n, stored);
+            m.force();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int tableSize(int users) {
+        int n = MIN_SLOTS;
+        while (n < MAX_SLOTS && users >= n * 7L / 10) n <<= 1;
+        return n;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (channel.size() < HEADER || m.getInt(0) != MAGIC || m.getInt(4) != VERSION) {
+            throw new IOException("unbekanntes Format");
+        }
+        int n = m.getInt(8);
+        if (Integer.bitCount(n) != 1 || channel.size() < (long) HEADER + (long) n * SLOT) {
+            throw new IOException("Tabelle unvollständig");
+        }
+        map = m;
+        slots = n;
+        count = m.getInt(12);
+    }
+
+    private static void writeHeader(MappedByteBuffer m, int slots, int count) {
+        m.putInt(0, MAGIC);
+        m.putInt(4, VERSION);
+        m.putInt(8, slots);
+        m.putInt(12, count);
+    }
+
+    @Override
+    public boolean createUser(String username, char[] password) {
+        if (!isValidName(username) || password == null) return false;
+        if (find(username) != null) return false;
+
+        // PBKDF2 außerhalb des Locks, wie in FileUserRepository
+        byte[] salt = PasswordUtil.newSalt();
+        byte[] hash = PasswordUtil.pbkdf2(password, salt, defaultIterations);
+        User u = new User(username, defaultIterations, salt, hash, false);
+
+        lock.writeLock().lock();
+        try {
+            if (slotOf(map, slots, nameBytes(username)) >= 0) return false;
+            if (count + 1 > slots * 7L / 10 && !grow()) return false;
+            if (!insert(map, slots, u)) return false;
+            map.putInt(12, ++count);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User verifyLogin(String username, char[] password) {
+        if (username == null || password == null) return null;
+        User u = find(username);
+        if (u == null) return null;
+        return PasswordUtil.matches(password, u) ? u : null;
+    }
+
+    @Override
+    public List<User> listUsers() {
+        List<User> list = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < slots; i++) {
+                int base = HEADER + i * SLOT;
+                if (map.get(base + OFF_STATE) != 0) list.add(read(map, base));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        list.sort(Comparator.comparing(User::getUsername, String.CASE_INSENSITIVE_ORDER));
+        return list;
+    }
+
+    @Override
+    public boolean setBanned(String username, boolean banned) {
+        if (username == null) return false;
+        byte[] name = nameBytes(username);
+        if (name == null) return false;
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(map, slots, name);
+            if (slot < 0) return false;
+            map.put(HEADER + slot * SLOT + OFF_BANNED, (byte) (banned ? 1 : 0));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public User findUser(String username) {
+        return find(username);
+    }
+
+    private User find(String username) {
+        byte[] name = nameBytes(username);
+        if (name == null) return null;
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(map, slots, name);
+            return slot < 0 ? null : read(map, HEADER + slot * SLOT);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tabelle verdoppeln: alle belegten Slots in eine neue Datei umhängen, dann austauschen (nur unter Schreib-Lock)
+    private boolean grow() {
+        if (slots >= MAX_SLOTS) {
+            System.err.println("[USER-REPO] Benutzertabelle voll (" + count + " Konten)");
+            return false;
+        }
+        List<User> all = new ArrayList<>(count);
+        for (int i = 0; i < slots; i++) {
+            int base = HEADER + i * SLOT;
+            if (map.get(base + OFF_STATE) != 0) all.add(read(map, base));
+        }
+        try {
+            map.force();
+            channel.close();
+            build(file, all);
+            open();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[USER-REPO] Vergrößern fehlgeschlagen: " + e.getMessage());
+            try {
+                open();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return false;
+        }
+    }
+
+    // Slot des Namens oder -1; sondiert linear ab dem Hash bis zum ersten leeren Slot
+    private static int slotOf(MappedByteBuffer m, int slots, byte[] name) {
+        if (name == null) return -1;
+        int h = hash(name);
+        for (int i = h & (slots - 1), probes = 0; probes < slots; i = (i + 1) & (slots - 1), probes++) {
+            int base = HEADER + i * SLOT;
+            if (m.get(base + OFF_STATE) == 0) return -1;
+            if (m.getInt(base + OFF_NAME_HASH) == h && nameEquals(m, base, name)) return i;
+        }
+        return -1;
+    }
+
+    // in den ersten freien Slot ab dem Hash schreiben, state zuletzt; false = Name zu lang / Felder zu groß
+    private static boolean insert(MappedByteBuffer m, int slots, User u) {
+        byte[] name = nameBytes(u.getUsername());
+        if (name == null || u.getSalt().length > MAX_SALT || u.getPasswordHash().length > MAX_HASH) {
+            System.err.println("[USER-REPO] Konto passt nicht in einen Slot: " + u.getUsername());
+            return false;
+        }
+        int h = hash(name);
+        int i = h & (slots - 1);
+        while (m.get(HEADER + i * SLOT + OFF_STATE) != 0) i = (i + 1) & (slots - 1);
+        int base = HEADER + i * SLOT;
+        m.put(base + OFF_NAME_LEN, (byte) name.length);
+        m.put(base + OFF_BANNED, (byte) (u.isBanned() ? 1 : 0));
+        m.put(base + OFF_SALT_LEN, (byte) u.getSalt().length);
+        m.put(base + OFF_HASH_LEN, (byte) u.getPasswordHash().length);
+        m.putInt(base + OFF_ITERATIONS, u.getIterations());
+        m.putInt(base + OFF_NAME_HASH, h);
+        m.put(base + OFF_NAME, name);
+        m.put(base + OFF_SALT, u.getSalt());
+        m.put(base + OFF_HASH, u.getPasswordHash());
+        m.put(base + OFF_STATE, (byte) 1);
+        return true;
+    }
+
+    private static User read(MappedByteBuffer m, int base) {
+        byte[] name = new byte[m.get(base + OFF_NAME_LEN)];
+        byte[] salt = new byte[m.get(base + OFF_SALT_LEN)];
+        byte[] hash = new byte[m.get(base + OFF_HASH_LEN)];
+        m.get(base + OFF_NAME, name);
+        m.get(base + OFF_SALT, salt);
+        m.get(base + OFF_HASH, hash);
+        return new User(new String(name, StandardCharsets.UTF_8), m.getInt(base + OFF_ITERATIONS),
+                salt, hash, m.get(base + OFF_BANNED) != 0);
+    }
+
+    private static boolean nameEquals(MappedByteBuffer m, int base, byte[] name) {
+        if (m.get(base + OFF_NAME_LEN) != name.length) return false;
+        for (int k = 0; k < name.length; k++) {
+            if (m.get(base + OFF_NAME + k) != name[k]) return false;
+        }
+        return true;
+    }
+
+    // null = Name passt nicht in einen Slot
+    private static byte[] nameBytes(String username) {
+        if (username == null) return null;
+        byte[] b = username.getBytes(StandardCharsets.UTF_8);
+        return b.length == 0 || b.length > MAX_NAME_BYTES ? null : b;
+    }
+
+    private static int hash(byte[] name) {
+        int h = Arrays.hashCode(name) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean isValidName(String s) {
+        if (s == null) return false;
+        if (s.isBlank()) return false;
+        if (s.contains(" ") || s.contains("|") || s.contains(";")) return false;
+        return s.codePoints().noneMatch(Character::isISOControl) && nameBytes(s) != null;
+    }
+}
@@ -0,0 +1,82 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+// Kodiert/dekodiert Frames im Format von DataOutputStream.writeUTF / DataInputStream.readUTF
+// (2 Byte Länge + "modified UTF-8"), damit der NIO-Server dasselbe Wire-Format spricht wie ChatClient.
+public final class ModifiedUtf8 {
+
+    public static final int MAX_PAYLOAD = 0xFFFF;
+
+    private ModifiedUtf8() {}
+
+    // Liefert den kompletten Frame inkl. 2-Byte-Längenpräfix
+    public static byte[] encode(String s) throws UTFDataFormatException {
+        int len = s.length();
+        int utfLen = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) utfLen += 1;
+            else if (c > 0x07FF) utfLen += 3;
+            else utfLen += 2;
+        }
+        if (utfLen > MAX_PAYLOAD) {
+            throw new UTFDataFormatException("encoded string too long: " + utfLen + " bytes");
+        }
+
+        byte[] out = new byte[utfLen + 2];
+        out[0] = (byte) (utfLen >>> 8);
+        out[1] = (byte) utfLen;
+        int p = 2;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out[p++] = (byte) c;
+            } else if (c > 0x07FF) {
+                out[p++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                out[p++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return out;
+    }
+
+    // Dekodiert utfLen Bytes ab der aktuellen Position von src (ohne Längenpräfix)
+    public static String decode(ByteBuffer src, int utfLen) throws UTFDataFormatException {
+        char[] chars = new char[utfLen];
+        int count = 0;
+        int n = 0;
+        while (count < utfLen) {
+            int c = src.get() & 0xFF;
+            switch (c >> 4) {
+                case 0, 1, 2, 3, 4, 5, 6, 7 -> {
+                    count++;
+                    chars[n++] = (char) c;
+                }
+                case 12, 13 -> {
+                    count += 2;
+                    if (count > utfLen) throw new UTFDataFormatException("partial character at end");
+                    int c2 = src.get();
+                    if ((c2 & 0xC0) != 0x80) throw new UTFDataFormatException("malformed input around byte " + count);
+                    chars[n++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                }
+                case 14 -> {
+                    count += 3;
+                    if (count > utfLen) throw new UTFDataFormatException("partial character at end");
+                    int c2 = src.get();
+                    int c3 = src.get();
+                    if (((c2 & 0xC0) != 0x80) || ((c3 & 0xC0) != 0x80)) {
+                        throw new UTFDataFormatException("malformed input around byte " + (count - 1));
+                    }
+                    chars[n++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                }
+                default -> throw new UTFDataFormatException("malformed input around byte " + count);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+}
@@ -0,0 +1,74 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Alternative Server-Engine (server.engine=nio): ein Accept-Thread + wenige Selector-Event-Loops
+// statt einem Thread pro Verbindung. Raum-/Userlogik bleibt komplett in ChatServer/ClientHandler.
+final class NioChatServer {
+
+    private final ChatServer server;
+    private final int port;
+    private final NioEventLoop[] loops;
+    private volatile ServerSocketChannel acceptor;
+    private int nextLoop;
+
+    NioChatServer(ChatServer server, int port, int loopCount) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.loops = new NioEventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("NioEventLoop-" + i);
+        }
+    }
+
+    int getLoopCount() {
+        return loops.length;
+    }
+
+    // Blockiert wie ChatServer.start(), bis der Acceptor geschlossen wird
+    void run() throws IOException {
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ssc.bind(new InetSocketAddress(port), 1024);
+            this.acceptor = ssc;
+            for (NioEventLoop loop : loops) loop.start();
+
+            while (server.isRunning()) {
+                SocketChannel ch = ssc.accept();
+                SocketAddress addr;
+                try {
+                    ch.configureBlocking(false);
+                    ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    addr = ch.getRemoteAddress();
+                } catch (IOException e) {
+                    // Gegenseite schon weg: nur diesen Kanal schließen, der Acceptor läuft für alle anderen weiter
+                    server.logWarn("ACCEPT_FAIL err=" + e.getMessage());
+                    try { ch.close(); } catch (IOException ignore) {}
+                    continue;
+                }
+
+                NioEventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+
+                NioClientHandler handler = new NioClientHandler(server, loop, ch, server.nextClientId());
+                server.addConnection(handler, addr);
+                loop.register(handler);
+            }
+        }
+    }
+
+    void closeAcceptor() {
+        ServerSocketChannel ssc = acceptor;
+        if (ssc == null) return;
+        try { ssc.close(); } catch (IOException ignore) {}
+    }
+
+    void shutdown() {
+        closeAcceptor();
+        for (NioEventLoop loop : loops) loop.shutdown();
+    }
+}
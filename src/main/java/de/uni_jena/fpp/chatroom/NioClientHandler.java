@@ -0,0 +1,392 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// ClientHandler für die NIO-Engine: kein eigener Thread, sondern Callbacks aus dem NioEventLoop.
+// Dekodiert dieselben writeUTF-Frames wie der blockierende Handler und ruft dieselbe handleCommand()-Logik auf.
+class NioClientHandler extends ClientHandler {
+
+    private static final int INITIAL_BUFFER = 1024;
+    private static final int MAX_FRAME_V1 = 2 + ModifiedUtf8.MAX_PAYLOAD;
+    private static final int MAX_FRAME_V2 = 5 + ProtocolV2.MAX_FRAME;
+    private static final int MAX_BATCH = 64;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    private ByteBuffer inBuf = ByteBuffer.allocate(INITIAL_BUFFER);
+    // wiederverwendete Sicht auf das aktuelle Kommando (nur im Loop-Thread benutzt)
+    private final Tokens tokens = new Tokens();
+    // Frames aus der Outbound-Queue, die per Gathering-Write (writev) zusammen rausgehen;
+    // batch[batchHead, batchTail) ist noch nicht (ganz) geschrieben (nur im Loop-Thread benutzt)
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    private int batchHead;
+    private int batchTail;
+    // laufender Download, kommt nach dem aktuellen Batch dran
+    private FileRegion region;
+    // Version, in der der Loop Frames kodiert (umgeschaltet durch ProtocolSwitch in der Queue)
+    private int writeVersion = 1;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closeWhenFlushed;
+
+    // true, solange LOGIN/REGISTER auf dem AuthPool läuft -> keine weiteren Frames verarbeiten
+    private boolean suspended;
+
+    // Upload-Body-Zustand (nur im Loop-Thread benutzt)
+    private long bodyRemaining;
+    private RoomUpload bodySink;
+    private IoAction bodyDone;
+    private boolean bodySinkFailed;
+
+    NioClientHandler(ChatServer server, NioEventLoop loop, SocketChannel channel, int clientId) {
+        super(server, channel.socket(), clientId);
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        if (!outbound().isEmpty() || closeWhenFlushed) flush();
+    }
+
+    // ---------- Lesen ----------
+
+    void onReadable() {
+        try {
+            // Upload-Body und nichts mehr in inBuf: direkt vom Channel in die Datei
+            if (bodyDone != null && !suspended && inBuf.position() == 0) {
+                if (!readBodyDirect() || bodyDone != null) return;
+            }
+            if (!inBuf.hasRemaining()) growInput();
+            int n = channel.read(inBuf);
+            if (n == -1) {
+                close();
+                return;
+            }
+            processInput();
+        } catch (IOException e) {
+            if (isRunning()) System.err.println("[SERVER] IO-Fehler " + getName() + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    private void growInput() {
+        int max = inboundVersion() == ProtocolV2.VERSION ? MAX_FRAME_V2 : MAX_FRAME_V1;
+        int cap = Math.min(inBuf.capacity() * 2, max);
+        if (cap <= inBuf.capacity()) return;
+        ByteBuffer bigger = ByteBuffer.allocate(cap);
+        inBuf.flip();
+        bigger.put(inBuf);
+        inBuf = bigger;
+    }
+
+    private void processInput() throws IOException {
+        inBuf.flip();
+        try {
+            while (!closed.get() && !suspended) {
+                if (bodyDone != null) {
+                    if (!consumeBody()) break;
+                    continue;
+                }
+
+                if (inboundVersion() == ProtocolV2.VERSION) {
+                    long header = ProtocolV2.peekLength(inBuf);
+                    int headerBytes = (int) (header >>> 32);
+                    int len = (int) header;
+                    if (header < 0 || inBuf.remaining() < headerBytes + len) break;
+
+                    // Sicht direkt auf inBuf; gültig bis zum compact() unten
+                    int off = inBuf.position() + headerBytes;
+                    tokens.parse(inBuf.array(), inBuf.arrayOffset() + off, len);
+                    inBuf.position(off + len);
+                } else {
+                    if (inBuf.remaining() < 2) break;
+                    int len = inBuf.getShort(inBuf.position()) & 0xFFFF;
+                    if (inBuf.remaining() < 2 + len) break;
+
+                    inBuf.position(inBuf.position() + 2);
+                    tokens.parse(ModifiedUtf8.decode(inBuf, len));
+                }
+                handleCommand(tokens);
+
+                if (!isRunning()) {
+                    closeAfterFlush();
+                    break;
+                }
+            }
+        } finally {
+            inBuf.compact();
+        }
+    }
+
+    // LOGIN/REGISTER: PBKDF2 läuft auf dem AuthPool, bis dahin keine weiteren Frames dieser Verbindung;
+    // das Ergebnis wird wieder im Event-Loop verarbeitet
+    @Override
+    protected <T> void afterAuth(CompletableFuture<T> pending, AuthDone<T> done) {
+        suspended = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        pending.whenComplete((result, error) -> loop.execute(() -> {
+            try {
+                done.accept(result, error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } catch (IOException e) {
+                closeNow();
+            }
+            resumeReading();
+        }));
+    }
+
+    private void resumeReading() {
+        suspended = false;
+        if (closed.get()) return;
+        try {
+            if (!isRunning()) {
+                closeAfterFlush();
+                return;
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            processInput();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Liefert false, wenn noch Body-Bytes fehlen
+    private boolean consumeBody() throws IOException {
+        int n = (int) Math.min(inBuf.remaining(), bodyRemaining);
+        if (n > 0) {
+            writeBody(inBuf.slice(inBuf.position(), n));
+            inBuf.position(inBuf.position() + n);
+            bodyRemaining -= n;
+        }
+        if (bodyRemaining > 0) return false;
+        finishBody();
+        return true;
+    }
+
+    // Channel -> direkter Puffer des Loops -> FileChannel; false, wenn die Verbindung zu ist
+    private boolean readBodyDirect() throws IOException {
+        ByteBuffer buf = loop.bodyBuffer();
+        while (bodyRemaining > 0) {
+            buf.clear().limit((int) Math.min(buf.capacity(), bodyRemaining));
+            int n = channel.read(buf);
+            if (n == -1) {
+                close();
+                return false;
+            }
+            if (n == 0) return true;
+            writeBody(buf.flip());
+            bodyRemaining -= n;
+        }
+        finishBody();
+        return !closed.get();
+    }
+
+    private void writeBody(ByteBuffer chunk) throws IOException {
+        if (bodySink == null || bodySinkFailed) return;
+        try {
+            bodySink.write(chunk);
+        } catch (IOException e) {
+            bodySinkFailed = true;
+            server().abortUpload(bodySink, e.getMessage());
+            uploadFailed(bodySink.getRoom(), bodySink.getFilename(), bodySink.getSize());
+        }
+    }
+
+    private void finishBody() throws IOException {
+        IoAction done = bodyDone;
+        boolean failed = bodySinkFailed;
+        bodyDone = null;
+        bodySink = null;
+        bodySinkFailed = false;
+        if (!failed) done.run();
+    }
+
+    @Override
+    protected void readBody(long size, RoomUpload sink, IoAction done) throws IOException {
+        if (size <= 0) {
+            done.run();
+            return;
+        }
+        bodyRemaining = size;
+        bodySink = sink;
+        bodyDone = done;
+        bodySinkFailed = false;
+    }
+
+    // ---------- Schreiben ----------
+
+    @Override
+    protected void enqueue(Object item, boolean droppable) throws IOException {
+        super.enqueue(item, droppable);
+        requestFlush(item instanceof Frame f && f.isUrgent());
+    }
+
+    @Override
+    protected void sendFileBytes(Path file, String header, long offset, long length) throws IOException {
+        // Header und Inhalt als ein Queue-Element (wie FileDownload im blockierenden Handler): zwei enqueue()-Aufrufe
+        // ließen Broadcasts anderer Threads zwischen Header und Dateibytes rutschen
+        enqueue(new FileRegion(Frame.of(header), file, offset, length), false);
+    }
+
+    // Im Loop wird erst nach den aktuellen Events geschrieben (runTasks), so landen z.B. alle Broadcasts
+    // eines Lese-Durchgangs in einem Batch; dringende Frames und volle Batches gehen sofort raus
+    // (sonst wächst die Queue bei großen Bursts bis zum Überlauf)
+    private void requestFlush(boolean urgent) {
+        if (loop.inLoop() && (urgent || outbound().size() >= MAX_BATCH)) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void flush() {
+        if (closed.get() || key == null) return;
+        try {
+            while (true) {
+                if (batchHead < batchTail) {
+                    channel.write(batch, batchHead, batchTail - batchHead);
+                    while (batchHead < batchTail && !batch[batchHead].hasRemaining()) batch[batchHead++] = null;
+                    if (batchHead < batchTail) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    flushPolicy().flushed();
+                } else if (region != null) {
+                    if (!region.transferTo(channel)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    region = null;
+                } else if (!fillBatch()) {
+                    break;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeWhenFlushed) close();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Holt Frames bis zur Grenze der FlushPolicy (Bytes, dringendes Frame) oder bis zum nächsten Download;
+    // false, wenn die Queue leer ist
+    private boolean fillBatch() throws IOException {
+        batchHead = batchTail = 0;
+        Object item;
+        while (batchTail < MAX_BATCH && (item = outbound().poll()) != null) {
+            if (item instanceof ProtocolSwitch ps) {
+                writeVersion = ps.version();
+            } else if (item instanceof Frame f) {
+                // geteiltes Frame -> eigener Buffer mit eigener Position für diese Verbindung
+                ByteBuffer buf;
+                try {
+                    buf = f.buffer(writeVersion);
+                } catch (UTFDataFormatException e) {
+                    // > 64 KB passt nicht in writeUTF: für v1-Clients überspringen statt trennen
+                    System.err.println("[SERVER] " + getName() + ": Nachricht für Protokoll v1 zu lang, übersprungen");
+                    continue;
+                }
+                batch[batchTail++] = buf;
+                if (flushPolicy().onFrame(buf.remaining(), f.isUrgent())) break;
+            } else if (item instanceof FileRegion r) {
+                // Header als letztes Frame des Batches, die Dateibytes folgen direkt danach
+                batch[batchTail++] = r.header.buffer(writeVersion);
+                region = r;
+                break;
+            }
+        }
+        return batchTail > 0 || region != null;
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        stopRunning();
+        outbound().close();
+        closeWhenFlushed = true;
+        if (loop.inLoop()) flush();
+        else loop.execute(this::flush);
+    }
+
+    // ---------- Lebenszyklus ----------
+
+    @Override
+    public void closeNow() {
+        stopRunning();
+        loop.execute(this::close);
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        stopRunning();
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignore) {}
+
+        if (bodySink != null) server().abortUpload(bodySink, "Verbindung geschlossen");
+        if (region != null) region.close();
+        region = null;
+        for (int i = batchHead; i < batchTail; i++) batch[i] = null;
+        batchHead = batchTail = 0;
+        for (Object item : outbound().closeAndClear()) {
+            if (item instanceof FileRegion r) r.close();
+        }
+        server().removeClient(this);
+    }
+
+    // Datei-Download als Queue-Element: FILE/FILE_RANGE-Header, dann der Inhalt per FileChannel.transferTo im Loop
+    private static final class FileRegion {
+        private final Frame header;
+        private final Path file;
+        private final long end;
+        private FileChannel fc;
+        private long position;
+
+        FileRegion(Frame header, Path file, long offset, long length) {
+            this.header = header;
+            this.file = file;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        // true, wenn alles geschrieben wurde
+        boolean transferTo(SocketChannel target) throws IOException {
+            if (fc == null) fc = FileChannel.open(file, StandardOpenOption.READ);
+            while (position < end) {
+                long n = fc.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    if (position >= fc.size()) throw new IOException("EOF beim Lesen der Datei");
+                    return false;
+                }
+                position += n;
+            }
+            close();
+            return true;
+        }
+
+        void close() {
+            if (fc == null) return;
+            try { fc.close(); } catch (IOException ignore) {}
+        }
+    }
+}
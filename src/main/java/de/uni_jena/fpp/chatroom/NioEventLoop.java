@@ -0,0 +1,100 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Ein Selector-Thread, der viele NioClientHandler bedient.
+// Andere Threads (z.B. Broadcasts aus einem anderen Loop) reichen Arbeit über execute() herein.
+final class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    // gemeinsamer direkter Puffer für Upload-Bodies; nur im Loop-Thread benutzt
+    private final ByteBuffer bodyBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    ByteBuffer bodyBuffer() {
+        return bodyBuffer;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) selector.wakeup();
+    }
+
+    void register(NioClientHandler handler) {
+        execute(() -> {
+            try {
+                handler.register(selector);
+            } catch (IOException e) {
+                handler.close();
+            }
+        });
+    }
+
+    // Bereits eingereihte Tasks (z.B. "Server wird beendet." + close) laufen noch, danach endet der Loop
+    void shutdown() {
+        execute(() -> running = false);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    NioClientHandler handler = (NioClientHandler) key.attachment();
+                    if (key.isValid() && key.isWritable()) handler.onWritable();
+                    if (key.isValid() && key.isReadable()) handler.onReadable();
+                }
+                // während der Events eingereihte Tasks (v.a. gesammelte Flushes) noch in diesem Durchgang
+                runTasks();
+            }
+        } catch (IOException e) {
+            System.err.println("[SERVER] " + thread.getName() + " Fehler: " + e.getMessage());
+        } finally {
+            runTasks();
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((NioClientHandler) key.attachment()).close();
+            }
+            try { selector.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[SERVER] " + thread.getName() + " Task fehlgeschlagen: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Begrenzte Sende-Warteschlange pro Verbindung: Broadcaster reihen nur ein, geschrieben wird vom
+// Writer der Verbindung (eigener Thread bzw. NIO-Event-Loop). Ein langsamer Client bremst so niemanden sonst.
+final class OutboundQueue<T> {
+
+    enum Overflow {
+        // älteste verwerfbare Nachricht (Chat) fliegt raus; ohne verwerfbare Einträge -> trennen
+        DROP_OLDEST,
+        // Client kommt nicht hinterher -> Verbindung trennen
+        DISCONNECT;
+
+        static Overflow parse(String s, Overflow def) {
+            if (s == null) return def;
+            return switch (s.trim().toLowerCase()) {
+                case "drop_oldest" -> DROP_OLDEST;
+                case "disconnect" -> DISCONNECT;
+                default -> def;
+            };
+        }
+    }
+
+    private record Entry<T>(T item, boolean droppable) {}
+
+    private final int capacity;
+    private final Overflow overflow;
+    private final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed;
+
+    // Metriken
+    private int highWater;
+    private long dropped;
+
+    OutboundQueue(int capacity, Overflow overflow) {
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow == null ? Overflow.DROP_OLDEST : overflow;
+    }
+
+    // false = nicht eingereiht (Queue geschlossen oder übergelaufen und Policy verlangt Trennen)
+    boolean offer(T item, boolean droppable) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (entries.size() >= capacity && !makeRoom()) return false;
+
+            entries.addLast(new Entry<>(item, droppable));
+            if (entries.size() > highWater) highWater = entries.size();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean makeRoom() {
+        if (overflow == Overflow.DISCONNECT) return false;
+
+        Iterator<Entry<T>> it = entries.iterator();
+        while (it.hasNext()) {
+            if (it.next().droppable()) {
+                it.remove();
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Blockiert, bis etwas da ist; null, wenn geschlossen und leer
+    T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (entries.isEmpty()) {
+                if (closed) return null;
+                notEmpty.await();
+            }
+            return entries.removeFirst().item();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    T poll() {
+        lock.lock();
+        try {
+            Entry<T> e = entries.pollFirst();
+            return e == null ? null : e.item();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Keine neuen Einträge mehr; bereits eingereihte werden noch ausgeliefert
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Schließt und liefert alles, was nicht mehr geschrieben wird (z.B. um Dateien zu schließen)
+    List<T> closeAndClear() {
+        lock.lock();
+        try {
+            closed = true;
+            List<T> rest = new ArrayList<>(entries.size());
+            for (Entry<T> e : entries) rest.add(e.item());
+            entries.clear();
+            notEmpty.signalAll();
+            return rest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getHighWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -18,6 +18,8 @@ public final class PasswordUtil {
     public static final int SALT_BYTES = 16;
     public static final int KEY_BITS = 256;
     private static final SecureRandom RNG = new SecureRandom();
+    // getInstance() sucht bei jedem Aufruf über die Provider; SecretKeyFactory ist nicht thread-sicher -> eine pro Thread
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(PasswordUtil::newFactory);
 
     private PasswordUtil() {}
 
@@ -30,17 +32,23 @@ public final class PasswordUtil {
     public static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
         PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_BITS);
         try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            return skf.generateSecret(spec).getEncoded();
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("PBKDF2 failed", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static SecretKeyFactory newFactory() {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
         } catch (GeneralSecurityException e) {
             try {
-                SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-                return skf.generateSecret(spec).getEncoded();
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
             } catch (GeneralSecurityException ex) {
                 throw new RuntimeException("PBKDF2 not available", ex);
             }
-        } finally {
-            spec.clearPassword();
         }
     }
 
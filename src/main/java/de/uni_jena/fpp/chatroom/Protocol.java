@@ -1,6 +1,6 @@
 package de.uni_jena.fpp.chatroom;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 
 public final class Protocol {
@@ -12,6 +12,8 @@ public final class Protocol {
     public static final String CMD_CREATE_ROOM  = "CREATE_ROOM";
     public static final String CMD_JOIN         = "JOIN";
     public static final String CMD_LEAVE        = "LEAVE";
+    public static final String CMD_HELLO        = "HELLO";    // HELLO <version>  (erstes Frame, immer als Text)
+    public static final String RES_HELLO_OK     = "HELLO_OK"; // HELLO_OK <version>  (danach gilt die Version)
     public static final String RES_REGISTER_OK     = "REGISTER_OK";
     public static final String RES_REGISTER_FAILED = "REGISTER_FAILED";
     public static final String RES_LOGIN_OK        = "LOGIN_OK";
@@ -24,6 +26,7 @@ public final class Protocol {
     public static final String RES_INFO            = "INFO";
     public static final String RES_ERROR           = "ERROR";
     private static final String LIST_DELIM = "|";
+    private static final char LIST_DELIM_CHAR = '|';
     public static final String CMD_UPLOAD   = "UPLOAD";    // UPLOAD <room> <filename> <size>  + raw bytes
     public static final String CMD_FILES    = "FILES";     // FILES <room>
     public static final String CMD_DOWNLOAD = "DOWNLOAD";  // DOWNLOAD <room> <filename>
@@ -32,16 +35,49 @@ public final class Protocol {
     public static final String RES_FILE_LIST      = "FILE_LIST";      // FILE_LIST <room> <file1>|<file2>|...
     public static final String RES_FILE           = "FILE";           // FILE <filename> <size> + raw bytes
     public static final String RES_DOWNLOAD_FAILED = "DOWNLOAD_FAILED"; // DOWNLOAD_FAILED <reason...>
+    // Wiederaufnehmbarer Upload in Chunks (nur v2-Clients verwenden ihn, der Server versteht ihn immer)
+    public static final String CMD_UPLOAD_BEGIN  = "UPLOAD_BEGIN";  // UPLOAD_BEGIN <room> <filename> <size> <sha256>
+    public static final String CMD_UPLOAD_CHUNK  = "UPLOAD_CHUNK";  // UPLOAD_CHUNK <id> <offset> <length> + raw bytes
+    public static final String CMD_UPLOAD_COMMIT = "UPLOAD_COMMIT"; // UPLOAD_COMMIT <id> [<sha256>]
+    public static final String RES_UPLOAD_READY  = "UPLOAD_READY";  // UPLOAD_READY <id> <offset>
+    public static final String RES_UPLOAD_ACK    = "UPLOAD_ACK";    // UPLOAD_ACK <id> <offset>
+    // Upload ohne Body, wenn der Server den Inhalt schon hat: UPLOAD_OK bei Treffer, sonst UPLOAD_NEED
+    public static final String CMD_UPLOAD_HASH   = "UPLOAD_HASH";   // UPLOAD_HASH <room> <filename> <size> <sha256>
+    public static final String RES_UPLOAD_NEED   = "UPLOAD_NEED";   // UPLOAD_NEED <filename>
+    // Teil-Download; version ändert sich, sobald die Datei ersetzt wird (Wiederaufnahme nur bei gleicher version)
+    public static final String CMD_DOWNLOAD_RANGE = "DOWNLOAD_RANGE"; // DOWNLOAD_RANGE <room> <filename> <offset> <length>
+    public static final String RES_FILE_RANGE     = "FILE_RANGE";     // FILE_RANGE <filename> <offset> <length> <total> <version> + raw bytes
+    // Ältere Nachrichten seitenweise: HISTORY_ITEM pro Nachricht (älteste zuerst), dann HISTORY_CURSOR mit der
+    // seq für die nächste Seite (0 = nichts Älteres). Nach dem Join folgt auf die CHAT-Wiederholung ebenfalls ein HISTORY_CURSOR.
+    public static final String CMD_HISTORY        = "HISTORY";        // HISTORY <room> <beforeSeq> <limit>  (beforeSeq 0 = ab der neuesten)
+    public static final String RES_HISTORY_ITEM   = "HISTORY_ITEM";   // HISTORY_ITEM <room> <seq> <from> <text...>
+    public static final String RES_HISTORY_CURSOR = "HISTORY_CURSOR"; // HISTORY_CURSOR <room> <beforeSeq>
+    // Join-Wiederholung in wenigen großen Frames statt einem CHAT pro Nachricht; more=1 -> es folgt noch ein Frame.
+    // Einträge: <seq>,<Länge from>,<Länge text>:<from><text> direkt hintereinander (Längen in Zeichen, Text beliebig)
+    public static final String RES_HISTORY_BATCH  = "HISTORY_BATCH";  // HISTORY_BATCH <room> <beforeSeq> <more> <einträge...>
+    // unter der 64-KB-Grenze von writeUTF, damit auch das Textprotokoll die Frames transportiert
+    public static final int HISTORY_BATCH_BYTES = 60 * 1024;
+    // Volltextsuche in der History eines Raums; Treffer (neueste zuerst) im Eintragsformat von HISTORY_BATCH
+    public static final String CMD_SEARCH        = "SEARCH";        // SEARCH <room> <wörter...>
+    public static final String RES_SEARCH_RESULT = "SEARCH_RESULT"; // SEARCH_RESULT <room> <einträge...>
+    // Server ausgelastet (Login-Queue voll): LOGIN_FAILED BUSY <retryAfterMs> bzw. REGISTER_FAILED BUSY <retryAfterMs>;
+    // der Client wartet mindestens so lange (plus Zufall), bevor er es noch einmal versucht
+    public static final String REASON_BUSY = "BUSY";
+    // Sitzungs-Token nach LOGIN_OK (nur an Clients, die HELLO geschickt haben); RESUME meldet damit ohne Passwort an,
+    // Antwort wie bei LOGIN (LOGIN_OK + neues SESSION bzw. LOGIN_FAILED SESSION_INVALID)
+    public static final String RES_SESSION       = "SESSION";       // SESSION <token>
+    public static final String CMD_RESUME        = "RESUME";        // RESUME <token>
 
 
 
     private Protocol() {}
-    public static String[] splitTokens(String line) {
-        if (line == null) return new String[0];
-        return line.trim().split("\\s+", 3);
-    }
+    // Eingehende Zeilen zerlegt Tokens (feste Feldanzahl pro Kommando, wie in ProtocolV2)
 
     // Builder für Client -> Server
+    public static String buildHello(int version) {
+        return CMD_HELLO + " " + version;
+    }
+
     public static String buildRegister(String username, String password) {
         return CMD_REGISTER + " " + username + " " + password;
     }
@@ -67,6 +103,10 @@ public final class Protocol {
     }
 
     // Builder für Server -> Client
+    public static String buildHelloOk(int version) {
+        return RES_HELLO_OK + " " + version;
+    }
+
     public static String buildChat(String room, String from, String text) {
         // CHAT <room> <from> <text...>
         return RES_CHAT + " " + room + " " + from + " " + text;
@@ -121,9 +161,108 @@ public final class Protocol {
     public static String buildDownloadFailed(String reason) {
         return RES_DOWNLOAD_FAILED + " " + (reason == null ? "" : reason);
     }
+    public static String buildUploadBegin(String room, String filename, long size, String sha256) {
+        return CMD_UPLOAD_BEGIN + " " + room + " " + filename + " " + size + " " + sha256;
+    }
+    public static String buildUploadChunk(String id, long offset, int length) {
+        return CMD_UPLOAD_CHUNK + " " + id + " " + offset + " " + length;
+    }
+    public static String buildUploadCommit(String id, String sha256) {
+        return CMD_UPLOAD_COMMIT + " " + id + " " + sha256;
+    }
+    public static String buildUploadHash(String room, String filename, long size, String sha256) {
+        return CMD_UPLOAD_HASH + " " + room + " " + filename + " " + size + " " + sha256;
+    }
+    public static String buildUploadNeed(String filename) {
+        return RES_UPLOAD_NEED + " " + filename;
+    }
+    public static String buildUploadReady(String id, long offset) {
+        return RES_UPLOAD_READY + " " + id + " " + offset;
+    }
+    public static String buildUploadAck(String id, long offset) {
+        return RES_UPLOAD_ACK + " " + id + " " + offset;
+    }
+    public static String buildDownloadRange(String room, String filename, long offset, long length) {
+        return CMD_DOWNLOAD_RANGE + " " + room + " " + filename + " " + offset + " " + length;
+    }
+    public static String buildFileRange(String filename, long offset, long length, long total, long version) {
+        return RES_FILE_RANGE + " " + filename + " " + offset + " " + length + " " + total + " " + version;
+    }
+    public static String buildHistory(String room, long beforeSeq, int limit) {
+        return CMD_HISTORY + " " + room + " " + beforeSeq + " " + limit;
+    }
+    public static String buildHistoryItem(String room, long seq, String from, String text) {
+        return RES_HISTORY_ITEM + " " + room + " " + seq + " " + from + " " + (text == null ? "" : text);
+    }
+    public static String buildHistoryCursor(String room, long beforeSeq) {
+        return RES_HISTORY_CURSOR + " " + room + " " + beforeSeq;
+    }
+    public static String buildHistoryBatch(String room, long beforeSeq, boolean more, CharSequence entries) {
+        return RES_HISTORY_BATCH + " " + room + " " + beforeSeq + " " + (more ? 1 : 0) + " " + entries;
+    }
+    public static String buildSearch(String room, String query) {
+        return CMD_SEARCH + " " + room + " " + query;
+    }
+    public static String buildSearchResult(String room, CharSequence entries) {
+        return RES_SEARCH_RESULT + " " + room + " " + entries;
+    }
+    public static String buildSession(String token) {
+        return RES_SESSION + " " + token;
+    }
+    public static String buildResume(String token) {
+        return CMD_RESUME + " " + token;
+    }
+    // hängt einen Eintrag an und liefert seine Größe in (modified) UTF-8, die Obergrenze für beide Protokolle
+    public static int appendHistoryEntry(StringBuilder sb, long seq, String from, String text) {
+        int start = sb.length();
+        sb.append(seq).append(',').append(from.length()).append(',').append(text.length()).append(':')
+                .append(from).append(text);
+        int bytes = 0;
+        for (int i = start; i < sb.length(); i++) {
+            char c = sb.charAt(i);
+            bytes += (c != 0 && c < 0x80) ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return bytes;
+    }
     // Parser
+    // Einträge aus HISTORY_BATCH, älteste zuerst; bricht bei kaputtem Format ab und liefert das bis dahin Gelesene
+    public static List<ChatClientListener.HistoryMessage> parseHistoryBatch(String payload) {
+        List<ChatClientListener.HistoryMessage> out = new ArrayList<>();
+        int i = 0;
+        try {
+            while (i < payload.length()) {
+                int c1 = payload.indexOf(',', i);
+                int c2 = payload.indexOf(',', c1 + 1);
+                int colon = payload.indexOf(':', c2 + 1);
+                if (c1 < 0 || c2 < 0 || colon < 0) break;
+                long seq = Long.parseLong(payload, i, c1, 10);
+                int fromLen = Integer.parseInt(payload, c1 + 1, c2, 10);
+                int textLen = Integer.parseInt(payload, c2 + 1, colon, 10);
+                int fromEnd = colon + 1 + fromLen;
+                // das Textprotokoll schneidet Leerzeichen am Zeilenende ab (wie bei CHAT) -> letzter Text darf kürzer sein
+                int textEnd = Math.min(fromEnd + textLen, payload.length());
+                if (fromLen < 0 || textLen < 0 || fromEnd > payload.length()) break;
+                out.add(new ChatClientListener.HistoryMessage(seq,
+                        payload.substring(colon + 1, fromEnd), payload.substring(fromEnd, textEnd)));
+                i = textEnd;
+            }
+        } catch (NumberFormatException ignore) {
+        }
+        return out;
+    }
+
     public static List<String> parsePipeList(String payload) {
         if (payload == null || payload.isBlank()) return List.of();
-        return Arrays.asList(payload.split("\\Q" + LIST_DELIM + "\\E"));
+        List<String> items = new ArrayList<>();
+        int from = 0;
+        int sep;
+        while ((sep = payload.indexOf(LIST_DELIM_CHAR, from)) >= 0) {
+            items.add(payload.substring(from, sep));
+            from = sep + 1;
+        }
+        items.add(payload.substring(from));
+        // wie String.split: leere Einträge am Ende entfallen
+        while (!items.isEmpty() && items.get(items.size() - 1).isEmpty()) items.remove(items.size() - 1);
+        return items;
     }
 }
@@ -0,0 +1,237 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Binäres Protokoll v2: <varint Länge> <Opcode (1 Byte)> { <varint Länge> <UTF-8 Bytes> } pro Feld.
+// Jeder Opcode hat eine feste Anzahl Felder (fehlende = ""), damit entfallen Whitespace-Splitting
+// und das 64-KB-Limit von writeUTF. Ausgehandelt per Text-Frames "HELLO 2" -> "HELLO_OK 2";
+// Roh-Bytes von UPLOAD/UPLOAD_CHUNK/FILE/FILE_RANGE folgen wie bisher direkt nach ihrem Header-Frame.
+public final class ProtocolV2 {
+
+    public static final int VERSION = 2;
+    // Schutz gegen riesige Längenangaben (ein Frame liegt komplett im Speicher)
+    public static final int MAX_FRAME = 1 << 20;
+
+    // Client -> Server
+    public static final int OP_HELLO        = 0x01;
+    public static final int OP_REGISTER     = 0x02;
+    public static final int OP_LOGIN        = 0x03;
+    public static final int OP_LOGOUT       = 0x04;
+    public static final int OP_MSG          = 0x05;
+    public static final int OP_CREATE_ROOM  = 0x06;
+    public static final int OP_JOIN         = 0x07;
+    public static final int OP_LEAVE        = 0x08;
+    public static final int OP_UPLOAD       = 0x09;
+    public static final int OP_FILES        = 0x0A;
+    public static final int OP_DOWNLOAD     = 0x0B;
+    public static final int OP_WHO          = 0x0C;
+    public static final int OP_UPLOAD_BEGIN = 0x0D;
+    public static final int OP_UPLOAD_CHUNK = 0x0E;
+    public static final int OP_UPLOAD_COMMIT = 0x0F;
+    public static final int OP_DOWNLOAD_RANGE = 0x10;
+    public static final int OP_UPLOAD_HASH  = 0x11;
+    public static final int OP_HISTORY      = 0x12;
+    public static final int OP_SEARCH       = 0x13;
+    public static final int OP_RESUME       = 0x14;
+
+    // Server -> Client
+    public static final int OP_HELLO_OK        = 0x41;
+    public static final int OP_REGISTER_OK     = 0x42;
+    public static final int OP_REGISTER_FAILED = 0x43;
+    public static final int OP_LOGIN_OK        = 0x44;
+    public static final int OP_LOGIN_FAILED    = 0x45;
+    public static final int OP_ROOM_LIST       = 0x46;
+    public static final int OP_ROOM_USERS      = 0x47;
+    public static final int OP_CHAT            = 0x48;
+    public static final int OP_WARN            = 0x49;
+    public static final int OP_BANNED          = 0x4A;
+    public static final int OP_INFO            = 0x4B;
+    public static final int OP_ERROR           = 0x4C;
+    public static final int OP_UPLOAD_OK       = 0x4D;
+    public static final int OP_UPLOAD_FAILED   = 0x4E;
+    public static final int OP_FILE_LIST       = 0x4F;
+    public static final int OP_FILE            = 0x50;
+    public static final int OP_DOWNLOAD_FAILED = 0x51;
+    public static final int OP_UPLOAD_READY    = 0x52;
+    public static final int OP_UPLOAD_ACK      = 0x53;
+    public static final int OP_FILE_RANGE      = 0x54;
+    public static final int OP_UPLOAD_NEED     = 0x55;
+    public static final int OP_HISTORY_ITEM    = 0x56;
+    public static final int OP_HISTORY_CURSOR  = 0x57;
+    public static final int OP_HISTORY_BATCH   = 0x58;
+    public static final int OP_SEARCH_RESULT   = 0x59;
+    public static final int OP_SESSION         = 0x5A;
+
+    // Unbekanntes Kommando: ganze Textzeile als ein Feld
+    public static final int OP_TEXT = 0x7F;
+
+    // rest = letztes Feld nimmt im Textformat den Rest der Zeile (inkl. Leerzeichen)
+    private record Spec(String name, int opcode, int arity, boolean rest) {}
+
+    private static final Spec[] BY_OPCODE = new Spec[256];
+    // offene Adressierung über String.hashCode() des Namens, damit lookup() ohne Teilstring auskommt
+    private static final Spec[] BY_HASH = new Spec[128];
+
+    static {
+        def(Protocol.CMD_HELLO, OP_HELLO, 1, false);
+        def(Protocol.CMD_REGISTER, OP_REGISTER, 2, true);
+        def(Protocol.CMD_LOGIN, OP_LOGIN, 2, true);
+        def(Protocol.CMD_LOGOUT, OP_LOGOUT, 0, false);
+        def(Protocol.CMD_MSG, OP_MSG, 1, true);
+        def(Protocol.CMD_CREATE_ROOM, OP_CREATE_ROOM, 1, false);
+        def(Protocol.CMD_JOIN, OP_JOIN, 1, false);
+        def(Protocol.CMD_LEAVE, OP_LEAVE, 0, false);
+        def(Protocol.CMD_UPLOAD, OP_UPLOAD, 3, true);
+        def(Protocol.CMD_FILES, OP_FILES, 1, false);
+        def(Protocol.CMD_DOWNLOAD, OP_DOWNLOAD, 2, true);
+        def(Protocol.CMD_WHO, OP_WHO, 0, false);
+        def(Protocol.CMD_UPLOAD_BEGIN, OP_UPLOAD_BEGIN, 4, false);
+        def(Protocol.CMD_UPLOAD_CHUNK, OP_UPLOAD_CHUNK, 3, false);
+        def(Protocol.CMD_UPLOAD_COMMIT, OP_UPLOAD_COMMIT, 2, false);
+        def(Protocol.CMD_DOWNLOAD_RANGE, OP_DOWNLOAD_RANGE, 4, false);
+        def(Protocol.CMD_UPLOAD_HASH, OP_UPLOAD_HASH, 4, false);
+        def(Protocol.CMD_HISTORY, OP_HISTORY, 3, false);
+        def(Protocol.CMD_SEARCH, OP_SEARCH, 2, true);
+        def(Protocol.CMD_RESUME, OP_RESUME, 1, false);
+
+        def(Protocol.RES_HELLO_OK, OP_HELLO_OK, 1, false);
+        def(Protocol.RES_REGISTER_OK, OP_REGISTER_OK, 0, false);
+        def(Protocol.RES_REGISTER_FAILED, OP_REGISTER_FAILED, 1, true);
+        def(Protocol.RES_LOGIN_OK, OP_LOGIN_OK, 0, false);
+        def(Protocol.RES_LOGIN_FAILED, OP_LOGIN_FAILED, 1, true);
+        def(Protocol.RES_ROOM_LIST, OP_ROOM_LIST, 1, true);
+        def(Protocol.RES_ROOM_USERS, OP_ROOM_USERS, 2, true);
+        def(Protocol.RES_CHAT, OP_CHAT, 3, true);
+        def(Protocol.RES_WARN, OP_WARN, 1, true);
+        def(Protocol.RES_BANNED, OP_BANNED, 1, true);
+        def(Protocol.RES_INFO, OP_INFO, 1, true);
+        def(Protocol.RES_ERROR, OP_ERROR, 1, true);
+        def(Protocol.RES_UPLOAD_OK, OP_UPLOAD_OK, 1, false);
+        def(Protocol.RES_UPLOAD_FAILED, OP_UPLOAD_FAILED, 1, true);
+        def(Protocol.RES_FILE_LIST, OP_FILE_LIST, 2, true);
+        def(Protocol.RES_FILE, OP_FILE, 2, false);
+        def(Protocol.RES_DOWNLOAD_FAILED, OP_DOWNLOAD_FAILED, 1, true);
+        def(Protocol.RES_UPLOAD_READY, OP_UPLOAD_READY, 2, false);
+        def(Protocol.RES_UPLOAD_ACK, OP_UPLOAD_ACK, 2, false);
+        def(Protocol.RES_FILE_RANGE, OP_FILE_RANGE, 5, false);
+        def(Protocol.RES_UPLOAD_NEED, OP_UPLOAD_NEED, 1, false);
+        def(Protocol.RES_HISTORY_ITEM, OP_HISTORY_ITEM, 4, true);
+        def(Protocol.RES_HISTORY_CURSOR, OP_HISTORY_CURSOR, 2, false);
+        def(Protocol.RES_HISTORY_BATCH, OP_HISTORY_BATCH, 4, true);
+        def(Protocol.RES_SEARCH_RESULT, OP_SEARCH_RESULT, 2, true);
+        def(Protocol.RES_SESSION, OP_SESSION, 1, false);
+        // unbekanntes Kommando: die ganze restliche Zeile als ein Feld
+        BY_OPCODE[OP_TEXT] = new Spec("", OP_TEXT, 1, true);
+    }
+
+    private static void def(String name, int opcode, int arity, boolean rest) {
+        Spec s = new Spec(name, opcode, arity, rest);
+        BY_OPCODE[opcode] = s;
+        int i = name.hashCode() & (BY_HASH.length - 1);
+        while (BY_HASH[i] != null) i = (i + 1) & (BY_HASH.length - 1);
+        BY_HASH[i] = s;
+    }
+
+    private ProtocolV2() {}
+
+    // ---------- Opcode-Tabelle (für Tokens) ----------
+
+    // Opcode zum Kommandonamen s[from, to), ohne Teilstring; OP_TEXT, wenn unbekannt
+    static int lookup(String s, int from, int to) {
+        int len = to - from;
+        int h = 0;
+        for (int k = from; k < to; k++) h = 31 * h + s.charAt(k);
+
+        for (int i = h & (BY_HASH.length - 1); BY_HASH[i] != null; i = (i + 1) & (BY_HASH.length - 1)) {
+            String n = BY_HASH[i].name();
+            if (n.length() == len && s.regionMatches(from, n, 0, len)) return BY_HASH[i].opcode();
+        }
+        return OP_TEXT;
+    }
+
+    static int arity(int opcode) {
+        Spec spec = BY_OPCODE[opcode & 0xFF];
+        return spec == null ? 0 : spec.arity();
+    }
+
+    static boolean isRest(int opcode) {
+        Spec spec = BY_OPCODE[opcode & 0xFF];
+        return spec != null && spec.rest();
+    }
+
+    static String name(int opcode) {
+        Spec spec = BY_OPCODE[opcode & 0xFF];
+        return spec == null ? null : spec.name();
+    }
+
+    // ---------- Aushandeln ----------
+
+    // Server: Version für "HELLO <v>", höchstens max; unlesbare Angabe -> Textprotokoll (1)
+    static int negotiate(Tokens hello, int max) {
+        try {
+            return Math.max(1, Math.min(hello.parseInt(1), max));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    // Client: nur "HELLO_OK 2" schaltet um; ERROR (älterer Server) oder eine andere Version -> Textprotokoll
+    static boolean accepted(Tokens reply) {
+        return reply.opcode() == OP_HELLO_OK && reply.is(1, String.valueOf(VERSION));
+    }
+
+    // ---------- Kodieren ----------
+
+    // Kompletter Frame inkl. Längenpräfix
+    public static byte[] encodeLine(String line) throws IOException {
+        return new Tokens().parse(line).encodeV2();
+    }
+
+    // Für den NIO-Handler: Länge des nächsten Frames, ohne src zu verändern.
+    // Liefert (Headerbytes << 32) | Payloadlänge oder -1, wenn der Varint noch unvollständig ist.
+    static long peekLength(ByteBuffer src) throws IOException {
+        int value = 0;
+        int p = src.position();
+        for (int shift = 0, i = 0; i < 5; i++, shift += 7) {
+            if (p + i >= src.limit()) return -1;
+            int b = src.get(p + i) & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value <= 0 || value > MAX_FRAME) throw new IOException("Ungültige v2-Framelänge: " + value);
+                return ((long) (i + 1) << 32) | value;
+            }
+        }
+        throw new IOException("Varint zu lang");
+    }
+
+    // ---------- Varint (unsigned LEB128) ----------
+
+    static int varintSize(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+
+    static int putVarint(byte[] dst, int p, int v) {
+        while ((v & ~0x7F) != 0) {
+            dst[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        dst[p++] = (byte) v;
+        return p;
+    }
+
+    static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint zu lang");
+    }
+}
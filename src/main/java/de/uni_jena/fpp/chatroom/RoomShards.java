@@ -0,0 +1,56 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Jeder Raum gehört fest zu einem von N Shards (ein Thread pro Shard, Zuordnung über den Raumnamen).
+// Mitglieder, History und Broadcasts eines Raums werden nur auf seinem Shard angefasst -> keine
+// Konkurrenz zwischen Handler-Threads; raumübergreifendes (Join) wird von Shard zu Shard weitergereicht.
+final class RoomShards {
+
+    private final ExecutorService[] shards;
+    // Shard-Index des aktuellen Threads, -1 außerhalb der Shards
+    private final ThreadLocal<Integer> current = ThreadLocal.withInitial(() -> -1);
+
+    RoomShards(int count) {
+        shards = new ExecutorService[Math.max(1, count)];
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            // Daemon: Shards leben so lange wie der ChatServer, auch über stop()/start() hinweg
+            shards[i] = Executors.newSingleThreadExecutor(Thread.ofPlatform()
+                    .name("room-shard-" + i)
+                    .daemon(true)
+                    .factory());
+            shards[i].execute(() -> current.set(index));
+        }
+    }
+
+    int size() {
+        return shards.length;
+    }
+
+    private int shardOf(String room) {
+        return Math.floorMod(room.hashCode(), shards.length);
+    }
+
+    // true, wenn der aufrufende Thread der Shard dieses Raums ist
+    boolean owns(String room) {
+        return current.get() == shardOf(room);
+    }
+
+    // Reihenfolge pro Raum bleibt erhalten (ein Thread, FIFO)
+    void execute(String room, Runnable task) {
+        try {
+            shards[shardOf(room)].execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("[SERVER] " + Thread.currentThread().getName() + " Task fehlgeschlagen: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("[SERVER] Raum-Task verworfen (" + room + "): " + e.getMessage());
+        }
+    }
+}
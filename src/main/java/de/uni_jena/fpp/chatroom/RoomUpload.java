@@ -0,0 +1,123 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Ein laufender Upload: Bytes landen in <filename>.tmp, nach commit() übernimmt der BlobStore die Datei.
+// SHA-256 wird beim Schreiben mitgerechnet, die Datei muss danach nicht noch einmal gelesen werden.
+// Wird sowohl vom blockierenden ClientHandler als auch vom NIO-Event-Loop befüllt.
+// Für einen Chunk eines ChunkedUpload: schreibt ab position in dessen .part-Datei,
+// commit() macht die Bytes nur dauerhaft, abort() lässt sie für die Wiederaufnahme stehen.
+public class RoomUpload {
+
+    private final String room;
+    private final String filename;
+    private final long size;
+    private final Path tmp;
+    private final FileChannel channel;
+    private long written;
+    // null = Chunk, dessen Bytes nicht lückenlos an den Hash des ChunkedUpload anschließen
+    private final MessageDigest digest;
+    private long digested;
+    // nur bei Chunks gesetzt
+    private final ChunkedUpload chunkOf;
+    private final long position;
+
+    RoomUpload(String room, String filename, long size, Path tmp) throws IOException {
+        this.room = room;
+        this.filename = filename;
+        this.size = size;
+        this.tmp = tmp;
+        this.chunkOf = null;
+        this.position = 0;
+        this.digest = newDigest();
+        this.channel = FileChannel.open(
+                tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    // Chunk: length Bytes ab position in die .part-Datei von upload (siehe ChunkedUpload.openChunk);
+    // digest ist der laufende Hash des Uploads, wenn der Chunk genau an dessen Ende anschließt
+    RoomUpload(ChunkedUpload upload, long position, long length, MessageDigest digest) throws IOException {
+        this.room = upload.getRoom();
+        this.filename = upload.getFilename();
+        this.size = length;
+        this.tmp = upload.getPartFile();
+        this.chunkOf = upload;
+        this.position = position;
+        this.digest = digest;
+        this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(position);
+    }
+
+    public String getRoom() { return room; }
+    public String getFilename() { return filename; }
+    public long getSize() { return size; }
+    public long getRemaining() { return size - written; }
+    Path getFile() { return tmp; }
+
+    // Ende des Bereichs, den digest abdeckt (für ChunkedUpload.chunkDone)
+    long digestedEnd() { return position + digested; }
+
+    public void write(ByteBuffer src) throws IOException {
+        if (src.remaining() > getRemaining()) throw new IOException("Upload größer als angekündigt");
+        ByteBuffer hashed = digest != null ? src.duplicate() : null;
+        while (src.hasRemaining()) {
+            written += channel.write(src);
+        }
+        // erst nach dem Schreiben, damit der Hash nie mehr abdeckt als in der Datei steht
+        if (hashed != null) {
+            digested += hashed.remaining();
+            digest.update(hashed);
+        }
+    }
+
+    // SHA-256 (hex) einer vollständigen, nicht gechunkten Upload-Datei; nur einmal nach commit() aufrufen
+    String sha256() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void commit() throws IOException {
+        if (chunkOf != null) {
+            // erst nach force() bestätigen, sonst ist ein UPLOAD_ACK nach einem Absturz nichts wert
+            try {
+                channel.force(false);
+                channel.close();
+            } finally {
+                chunkOf.chunkDone(this, position + written);
+            }
+            if (written != size) throw new IOException("Chunk unvollständig (" + written + "/" + size + ")");
+            return;
+        }
+        channel.close();
+        if (written != size) throw new IOException("Upload unvollständig (" + written + "/" + size + ")");
+    }
+
+    void abort() {
+        try { channel.close(); } catch (IOException ignore) {}
+        // schon geschriebene Chunk-Bytes stehen an der richtigen Stelle -> bleiben für die Wiederaufnahme
+        if (chunkOf != null) {
+            chunkOf.chunkDone(this, position + written);
+            return;
+        }
+        try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+    }
+}
@@ -0,0 +1,444 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Volltextsuche über die Raum-History: pro Raum ein invertierter Index Wort -> Posting-Liste der seqs.
+// Eine Posting-Liste liegt als Deltas (varint) in einem wachsenden byte[]; für jeden Block aus BLOCK Einträgen
+// merkt sie sich Byte-Position und Basis-seq. Gesucht wird von hinten über die Blöcke des seltensten Worts
+// (neueste Treffer zuerst), die übrigen Wörter werden per binärer Suche über ihre Blöcke geprüft.
+// Auf der Platte liegt pro Raum <history.dir>/<room>/search.idx als Schnappschuss bis zu einer seq; was danach ins
+// HistoryLog kam (auch nach einem Absturz), wird beim Öffnen aus dem Log nachindiziert. Das passiert auf einem eigenen
+// Thread: bis er fertig ist, merkt sich add() neue Nachrichten nur und search() liefert nichts, der Chat-Pfad wartet
+// also nie auf einen Neuaufbau.
+final class SearchIndex {
+
+    static final String FILE = "search.idx";
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 1;
+    private static final int BLOCK = 128;
+    // längere Wörter werden abgeschnitten (Links, Hashes), damit writeUTF und der Speicher nicht leiden
+    private static final int MAX_TERM = 64;
+    private static final int CATCH_UP_PAGE = 1024;
+
+    private final Path dir;
+    private final HistoryLog log;
+    private final Map<String, RoomIndex> rooms = new ConcurrentHashMap<>();
+    // Schnappschuss schreiben vs. Raum löschen: nach drop() darf kein alter Index mehr auf der Platte landen
+    private final Object fileLock = new Object();
+    // Aufbau/Nachindizieren der Räume nacheinander, damit ein Neustart nicht alle Logs gleichzeitig liest
+    private final ExecutorService catchUp = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("search-catch-up").daemon(true).factory());
+
+    private record Pending(long seq, String text) {}
+
+    // alles unter synchronized(this)
+    private static final class RoomIndex {
+        final Map<String, Postings> terms = new HashMap<>();
+        long lastSeq;
+        long savedSeq;
+        // != null, solange der Aufbau im Hintergrund läuft: dort sammelt add() die neuen Nachrichten
+        List<Pending> pending = new ArrayList<>();
+    }
+
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int size;
+        int count;
+        long last;
+        // pro Block: seq vor dem ersten Eintrag (Delta-Basis) und dessen Byte-Position
+        long[] blockBase = new long[1];
+        int[] blockPos = new int[1];
+
+        void add(long seq) {
+            if (count % BLOCK == 0) {
+                int b = count / BLOCK;
+                if (b == blockBase.length) {
+                    blockBase = Arrays.copyOf(blockBase, b * 2);
+                    blockPos = Arrays.copyOf(blockPos, b * 2);
+                }
+                blockBase[b] = last;
+                blockPos[b] = size;
+            }
+            if (size + 10 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+            long d = seq - last;
+            while ((d & ~0x7FL) != 0) {
+                data[size++] = (byte) ((d & 0x7F) | 0x80);
+                d >>>= 7;
+            }
+            data[size++] = (byte) d;
+            last = seq;
+            count++;
+        }
+    }
+
+    // Stand einer Posting-Liste zum Zeitpunkt der Abfrage; die Arrays werden nur hinten beschrieben oder beim
+    // Wachsen ersetzt, der Ausschnitt bis count bleibt also ohne Lock lesbar
+    private record View(byte[] data, int size, int count, long last, long[] blockBase, int[] blockPos) {
+        View(Postings p) {
+            this(p.data, p.size, p.count, p.last, p.blockBase, p.blockPos);
+        }
+
+        int blocks() {
+            return (count + BLOCK - 1) / BLOCK;
+        }
+
+        // Block b nach out dekodieren, liefert die Anzahl
+        int decode(int b, long[] out) {
+            int n = Math.min(BLOCK, count - b * BLOCK);
+            int pos = blockPos[b];
+            long seq = blockBase[b];
+            for (int i = 0; i < n; i++) {
+                long d = 0;
+                int shift = 0;
+                byte x;
+                do {
+                    x = data[pos++];
+                    d |= (long) (x & 0x7F) << shift;
+                    shift += 7;
+                } while (x < 0);
+                seq += d;
+                out[i] = seq;
+            }
+            return n;
+        }
+    }
+
+    // Prüft seqs gegen eine Posting-Liste; der zuletzt dekodierte Block bleibt liegen, weil Kandidaten meist dicht folgen
+    private static final class Probe {
+        final View view;
+        final long[] block = new long[BLOCK];
+        int decoded = -1;
+        int n;
+
+        Probe(View view) {
+            this.view = view;
+        }
+
+        boolean contains(long seq) {
+            // letzter Block mit Basis < seq
+            int lo = 0, hi = view.blocks() - 1, b = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (view.blockBase()[mid] < seq) {
+                    b = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (b < 0) return false;
+            if (b != decoded) {
+                n = view.decode(b, block);
+                decoded = b;
+            }
+            return Arrays.binarySearch(block, 0, n, seq) >= 0;
+        }
+    }
+
+    SearchIndex(Path dir, HistoryLog log, int saveSeconds) {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.log = log;
+        if (saveSeconds > 0) {
+            Thread.ofPlatform().name("search-saver").daemon(true).start(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(saveSeconds * 1000L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    save();
+                }
+            });
+        }
+    }
+
+    // Nachricht aufnehmen; pro Raum in seq-Reihenfolge (ChatServer ruft unter dem Schreib-Lock des Raums auf)
+    void add(String room, long seq, String text) {
+        RoomIndex ri = rooms.computeIfAbsent(room, this::open);
+        synchronized (ri) {
+            if (ri.pending != null) {
+                ri.pending.add(new Pending(seq, text));
+            } else if (seq > ri.lastSeq) {
+                index(ri, seq, text);
+            }
+        }
+    }
+
+    // Index eines Raums schon vor der ersten Nachricht aufbauen (Server-Start)
+    void warm(String room) {
+        rooms.computeIfAbsent(room, this::open);
+    }
+
+    // seqs der neuesten Nachrichten, die alle Wörter der Anfrage enthalten (neueste zuerst)
+    List<Long> search(String room, String query, int limit) {
+        Set<String> words = new LinkedHashSet<>(tokens(query));
+        if (words.isEmpty() || limit <= 0) return List.of();
+        RoomIndex ri = rooms.computeIfAbsent(room, this::open);
+        View[] views = new View[words.size()];
+        synchronized (ri) {
+            // noch im Aufbau: nicht warten, search() läuft auch im NIO-Loop
+            if (ri.pending != null) return List.of();
+            int i = 0;
+            for (String w : words) {
+                Postings p = ri.terms.get(w);
+                if (p == null) return List.of();
+                views[i++] = new View(p);
+            }
+        }
+        Arrays.sort(views, Comparator.comparingInt(View::count));
+        Probe[] others = new Probe[views.length - 1];
+        for (int i = 1; i < views.length; i++) others[i - 1] = new Probe(views[i]);
+
+        List<Long> out = new ArrayList<>();
+        long[] block = new long[BLOCK];
+        View rare = views[0];
+        for (int b = rare.blocks() - 1; b >= 0; b--) {
+            int n = rare.decode(b, block);
+            candidates:
+            for (int i = n - 1; i >= 0; i--) {
+                for (Probe p : others) {
+                    if (!p.contains(block[i])) continue candidates;
+                }
+                out.add(block[i]);
+                if (out.size() >= limit) return out;
+            }
+        }
+        return out;
+    }
+
+    // Schnappschüsse aller geänderten Räume schreiben (periodisch und bei stop())
+    void save() {
+        for (Map.Entry<String, RoomIndex> e : rooms.entrySet()) {
+            try {
+                save(e.getKey(), e.getValue());
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("[SERVER] Suchindex speichern fehlgeschlagen (" + e.getKey() + "): " + ex.getMessage());
+            }
+        }
+    }
+
+    // Raum gelöscht -> Index im Speicher und auf der Platte weg (vor HistoryLog.drop, das das Verzeichnis löscht)
+    void drop(String room) {
+        synchronized (fileLock) {
+            rooms.remove(room);
+            try {
+                Files.deleteIfExists(fileOf(room));
+            } catch (IllegalArgumentException e) {
+                System.err.println("[SERVER] Suchindex löschen verweigert: " + e.getMessage());
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // Wörter: zusammenhängende Buchstaben/Ziffern, klein geschrieben; so wird aus einem Link "https example com pfad"
+    static List<String> tokens(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isLetterOrDigit(cp)) {
+                if (sb.length() < MAX_TERM) sb.appendCodePoint(Character.toLowerCase(cp));
+            } else if (sb.length() > 0) {
+                out.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        if (sb.length() > 0) out.add(sb.toString());
+        return out;
+    }
+
+    private static void index(RoomIndex ri, long seq, String text) {
+        for (String t : tokens(text)) {
+            Postings p = ri.terms.computeIfAbsent(t, k -> new Postings());
+            // Wort mehrfach in derselben Nachricht -> ein Eintrag
+            if (p.last != seq) p.add(seq);
+        }
+        ri.lastSeq = seq;
+    }
+
+    // wie HistoryLog.roomDir: das Raumverzeichnis muss echt unterhalb von history.dir liegen
+    private Path fileOf(String room) {
+        Path d = dir.resolve(room).normalize();
+        if (!d.startsWith(dir) || d.equals(dir)) {
+            throw new IllegalArgumentException("Raumname außerhalb von history.dir: " + room);
+        }
+        return d.resolve(FILE);
+    }
+
+    // leerer Index im Aufbau; laden und nachindizieren übernimmt der catchUp-Thread
+    private RoomIndex open(String room) {
+        RoomIndex ri = new RoomIndex();
+        catchUp.execute(() -> build(room, ri));
+        return ri;
+    }
+
+    // Schnappschuss laden (falls er zum Log passt), dann alles Neuere aus dem HistoryLog nachindizieren.
+    // Gebaut wird in einen eigenen RoomIndex; erst zum Schluss wird er unter dem Raum-Lock übernommen und um das
+    // ergänzt, was add() währenddessen gesammelt hat.
+    private void build(String room, RoomIndex target) {
+        RoomIndex ri = new RoomIndex();
+        long t0 = System.nanoTime();
+        int added = 0;
+        try {
+            // alles vor dem ersten add() Angehängte steht danach im Log, alles danach landet in target.pending
+            log.flush();
+            Path file = fileOf(room);
+            if (Files.exists(file)) {
+                try {
+                    load(file, ri);
+                    // Raum inzwischen gelöscht und neu angelegt o.ä.: die letzte seq muss im Log noch existieren
+                    List<HistoryLog.Entry> check = log.read(room, ri.lastSeq + 1, 1);
+                    if (ri.lastSeq > 0 && (check.isEmpty() || check.get(0).seq() != ri.lastSeq)) ri = new RoomIndex();
+                } catch (IOException e) {
+                    System.err.println("[SERVER] Suchindex " + room + " unbrauchbar, wird neu aufgebaut: " + e.getMessage());
+                    ri = new RoomIndex();
+                }
+            }
+            ri.savedSeq = ri.lastSeq;
+
+            long from = ri.lastSeq + 1;
+            while (true) {
+                List<HistoryLog.Entry> page = log.read(room, from + CATCH_UP_PAGE, CATCH_UP_PAGE);
+                if (page.isEmpty()) break;
+                for (HistoryLog.Entry e : page) index(ri, e.seq(), e.text());
+                added += page.size();
+                from = page.get(page.size() - 1).seq() + 1;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[SERVER] Suchindex " + room + " aufbauen fehlgeschlagen: " + e.getMessage());
+        } finally {
+            synchronized (target) {
+                target.terms.putAll(ri.terms);
+                target.lastSeq = ri.lastSeq;
+                target.savedSeq = ri.savedSeq;
+                for (Pending p : target.pending) {
+                    if (p.seq() > target.lastSeq) index(target, p.seq(), p.text());
+                }
+                target.pending = null;
+            }
+        }
+        if (added > 0) {
+            System.out.println("[SERVER] Suchindex " + room + ": " + added + " Nachrichten nachindiziert ("
+                    + (System.nanoTime() - t0) / 1_000_000 + " ms)");
+        }
+    }
+
+    // Format: MAGIC, VERSION, lastSeq, Anzahl Wörter, pro Wort (UTF Wort, count, last, size, Bytes), am Ende CRC32
+    private static void load(Path file, RoomIndex ri) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("unbekanntes Format");
+            long lastSeq = in.readLong();
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                String term = in.readUTF();
+                int count = in.readInt();
+                long last = in.readLong();
+                int size = in.readInt();
+                if (count < 0 || size < 0) throw new IOException("kaputter Eintrag");
+                byte[] data = new byte[Math.max(8, size)];
+                in.readFully(data, 0, size);
+                ri.terms.put(term, rebuild(data, size, count, last));
+            }
+            long sum = crc.getValue();
+            if (in.readLong() != sum) throw new IOException("Prüfsumme falsch");
+            ri.lastSeq = lastSeq;
+        }
+    }
+
+    // Blockzeiger liegen nicht in der Datei, sie entstehen beim einmaligen Durchlaufen der Deltas
+    private static Postings rebuild(byte[] data, int size, int count, long last) throws IOException {
+        Postings p = new Postings();
+        int blocks = Math.max(1, (count + BLOCK - 1) / BLOCK);
+        p.blockBase = new long[blocks];
+        p.blockPos = new int[blocks];
+        int pos = 0;
+        long seq = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % BLOCK == 0) {
+                p.blockBase[i / BLOCK] = seq;
+                p.blockPos[i / BLOCK] = pos;
+            }
+            long d = 0;
+            int shift = 0;
+            byte x;
+            do {
+                if (pos >= size) throw new IOException("Posting-Liste zu kurz");
+                x = data[pos++];
+                d |= (long) (x & 0x7F) << shift;
+                shift += 7;
+            } while (x < 0);
+            seq += d;
+        }
+        if (pos != size || seq != last) throw new IOException("Posting-Liste passt nicht");
+        p.data = data;
+        p.size = size;
+        p.count = count;
+        p.last = last;
+        return p;
+    }
+
+    private void save(String room, RoomIndex ri) throws IOException {
+        List<Map.Entry<String, View>> snapshot;
+        long lastSeq;
+        synchronized (ri) {
+            if (ri.lastSeq == ri.savedSeq) return;
+            lastSeq = ri.lastSeq;
+            snapshot = new ArrayList<>(ri.terms.size());
+            for (Map.Entry<String, Postings> e : ri.terms.entrySet()) snapshot.add(Map.entry(e.getKey(), new View(e.getValue())));
+        }
+
+        // geschrieben wird außerhalb des Raum-Locks, der Chat-Pfad wartet also nicht auf die Platte
+        synchronized (fileLock) {
+            if (rooms.get(room) != ri) return; // inzwischen gelöscht
+            Path file = fileOf(room);
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(FILE + ".tmp");
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024), crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(lastSeq);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, View> e : snapshot) {
+                    View v = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeInt(v.count());
+                    out.writeLong(v.last());
+                    out.writeInt(v.size());
+                    out.write(v.data(), 0, v.size());
+                }
+                out.writeLong(crc.getValue());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        synchronized (ri) {
+            ri.savedSeq = lastSeq;
+        }
+    }
+}
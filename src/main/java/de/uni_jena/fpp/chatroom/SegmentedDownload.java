@@ -0,0 +1,171 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+// Client-Seite eines Downloads per DOWNLOAD_RANGE: bis zu WINDOW Bereiche sind gleichzeitig angefordert,
+// der Listener-Thread schreibt jede FILE_RANGE-Antwort an ihren Offset in downloads/<datei>.part.
+// <datei>.part.meta merkt sich Größe und version der Quelle -> nach einem Abbruch geht es ab der Länge
+// der .part-Datei weiter, solange sich die Datei auf dem Server nicht geändert hat.
+// Anfragen stellt auch der aufrufende Thread (Start), daher sind die Zustandsmethoden synchronized.
+final class SegmentedDownload {
+
+    static final int SEGMENT_BYTES = 1 << 20;
+    static final int WINDOW = 4;
+
+    private final String room;
+    private final String filename;
+    private final Path part;
+    private final Path meta;
+    private FileChannel fc;
+    private ByteBuffer buf;
+
+    // -1 = noch unbekannt (erste Antwort steht aus)
+    private long total = -1;
+    private long version;
+    private boolean resumed;
+    // erst nach der ersten Antwort stehen Größe/version der Quelle fest (bzw. sind bei Wiederaufnahme bestätigt)
+    private boolean verified;
+    // [0, received) liegt lückenlos in der .part-Datei; bis requested ist angefordert
+    private long received;
+    private long requested;
+    private int inFlight;
+
+    SegmentedDownload(String room, String filename, Path downloadDir) {
+        this.room = room;
+        this.filename = filename;
+        this.part = downloadDir.resolve(filename + ".part");
+        this.meta = downloadDir.resolve(filename + ".part.meta");
+    }
+
+    // Teil-Datei öffnen; liefert den Offset, ab dem geladen wird (> 0 = Wiederaufnahme)
+    long open() throws IOException {
+        Files.createDirectories(part.getParent());
+        fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        Properties p = new Properties();
+        if (Files.exists(meta)) {
+            try (InputStream in = Files.newInputStream(meta)) {
+                p.load(in);
+            } catch (IOException ignore) {
+            }
+        }
+        if (room.equals(p.getProperty("room")) && p.getProperty("total") != null) {
+            try {
+                total = Long.parseLong(p.getProperty("total"));
+                version = Long.parseLong(p.getProperty("version", "0"));
+                received = Math.min(fc.size(), total);
+                resumed = received > 0;
+            } catch (NumberFormatException e) {
+                total = -1;
+            }
+        }
+        if (!resumed) {
+            total = -1;
+            received = 0;
+            fc.truncate(0);
+        }
+        requested = received;
+        return received;
+    }
+
+    String getRoom() { return room; }
+    String getFilename() { return filename; }
+    synchronized long getTotal() { return total; }
+    synchronized long getReceived() { return received; }
+
+    // Nächste Anfrage (DOWNLOAD_RANGE-Zeile) oder null, wenn das Fenster voll oder alles angefordert ist.
+    // Bis zur ersten Antwort ist nur eine Anfrage unterwegs (bei fertiger Teil-Datei ein leerer Bereich am Ende).
+    synchronized String nextRequest() {
+        if (!verified ? inFlight > 0 : (inFlight >= WINDOW || requested >= total)) return null;
+        long offset = requested;
+        long len = total < 0 ? SEGMENT_BYTES : Math.min(SEGMENT_BYTES, total - offset);
+        requested = offset + len;
+        inFlight++;
+        return Protocol.buildDownloadRange(room, filename, offset, len);
+    }
+
+    // FILE_RANGE-Antwort: length Rohbytes aus in an offset schreiben.
+    // false = Quelle hat sich seit dem Teil-Download geändert, die Bytes wurden verworfen und es geht bei 0 los.
+    synchronized boolean onRange(long offset, long length, long rangeTotal, long rangeVersion, DataInputStream in) throws IOException {
+        inFlight--;
+        if (!verified) {
+            if (resumed && (rangeTotal != total || rangeVersion != version)) {
+                in.skipNBytes(length);
+                fc.truncate(0);
+                resumed = false;
+                total = -1;
+                received = requested = 0;
+                return false;
+            }
+            verified = true;
+            if (!resumed) {
+                total = rangeTotal;
+                version = rangeVersion;
+                writeMeta();
+            }
+            requested = Math.min(requested, total);
+        } else if (rangeTotal != total || rangeVersion != version) {
+            in.skipNBytes(length);
+            throw new IOException("Datei wurde während des Downloads geändert");
+        }
+        if (offset != received) {
+            in.skipNBytes(length);
+            throw new IOException("Bereich außer der Reihe (" + offset + " statt " + received + ")");
+        }
+
+        if (buf == null) buf = ByteBuffer.allocate(64 * 1024);
+        long remaining = length;
+        long pos = offset;
+        while (remaining > 0) {
+            int n = in.read(buf.array(), 0, (int) Math.min(buf.capacity(), remaining));
+            if (n < 0) throw new IOException("EOF während Download");
+            buf.clear().limit(n);
+            while (buf.hasRemaining()) pos += fc.write(buf, pos);
+            remaining -= n;
+            received = pos;
+        }
+        return true;
+    }
+
+    synchronized boolean isComplete() {
+        return verified && received == total && inFlight == 0;
+    }
+
+    // Ergebnis prüfen (Länge auf der Platte == angekündigte Größe) und an target verschieben
+    Path finish(Path target) throws IOException {
+        fc.close();
+        long size = Files.size(part);
+        if (size != total) throw new IOException("Download unvollständig (" + size + "/" + total + ")");
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(meta);
+        return target;
+    }
+
+    // Abbruch: Teil-Datei bleibt für die Wiederaufnahme liegen, außer discard
+    void abort(boolean discard) {
+        try { if (fc != null) fc.close(); } catch (IOException ignore) {}
+        if (!discard) return;
+        try { Files.deleteIfExists(part); } catch (IOException ignore) {}
+        try { Files.deleteIfExists(meta); } catch (IOException ignore) {}
+    }
+
+    private void writeMeta() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("room", room);
+        p.setProperty("total", Long.toString(total));
+        p.setProperty("version", Long.toString(version));
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            p.store(out, null);
+        }
+    }
+}
@@ -6,28 +6,62 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class ServerLogger implements AutoCloseable {
+// final: der Konstruktor startet den Drainer erst, nachdem alle Felder gesetzt sind; eine Unterklasse
+// wäre zu dem Zeitpunkt noch nicht fertig konstruiert ([this-escape])
+public final class ServerLogger implements AutoCloseable {
+
+    // Verhalten bei vollem Ring (nur asynchron): DROP_INFO verwirft INFO-Zeilen (gezählt, als LOG_DROPPED
+    // nachgetragen), WARN/ERROR warten trotzdem; BLOCK lässt jeden Aufrufer warten, bis Platz ist
+    enum Overflow { DROP_INFO, BLOCK }
+
+    private record Entry(long millis, String level, String msg) {}
 
     private final Path logFile;
     private final BufferedWriter writer;
     private final List<ServerLogListener> listeners = new CopyOnWriteArrayList<>();
     private final Deque<String> history = new ArrayDeque<>();
     private final int maxHistory;
+    private final ReentrantLock lock = new ReentrantLock();
     private final DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    // asynchron: Aufrufer legen nur ab, ein Thread formatiert, schreibt und flusht gebündelt (null = synchron)
+    private final LogRing<Entry> ring;
+    private final Overflow overflow;
+    private final long flushNanos;
+    private final int flushBytes;
+    private final Thread drainer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private volatile boolean drainerParked;
+    private volatile boolean closed;
+    // Zeitstempel-Cache des Drainers (eine Formatierung pro Sekunde)
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedStamp;
+
     public ServerLogger(String filePath) throws IOException {
         this(filePath, 500);
     }
 
     public ServerLogger(String filePath, int maxHistory) throws IOException {
+        this(filePath, maxHistory, Config.getLogBufferLines());
+    }
+
+    // bufferLines <= 0: synchron wie früher (jede Zeile sofort geschrieben und geflusht)
+    ServerLogger(String filePath, int maxHistory, int bufferLines) throws IOException {
         this.logFile = Path.of(filePath);
         this.maxHistory = Math.max(50, maxHistory);
 
@@ -42,6 +76,22 @@ public class ServerLogger implements AutoCloseable {
                 StandardOpenOption.WRITE,
                 StandardOpenOption.APPEND
         );
+
+        if (bufferLines > 0) {
+            this.ring = new LogRing<>(bufferLines);
+            this.overflow = "block".equals(Config.getLogOverflow()) ? Overflow.BLOCK : Overflow.DROP_INFO;
+            this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Config.getLogFlushMillis()));
+            this.flushBytes = Math.max(1, Config.getLogFlushBytes());
+            // als Letztes im Konstruktor: Thread.start() veröffentlicht alle Felder davor an den Drainer
+            this.drainer = Thread.ofPlatform().name("server-log").daemon(true).unstarted(this::drainLoop);
+            this.drainer.start();
+        } else {
+            this.ring = null;
+            this.overflow = null;
+            this.flushNanos = 0;
+            this.flushBytes = 0;
+            this.drainer = null;
+        }
     }
 
     public void addListener(ServerLogListener l) {
@@ -52,12 +102,45 @@ public class ServerLogger implements AutoCloseable {
     public void error(String msg) { log("ERROR", msg); }
 
     public void log(String level, String msg) {
+        if (ring == null) {
+            logSync(level, msg);
+            return;
+        }
+        if (closed) return;
+
+        Entry e = new Entry(System.currentTimeMillis(), level, msg);
+        if (!ring.offer(e)) {
+            if (overflow == Overflow.DROP_INFO && "INFO".equals(level)) {
+                dropped.incrementAndGet();
+                droppedTotal.incrementAndGet();
+                wakeDrainer();
+                return;
+            }
+            while (!ring.offer(e)) {
+                if (closed) return;
+                wakeDrainer();
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        // erst ab halbvollem Ring wecken, sonst bündelt der Drainer bis zum nächsten Flush-Intervall
+        if (drainerParked && ring.size() >= ring.capacity() / 2) wakeDrainer();
+    }
+
+    private void wakeDrainer() {
+        if (drainerParked) {
+            drainerParked = false;
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private void logSync(String level, String msg) {
         String line = fmt.format(LocalDateTime.now())
                 + " [" + level + "] "
                 + (msg == null ? "" : msg);
 
-        // Datei + History
-        synchronized (this) {
+        // Datei + History (Lock statt Monitor, damit virtuelle Threads beim Schreiben nicht pinnen)
+        lock.lock();
+        try {
             try {
                 writer.write(line);
                 writer.newLine();
@@ -68,8 +151,14 @@ public class ServerLogger implements AutoCloseable {
 
             history.addLast(line);
             while (history.size() > maxHistory) history.removeFirst();
+        } finally {
+            lock.unlock();
         }
 
+        notifyListeners(line);
+    }
+
+    private void notifyListeners(String line) {
         // UI-Callback
         for (ServerLogListener l : listeners) {
             try {
@@ -78,10 +167,106 @@ public class ServerLogger implements AutoCloseable {
         }
     }
 
+    // Drainer: leert den Ring, schreibt in den BufferedWriter und flusht spätestens nach flushNanos
+    // seit der ersten ungeflushten Zeile oder ab flushBytes; schläft, solange nichts zu tun ist
+    private void drainLoop() {
+        long unflushedSince = 0;
+        int unflushedBytes = 0;
+        while (true) {
+            boolean stopping = closed;
+            List<String> lines = drain();
+            if (!lines.isEmpty()) {
+                if (unflushedBytes == 0) unflushedSince = System.nanoTime();
+                lock.lock();
+                try {
+                    for (String line : lines) {
+                        try {
+                            writer.write(line);
+                            writer.newLine();
+                        } catch (IOException e) {
+                            System.err.println("[LOGGER] Schreiben fehlgeschlagen: " + e.getMessage());
+                        }
+                        unflushedBytes += line.length() + 1;
+                        history.addLast(line);
+                    }
+                    while (history.size() > maxHistory) history.removeFirst();
+                } finally {
+                    lock.unlock();
+                }
+                for (String line : lines) notifyListeners(line);
+            }
+
+            long now = System.nanoTime();
+            if (unflushedBytes > 0 && (stopping || unflushedBytes >= flushBytes || now - unflushedSince >= flushNanos)) {
+                flushWriter();
+                unflushedSince = 0;
+                unflushedBytes = 0;
+            }
+            if (stopping) return;
+            if (!lines.isEmpty()) continue;
+
+            long wait = unflushedBytes > 0 ? flushNanos - (now - unflushedSince) : flushNanos;
+            drainerParked = true;
+            if (ring.size() == 0 && dropped.get() == 0 && !closed) LockSupport.parkNanos(this, Math.max(1, wait));
+            drainerParked = false;
+        }
+    }
+
+    private List<String> drain() {
+        List<String> lines = new ArrayList<>();
+        Entry e;
+        // höchstens eine Ringlänge pro Runde, damit bei Dauerlast trotzdem geflusht wird
+        while (lines.size() < ring.capacity() && (e = ring.poll()) != null) {
+            lines.add(format(e.millis(), e.level(), e.msg()));
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) lines.add(format(System.currentTimeMillis(), "WARN", "LOG_DROPPED lines=" + lost + " (Log-Puffer voll)"));
+        return lines;
+    }
+
+    private String format(long millis, String level, String msg) {
+        long second = millis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedStamp = fmt.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+        }
+        return cachedStamp + " [" + level + "] " + (msg == null ? "" : msg);
+    }
+
+    private void flushWriter() {
+        lock.lock();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("[LOGGER] Schreiben fehlgeschlagen: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // asynchron: verworfene INFO-Zeilen seit dem Start (für Tests/Debug)
+    long getDroppedTotal() {
+        return droppedTotal.get();
+    }
+
     @Override
-    public synchronized void close() {
+    public void close() {
+        if (drainer != null) {
+            // Drainer schreibt den Rest und flusht, dann erst Writer zu
+            closed = true;
+            LockSupport.unpark(drainer);
+            try {
+                drainer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
         try {
             writer.close();
-        } catch (IOException ignore) {}
+        } catch (IOException ignore) {
+        } finally {
+            lock.unlock();
+        }
     }
 }
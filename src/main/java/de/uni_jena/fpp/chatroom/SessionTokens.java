@@ -0,0 +1,146 @@
+package de.uni_jena.fpp.chatroom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Signierte Sitzungs-Tokens für RESUME: base64url(Name).ausgestellt.gültigBis.base64url(HMAC-SHA256).
+// Prüfen kostet ein HMAC statt PBKDF2; gespeichert wird serverseitig nur der Schlüssel (data/session.key),
+// damit Tokens einen Neustart überleben, und daneben der Widerruf (session.key.revoked): pro User der
+// Zeitpunkt von Logout/Ban, vorher ausgestellte Tokens gelten nicht mehr - auch nach einem Neustart.
+final class SessionTokens {
+
+    private static final int KEY_BYTES = 32;
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+    record Session(String username, long issuedAt, long expiresAt) {}
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    // Widerrufs-Journal: Zeilen "base64url(Name) Zeitpunkt", angehängt bei revoke(), beim Öffnen verdichtet
+    private final Path revokedFile;
+    private final Map<String, Long> revokedBefore = new ConcurrentHashMap<>();
+    // Mac ist nicht thread-sicher -> einer pro Thread
+    private final ThreadLocal<Mac> mac;
+
+    SessionTokens(Path keyFile, long ttlMillis) throws IOException {
+        this.key = new SecretKeySpec(loadOrCreateKey(keyFile), "HmacSHA256");
+        this.ttlMillis = ttlMillis;
+        this.revokedFile = keyFile.resolveSibling(keyFile.getFileName() + ".revoked");
+        loadRevoked();
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance("HmacSHA256");
+                m.init(key);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        });
+    }
+
+    private static byte[] loadOrCreateKey(Path file) throws IOException {
+        if (Files.exists(file)) {
+            byte[] k = Files.readAllBytes(file);
+            if (k.length == KEY_BYTES) return k;
+        }
+        byte[] k = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(k);
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, k);
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignore) {
+            // z.B. Windows
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return k;
+    }
+
+    // Einträge älter als die TTL fallen weg: jedes Token von davor ist ohnehin abgelaufen
+    private void loadRevoked() throws IOException {
+        if (!Files.exists(revokedFile)) return;
+        long horizon = System.currentTimeMillis() - ttlMillis;
+        List<String> lines = Files.readAllLines(revokedFile, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            int sp = line.indexOf(' ');
+            if (sp <= 0) continue; // abgerissene letzte Zeile
+            try {
+                String user = new String(B64D.decode(line.substring(0, sp)), StandardCharsets.UTF_8);
+                long at = Long.parseLong(line.substring(sp + 1));
+                if (at >= horizon) revokedBefore.merge(user, at, Math::max);
+            } catch (IllegalArgumentException e) {
+                // kaputte Zeile überspringen
+            }
+        }
+        if (revokedBefore.size() == lines.size()) return;
+        StringBuilder sb = new StringBuilder();
+        revokedBefore.forEach((u, at) -> sb.append(line(u, at)));
+        Path tmp = revokedFile.resolveSibling(revokedFile.getFileName() + ".tmp");
+        Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+        Files.move(tmp, revokedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String line(String username, long at) {
+        return B64.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + " " + at + "\n";
+    }
+
+    // Logout/Ban: alle bisher ausgestellten Tokens des Users ungültig machen. Im Speicher gilt das sofort,
+    // auch wenn das Schreiben scheitert (IOException: hält dann nur bis zum Neustart)
+    void revoke(String username) throws IOException {
+        long now = System.currentTimeMillis();
+        revokedBefore.merge(username, now, Math::max);
+        synchronized (revokedFile) {
+            Files.writeString(revokedFile, line(username, now), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        }
+    }
+
+    String issue(String username) {
+        long now = System.currentTimeMillis();
+        String body = B64.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "." + now + "." + (now + ttlMillis);
+        return body + "." + B64.encodeToString(sign(body));
+    }
+
+    // null = kaputt, falsch signiert, abgelaufen oder widerrufen
+    Session verify(String token) {
+        if (token == null) return null;
+        int sig = token.lastIndexOf('.');
+        if (sig < 0) return null;
+        String body = token.substring(0, sig);
+        String[] p = body.split("\\.", -1);
+        if (p.length != 3) return null;
+        try {
+            byte[] given = B64D.decode(token.substring(sig + 1));
+            if (!MessageDigest.isEqual(given, sign(body))) return null;
+            long issued = Long.parseLong(p[1]);
+            long expires = Long.parseLong(p[2]);
+            if (System.currentTimeMillis() >= expires) return null;
+            String username = new String(B64D.decode(p[0]), StandardCharsets.UTF_8);
+            Long revoked = revokedBefore.get(username);
+            if (revoked != null && issued <= revoked) return null;
+            return new Session(username, issued, expires);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String body) {
+        return mac.get().doFinal(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
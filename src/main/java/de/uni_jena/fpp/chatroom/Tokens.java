@@ -0,0 +1,325 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Wiederverwendbare Sicht auf ein eingehendes Kommando, egal ob Textzeile (v1) oder v2-Payload.
+// Gespeichert werden nur Opcode und Feldgrenzen in festen Arrays; ein String entsteht erst bei get(i),
+// Vergleiche und Zahlen (is, parseLong, parseInt) laufen direkt auf der Quelle, ohne Regex.
+// Eine Instanz pro Leser (Verbindung bzw. Listener-Thread), gültig bis zum nächsten parse()/read().
+public final class Tokens {
+
+    // Name + höchstens 5 Felder (größte Feldanzahl in ProtocolV2, FILE_RANGE)
+    private static final int MAX_FIELDS = 6;
+    private static final int INITIAL_BUFFER = 256;
+
+    // Textmodus: text != null; v2-Modus: bytes[from, to) ist der Payload
+    private String text;
+    private byte[] bytes;
+    private int from;
+    private int to;
+    // eigener Lesepuffer für read(), wächst bis ProtocolV2.MAX_FRAME
+    private byte[] buffer;
+
+    private int opcode;
+    private int count;
+    // Index 0 = Kommandoname (nur Textmodus), 1..count = Felder
+    private final int[] start = new int[MAX_FIELDS];
+    private final int[] end = new int[MAX_FIELDS];
+    // Position hinter dem zuletzt gelesenen Varint
+    private int cursor;
+
+    // ---------- Einlesen ----------
+
+    // Blockierend ein Kommando im jeweiligen Format lesen (ClientHandler/ChatClient)
+    public Tokens read(DataInputStream in, int version) throws IOException {
+        if (version != ProtocolV2.VERSION) return parse(in.readUTF());
+
+        int len = ProtocolV2.readVarint(in);
+        if (len <= 0 || len > ProtocolV2.MAX_FRAME) throw new IOException("Ungültige v2-Framelänge: " + len);
+        if (buffer == null || buffer.length < len) {
+            buffer = new byte[Math.min(ProtocolV2.MAX_FRAME, Math.max(len, buffer == null ? INITIAL_BUFFER : buffer.length * 2))];
+        }
+        in.readFully(buffer, 0, len);
+        return parse(buffer, 0, len);
+    }
+
+    // Textzeile nach der Feldanzahl des Kommandos zerlegen; das letzte Feld nimmt ggf. den Rest der Zeile
+    public Tokens parse(String line) {
+        text = line == null ? "" : line;
+        bytes = null;
+
+        int hi = text.length();
+        while (hi > 0 && Character.isWhitespace(text.charAt(hi - 1))) hi--;
+        int lo = skipSpaces(text, 0, hi);
+        int nameEnd = indexOfSpace(text, lo, hi);
+        from = lo;
+        to = hi;
+        start[0] = lo;
+        end[0] = nameEnd;
+
+        opcode = ProtocolV2.lookup(text, lo, nameEnd);
+        count = ProtocolV2.arity(opcode);
+        boolean rest = ProtocolV2.isRest(opcode);
+
+        int pos = nameEnd;
+        for (int i = 1; i <= count; i++) {
+            pos = skipSpaces(text, pos, hi);
+            int e = (i == count && rest) ? hi : indexOfSpace(text, pos, hi);
+            start[i] = pos;
+            end[i] = e;
+            pos = e;
+        }
+        return this;
+    }
+
+    // v2-Payload (Opcode + Felder) in buf[off, off+len); buf darf bis zum nächsten parse() nicht verändert werden
+    public Tokens parse(byte[] buf, int off, int len) throws IOException {
+        if (len <= 0) throw new IOException("Leerer v2-Frame");
+        int op = buf[off] & 0xFF;
+        int stop = off + len;
+
+        if (op == ProtocolV2.OP_TEXT) {
+            // unbekanntes Kommando als Textzeile -> wie eine v1-Zeile zerlegen
+            int n = varint(buf, off + 1, stop);
+            int p = cursor;
+            if (n < 0 || p + n > stop) throw new IOException("Feldlänge außerhalb des Frames");
+            return parse(new String(buf, p, n, StandardCharsets.UTF_8));
+        }
+
+        text = null;
+        bytes = buf;
+        from = off;
+        to = stop;
+        opcode = op;
+        count = ProtocolV2.arity(op);
+        start[0] = end[0] = off;
+
+        int p = off + 1;
+        for (int i = 1; i <= count; i++) {
+            if (p >= stop) {
+                start[i] = end[i] = stop;
+                continue;
+            }
+            int n = varint(buf, p, stop);
+            p = cursor;
+            if (n < 0 || p + n > stop) throw new IOException("Feldlänge außerhalb des Frames");
+            start[i] = p;
+            end[i] = p + n;
+            p += n;
+        }
+        return this;
+    }
+
+    // Unabhängige Kopie, z.B. bevor das Kommando an einen anderen Thread geht und der Puffer weiterläuft
+    public Tokens copy() {
+        Tokens c = new Tokens();
+        c.text = text;
+        c.opcode = opcode;
+        c.count = count;
+        int shift = 0;
+        if (text == null) {
+            c.bytes = Arrays.copyOfRange(bytes, from, to);
+            shift = from;
+        }
+        c.from = from - shift;
+        c.to = to - shift;
+        for (int i = 0; i <= count; i++) {
+            c.start[i] = start[i] - shift;
+            c.end[i] = end[i] - shift;
+        }
+        return c;
+    }
+
+    // ---------- Zugriff ----------
+
+    // ProtocolV2.OP_*; OP_TEXT für unbekannte Kommandos
+    public int opcode() { return opcode; }
+
+    public int fields() { return count; }
+
+    // Leere Zeile (nur Textmodus möglich)
+    public boolean isBlank() {
+        return text != null && from == to;
+    }
+
+    public String name() {
+        if (text != null) return text.substring(start[0], end[0]);
+        String n = ProtocolV2.name(opcode);
+        return n != null ? n : "OP_" + opcode;
+    }
+
+    public boolean isEmpty(int i) {
+        return i < 1 || i > count || start[i] == end[i];
+    }
+
+    public String get(int i) {
+        if (isEmpty(i)) return "";
+        if (text != null) return text.substring(start[i], end[i]);
+        return new String(bytes, start[i], end[i] - start[i], StandardCharsets.UTF_8);
+    }
+
+    // Feld i == s, ohne einen String zu erzeugen
+    public boolean is(int i, String s) {
+        int len = isEmpty(i) ? 0 : end[i] - start[i];
+        if (len == 0) return s.isEmpty();
+        if (text != null) return len == s.length() && text.regionMatches(start[i], s, 0, len);
+
+        int p = start[i];
+        for (int k = 0; k < s.length(); k++, p++) {
+            char c = s.charAt(k);
+            if (c >= 0x80) return get(i).equals(s);
+            if (p >= end[i] || bytes[p] != c) return false;
+        }
+        return p == end[i];
+    }
+
+    public long parseLong(int i) {
+        if (isEmpty(i)) throw new NumberFormatException("Leeres Feld");
+        int p = start[i];
+        int e = end[i];
+        boolean negative = charAt(p) == '-';
+        if (negative || charAt(p) == '+') p++;
+        // mehr als 18 Ziffern könnten überlaufen -> das übernimmt Long.parseLong samt Fehlermeldung
+        if (p == e || e - p > 18) return Long.parseLong(get(i));
+
+        long v = 0;
+        for (; p < e; p++) {
+            int d = charAt(p) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("Keine Zahl: " + get(i));
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    public int parseInt(int i) {
+        long v = parseLong(i);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new NumberFormatException("Zu groß: " + get(i));
+        return (int) v;
+    }
+
+    // Ganze Zeile im Textformat (für Anzeige/Fehlermeldungen); leere Felder am Ende entfallen
+    public String toLine() {
+        if (text != null) return text.substring(from, to);
+        int n = count;
+        while (n > 0 && isEmpty(n)) n--;
+        StringBuilder sb = new StringBuilder(name());
+        for (int i = 1; i <= n; i++) sb.append(' ').append(get(i));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+
+    // ---------- v2 kodieren ----------
+
+    // Kompletter v2-Frame inkl. Längenpräfix; die Felder werden direkt aus der Quelle nach UTF-8 geschrieben
+    byte[] encodeV2() throws IOException {
+        if (text == null) {
+            int payload = to - from;
+            byte[] out = new byte[ProtocolV2.varintSize(payload) + payload];
+            int p = ProtocolV2.putVarint(out, 0, payload);
+            System.arraycopy(bytes, from, out, p, payload);
+            return out;
+        }
+
+        // unbekanntes Kommando -> ganze Zeile als ein Feld, der Empfänger meldet den Fehler
+        boolean raw = opcode == ProtocolV2.OP_TEXT;
+        int n = raw ? 1 : count;
+
+        int payload = 1;
+        for (int i = 1; i <= n; i++) {
+            int len = raw ? utf8Length(from, to) : utf8Length(start[i], end[i]);
+            payload += ProtocolV2.varintSize(len) + len;
+        }
+        if (payload > ProtocolV2.MAX_FRAME) throw new IOException("Frame zu groß: " + payload + " Bytes");
+
+        byte[] out = new byte[ProtocolV2.varintSize(payload) + payload];
+        int p = ProtocolV2.putVarint(out, 0, payload);
+        out[p++] = (byte) opcode;
+        for (int i = 1; i <= n; i++) {
+            int s = raw ? from : start[i];
+            int e = raw ? to : end[i];
+            p = ProtocolV2.putVarint(out, p, utf8Length(s, e));
+            p = putUtf8(out, p, s, e);
+        }
+        return out;
+    }
+
+    // Wie String.getBytes(UTF_8): einzelne Surrogate werden zu '?'
+    private int utf8Length(int s, int e) {
+        int n = 0;
+        for (int k = s; k < e; k++) {
+            char c = text.charAt(k);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && k + 1 < e && Character.isLowSurrogate(text.charAt(k + 1))) {
+                n += 4;
+                k++;
+            } else if (Character.isSurrogate(c)) n++;
+            else n += 3;
+        }
+        return n;
+    }
+
+    private int putUtf8(byte[] out, int p, int s, int e) {
+        for (int k = s; k < e; k++) {
+            char c = text.charAt(k);
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && k + 1 < e && Character.isLowSurrogate(text.charAt(k + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++k));
+                out[p++] = (byte) (0xF0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[p++] = '?';
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    // ---------- Hilfen ----------
+
+    private char charAt(int p) {
+        return text != null ? text.charAt(p) : (char) (bytes[p] & 0xFF);
+    }
+
+    private int varint(byte[] buf, int p, int stop) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7, p++) {
+            if (p >= stop) throw new IOException("Kaputter v2-Frame");
+            int b = buf[p] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                cursor = p + 1;
+                return value;
+            }
+        }
+        throw new IOException("Varint zu lang");
+    }
+
+    private static int indexOfSpace(String s, int from, int to) {
+        int i = from;
+        while (i < to && !Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static int skipSpaces(String s, int from, int to) {
+        int i = from;
+        while (i < to && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+}
@@ -5,6 +5,16 @@ import java.util.List;
 public interface UserRepository {
     boolean createUser(String username, char[] password);
     User verifyLogin(String username, char[] password);
+    // ohne Passwortprüfung, z.B. für RESUME per Sitzungs-Token; null = unbekannt
+    User findUser(String username);
     List<User> listUsers();
     boolean setBanned(String username, boolean banned);
+
+    // users.store=mapped -> MappedUserRepository (übernimmt beim ersten Start users.db), sonst FileUserRepository
+    static UserRepository fromConfig() {
+        if ("mapped".equals(Config.getUsersStore())) {
+            return new MappedUserRepository(Config.getUsersMapFile(), Config.getPbkdf2Iterations(), Config.getUsersFile());
+        }
+        return new FileUserRepository(Config.getUsersFile(), Config.getPbkdf2Iterations());
+    }
 }
@@ -23,6 +23,12 @@ public class ChatFrame extends MainFrame {
     private final DefaultListModel<String> filesModel = new DefaultListModel<>();
     private volatile String shownRoom = null;
 
+    // ältere Nachrichten seitenweise per HISTORY; Zustand nur im EDT
+    private static final int HISTORY_PAGE = 50;
+    private long olderBefore;       // nächste Seite vor dieser seq, 0 = nichts Älteres
+    private boolean loadingOlder;
+    private int historyInsertPos;   // hinter der Kopfzeile "[INFO] Raum: ..."
+
 
     public ChatFrame() {
         this(null);
@@ -65,6 +71,23 @@ public class ChatFrame extends MainFrame {
         JScrollPane chatScroll = new JScrollPane(chatBox);
         chatPanel.add(chatScroll, BorderLayout.CENTER);
 
+        Runnable loadOlder = () -> {
+            String room = shownRoom;
+            if (room == null || olderBefore <= 0 || loadingOlder) return;
+            loadingOlder = true;
+            try {
+                client.requestHistory(room, olderBefore, HISTORY_PAGE);
+            } catch (IOException ex) {
+                loadingOlder = false;
+                chatBox.append("[ERROR] HISTORY: " + ex.getMessage() + "\n");
+            }
+        };
+        // ganz nach oben gescrollt -> nächste Seite nachladen
+        JScrollBar chatBar = chatScroll.getVerticalScrollBar();
+        chatBar.addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0) loadOlder.run();
+        });
+
         JPanel msgPanel = new JPanel(new GridLayout(1, 2));
         msgPanel.setBorder(new TitledBorder("Nachricht"));
 
@@ -333,9 +356,12 @@ public class ChatFrame extends MainFrame {
                         if (shownRoom == null || !shownRoom.equals(room)) {
                             shownRoom = room;
 
+                            olderBefore = 0;
+                            loadingOlder = false;
                             chatBox.setText("");
                             chatBox.append("[INFO] Raum: " + room + "\n");
                             chatBox.setCaretPosition(chatBox.getDocument().getLength());
+                            historyInsertPos = chatBox.getDocument().getLength();
 
                             btnShowFiles.setSelected(false);
                             filesScroll.setVisible(false);
@@ -372,6 +398,44 @@ public class ChatFrame extends MainFrame {
                 }
 
 
+                @Override
+                public void onHistoryReplay(String room, List<HistoryMessage> messages, long beforeSeq) {
+                    // ganze History des Joins mit einem append statt einer Zeile pro Nachricht
+                    SwingUtilities.invokeLater(() -> {
+                        String cur = client.getModel().getCurrentRoom();
+                        if (cur == null || !cur.equals(room)) return;
+                        if (!messages.isEmpty()) {
+                            StringBuilder sb = new StringBuilder();
+                            for (HistoryMessage m : messages) sb.append("[").append(m.from()).append("] ").append(m.text()).append("\n");
+                            chatBox.append(sb.toString());
+                            chatBox.setCaretPosition(chatBox.getDocument().getLength());
+                        }
+                    });
+                    onHistory(room, List.of(), beforeSeq);
+                }
+
+                @Override
+                public void onHistory(String room, List<HistoryMessage> messages, long beforeSeq) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (shownRoom == null || !shownRoom.equals(room)) return;
+                        loadingOlder = false;
+                        olderBefore = beforeSeq;
+
+                        if (!messages.isEmpty()) {
+                            StringBuilder sb = new StringBuilder();
+                            for (HistoryMessage m : messages) sb.append("[").append(m.from()).append("] ").append(m.text()).append("\n");
+                            // Abstand zum Ende merken, damit die gelesene Stelle nach dem Einfügen oben stehen bleibt
+                            int fromBottom = chatBar.getMaximum() - chatBar.getValue();
+                            chatBox.insert(sb.toString(), historyInsertPos);
+                            SwingUtilities.invokeLater(() -> chatBar.setValue(chatBar.getMaximum() - fromBottom));
+                        }
+                        // passt alles ohne Scrollen ins Fenster, kann der Benutzer nie oben ankommen -> gleich weiterladen
+                        SwingUtilities.invokeLater(() -> {
+                            if (chatBar.getMaximum() <= chatBar.getVisibleAmount()) loadOlder.run();
+                        });
+                    });
+                }
+
                 @Override
                 public void onInfo(String text) {
                     SwingUtilities.invokeLater(() -> {
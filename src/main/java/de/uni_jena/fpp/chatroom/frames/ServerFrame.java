@@ -126,7 +126,7 @@ public class ServerFrame extends MainFrame {
 
 // Buttons unten
         JPanel roomButtons = new JPanel();
-        roomButtons.setLayout(new GridLayout(1, 2, 5, 5));
+        roomButtons.setLayout(new GridLayout(1, 3, 5, 5));
 
         JButton btnRoomCreate = new JButton("Raum erstellen");
         btnRoomCreate.setFont(mainFont);
@@ -134,6 +134,9 @@ public class ServerFrame extends MainFrame {
         JButton btnRoomDelete = new JButton("Raum löschen");
         btnRoomDelete.setFont(mainFont);
 
+        JButton btnRoomSearch = new JButton("Suchen");
+        btnRoomSearch.setFont(mainFont);
+
         btnRoomCreate.addActionListener(e -> {
             if (server == null) return;
 
@@ -181,8 +184,28 @@ public class ServerFrame extends MainFrame {
                     : "[ERROR] Raum konnte nicht gelöscht werden.\n");
         });
 
+        btnRoomSearch.addActionListener(e -> {
+            if (server == null) return;
+
+            String selected = roomList.getSelectedValue();
+            if (selected == null) {
+                chatBox.append("[INFO] Bitte erst einen Raum auswählen.\n");
+                return;
+            }
+
+            String query = JOptionPane.showInputDialog(frame, "Suchbegriffe:", "Suchen in " + selected, JOptionPane.PLAIN_MESSAGE);
+            if (query == null || query.isBlank()) return;
+
+            long t0 = System.nanoTime();
+            List<String> hits = server.searchRoom(selected, query);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            chatBox.append("[SUCHE] \"" + query.trim() + "\" in " + selected + ": " + hits.size() + " Treffer (" + ms + " ms)\n");
+            for (String h : hits) chatBox.append("    " + h + "\n");
+        });
+
         roomButtons.add(btnRoomCreate);
         roomButtons.add(btnRoomDelete);
+        roomButtons.add(btnRoomSearch);
 
         roomPanel.add(roomButtons, BorderLayout.SOUTH);
         panel1.add(roomPanel);
@@ -421,10 +444,7 @@ public class ServerFrame extends MainFrame {
             int port = de.uni_jena.fpp.chatroom.Config.getServerPort();
 
             de.uni_jena.fpp.chatroom.UserRepository repo =
-                    new de.uni_jena.fpp.chatroom.FileUserRepository(
-                            de.uni_jena.fpp.chatroom.Config.getUsersFile(),
-                            de.uni_jena.fpp.chatroom.Config.getPbkdf2Iterations()
-                    );
+                    de.uni_jena.fpp.chatroom.UserRepository.fromConfig();
 
             de.uni_jena.fpp.chatroom.ServerLogger logger =
                     new de.uni_jena.fpp.chatroom.ServerLogger(de.uni_jena.fpp.chatroom.Config.getServerLogFile());
@@ -0,0 +1,51 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// Hilfen für die *Benchmark-Treiber (kein JMH: main() mit Aufwärmrunde, Zeit per nanoTime,
+// Allokationen über den Zähler der JVM pro Thread). Surefire führt die Treiber nicht aus.
+final class Bench {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Bench() {}
+
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    // ns und Bytes pro Aufruf; erst eine Aufwärmrunde, gemessen wird die zweite
+    static void perOp(String name, int iterations, Op op) throws Exception {
+        for (int i = 0; i < iterations; i++) op.run(i);
+        long bytes = allocated();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) op.run(i);
+        long nanos = System.nanoTime() - t0;
+        bytes = allocated() - bytes;
+        System.out.printf("%-32s %9.1f ns/op %9.1f B/op%n", name, (double) nanos / iterations, (double) bytes / iterations);
+    }
+
+    // vom aktuellen Thread bisher angelegte Bytes
+    static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // p in [0, 100]; sortiert values
+    static long percentile(long[] values, int count, double p) {
+        Arrays.sort(values, 0, count);
+        if (count == 0) return 0;
+        return values[(int) Math.min(count - 1, Math.round(p / 100 * (count - 1)))];
+    }
+
+    static int arg(String[] args, int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i]) : def;
+    }
+}
@@ -0,0 +1,124 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlobStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private Path blobs() {
+        return dir.resolve("blobs");
+    }
+
+    private Path rooms() {
+        return dir.resolve("rooms");
+    }
+
+    private BlobStore open() throws IOException {
+        BlobStore store = new BlobStore(blobs(), rooms());
+        store.load();
+        return store;
+    }
+
+    // fertige Upload-Datei wie nach RoomUpload.commit()
+    private Path upload(String content) throws IOException {
+        Path f = Files.createTempFile(dir, "up", ".tmp");
+        Files.writeString(f, content, StandardCharsets.UTF_8);
+        return f;
+    }
+
+    private boolean put(BlobStore store, String room, String name, String content) throws IOException {
+        Path f = upload(content);
+        return store.put(room, name, f, BlobStore.sha256(f));
+    }
+
+    @Test
+    void sameContentIsStoredOnceAndFreedWithTheLastReference() throws IOException {
+        BlobStore store = open();
+        assertFalse(put(store, "a", "x.png", "inhalt"));
+        assertTrue(put(store, "b", "y.png", "inhalt"));
+        assertTrue(put(store, "a", "kopie.png", "inhalt"));
+        assertEquals(1, store.blobCount());
+        Path blob = store.resolve("a", "x.png");
+        assertEquals(blob, store.resolve("b", "y.png"));
+
+        assertTrue(store.remove("a", "x.png"));
+        assertFalse(store.remove("a", "x.png"));
+        store.dropRoom("b");
+        assertTrue(Files.exists(blob));
+        assertTrue(store.remove("a", "kopie.png"));
+        assertFalse(Files.exists(blob));
+        assertEquals(0, store.blobCount());
+    }
+
+    @Test
+    void replacingAFileReleasesTheOldContent() throws IOException {
+        BlobStore store = open();
+        put(store, "a", "x.png", "alt");
+        Path old = store.resolve("a", "x.png");
+        put(store, "a", "x.png", "neu");
+        assertFalse(Files.exists(old));
+        assertEquals("neu", Files.readString(store.resolve("a", "x.png")));
+        assertEquals(List.of("x.png"), store.list("a"));
+    }
+
+    @Test
+    void linkNeedsKnownContentOfTheRightSize() throws IOException {
+        BlobStore store = open();
+        put(store, "a", "x.png", "inhalt");
+        String hash = store.hashOf("a", "x.png");
+        assertFalse(store.link("b", "y.png", hash, 5));
+        assertTrue(store.link("b", "y.png", hash, 6));
+        assertFalse(store.link("b", "z.png", "0".repeat(64), 6));
+        assertEquals(hash, store.hashOf("b", "y.png"));
+        assertNull(store.hashOf("b", "z.png"));
+    }
+
+    // Zähler kommen beim Start aus den Manifesten: verwaiste Blobs weg, alte Einzeldateien übernommen
+    @Test
+    void loadRebuildsCountsFromManifests() throws IOException {
+        BlobStore store = open();
+        put(store, "a", "x.png", "inhalt");
+        put(store, "b", "y.png", "inhalt");
+        Path orphan = blobs().resolve("ab").resolve("ab" + "0".repeat(62));
+        Files.createDirectories(orphan.getParent());
+        Files.writeString(orphan, "niemand");
+        Files.writeString(rooms().resolve("b").resolve("alt.pdf"), "inhalt");
+
+        BlobStore again = new BlobStore(blobs(), rooms());
+        BlobStore.LoadStats stats = again.load();
+        assertEquals(1, stats.orphans());
+        assertEquals(1, stats.migrated());
+        assertEquals(3, stats.files());
+        assertEquals(1, again.blobCount());
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(rooms().resolve("b").resolve("alt.pdf")));
+        assertEquals(again.resolve("a", "x.png"), again.resolve("b", "alt.pdf"));
+
+        // eine Referenz weniger reicht nicht zum Löschen
+        again.dropRoom("b");
+        assertTrue(Files.exists(again.resolve("a", "x.png")));
+    }
+
+    @Test
+    void hashesAreLowercaseHexOnly() {
+        assertTrue(BlobStore.isValidHash("0123456789abcdef".repeat(4)));
+        assertFalse(BlobStore.isValidHash("0123456789ABCDEF".repeat(4)));
+        assertFalse(BlobStore.isValidHash("../" + "a".repeat(61)));
+        assertFalse(BlobStore.isValidHash("a".repeat(63)));
+        assertFalse(BlobStore.isValidHash(null));
+    }
+}
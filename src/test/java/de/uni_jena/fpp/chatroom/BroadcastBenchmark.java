@@ -0,0 +1,32 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+
+// user-004: ein CHAT an alle Mitglieder eines Raums. Früher writeUTF pro Empfänger (jedes Mal neu kodiert),
+// jetzt ein Frame, dessen Bytes alle Empfänger teilen. Gemessen wird nur das Kodieren/Schreiben in
+// Streams ohne Ziel, nicht das Netz.
+// java -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.BroadcastBenchmark [mitglieder] [runden]
+final class BroadcastBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int members = Bench.arg(args, 0, 500);
+        int rounds = Bench.arg(args, 1, 20_000);
+        String line = Protocol.buildChat("lobby", "alice", "x".repeat(100));
+
+        DataOutputStream[] outs = new DataOutputStream[members];
+        for (int i = 0; i < members; i++) outs[i] = new DataOutputStream(OutputStream.nullOutputStream());
+
+        Bench.perOp("writeUTF pro Mitglied (v1)", rounds, r -> {
+            for (DataOutputStream out : outs) out.writeUTF(line);
+        });
+        Bench.perOp("ein Frame, geteilt (v1)", rounds, r -> {
+            Frame f = Frame.droppable(line);
+            for (DataOutputStream out : outs) f.writeTo(out, 1);
+        });
+        Bench.perOp("ein Frame, geteilt (v2)", rounds, r -> {
+            Frame f = Frame.droppable(line);
+            for (DataOutputStream out : outs) f.writeTo(out, ProtocolV2.VERSION);
+        });
+    }
+}
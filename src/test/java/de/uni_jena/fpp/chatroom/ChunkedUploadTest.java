@@ -0,0 +1,124 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkedUploadTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] data(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static String sha256(byte[] b) {
+        return HexFormat.of().formatHex(RoomUpload.newDigest().digest(b));
+    }
+
+    private Path room() {
+        return dir.resolve("rooms").resolve("r");
+    }
+
+    private ChunkedUpload open(byte[] content) throws IOException {
+        return ChunkedUpload.open("bob", "r", "a.png", content.length, sha256(content), room());
+    }
+
+    private static void send(ChunkedUpload u, byte[] content, int from, int to) throws IOException {
+        RoomUpload chunk = u.openChunk(from, to - from);
+        chunk.write(ByteBuffer.wrap(content, from, to - from));
+        chunk.commit();
+    }
+
+    @Test
+    void resumesAfterRestartAtTheConfirmedOffset() throws IOException {
+        byte[] content = data(100_000, 1);
+        ChunkedUpload u = open(content);
+        assertEquals(0, u.offset());
+        send(u, content, 0, 30_000);
+        send(u, content, 30_000, 60_000);
+
+        // neuer Server: dieselbe id, Offset aus der Länge der .part-Datei
+        ChunkedUpload again = open(content);
+        assertEquals(u.getId(), again.getId());
+        assertEquals(60_000, again.offset());
+        send(again, content, 60_000, 100_000);
+        assertTrue(again.isComplete());
+        // Hash nach der Wiederaufnahme aus der Datei
+        assertEquals(sha256(content), again.sha256());
+
+        BlobStore blobs = new BlobStore(dir.resolve("blobs"), dir.resolve("rooms"));
+        blobs.load();
+        assertFalse(again.commit(blobs));
+        assertArrayEquals(content, Files.readAllBytes(blobs.resolve("r", "a.png")));
+        assertFalse(again.exists());
+    }
+
+    @Test
+    void otherContentOfTheSameSizeDoesNotResume() throws IOException {
+        byte[] first = data(50_000, 1);
+        byte[] second = data(50_000, 2);
+        ChunkedUpload u = open(first);
+        send(u, first, 0, 20_000);
+
+        ChunkedUpload other = open(second);
+        assertFalse(u.getId().equals(other.getId()));
+        assertEquals(0, other.offset());
+        assertEquals(20_000, open(first).offset());
+    }
+
+    @Test
+    void gapsAndParallelChunksAreRefused() throws IOException {
+        byte[] content = data(10_000, 3);
+        ChunkedUpload u = open(content);
+        assertNull(u.openChunk(1000, 1000));
+        RoomUpload first = u.openChunk(0, 5000);
+        assertNull(u.openChunk(0, 5000));
+        first.write(ByteBuffer.wrap(content, 0, 5000));
+        first.commit();
+        assertThrows(IOException.class, () -> u.sha256());
+
+        // Rücksprung: gleiche Bytes erneut, Hash danach aus der Datei
+        send(u, content, 4000, 10_000);
+        assertEquals(sha256(content), u.sha256());
+    }
+
+    @Test
+    void abortedChunkKeepsItsBytesAndResetStartsOver() throws IOException {
+        byte[] content = data(10_000, 4);
+        ChunkedUpload u = open(content);
+        RoomUpload chunk = u.openChunk(0, 8000);
+        chunk.write(ByteBuffer.wrap(content, 0, 3000));
+        chunk.abort();
+        assertEquals(3000, u.offset());
+
+        send(u, content, 3000, 10_000);
+        u.reset();
+        assertEquals(0, u.offset());
+        assertEquals(0, Files.size(u.getPartFile()));
+    }
+
+    @Test
+    void idsAreHexOnly() throws IOException {
+        assertTrue(ChunkedUpload.isValidId(open(data(10, 5)).getId()));
+        assertFalse(ChunkedUpload.isValidId("../../../etc/passwd0000000000000"));
+        assertFalse(ChunkedUpload.isValidId("abc"));
+        assertFalse(ChunkedUpload.isValidId(null));
+    }
+}
@@ -0,0 +1,117 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileUserRepositoryTest {
+
+    // kleinste erlaubte Zahl, PBKDF2 soll die Tests nicht bremsen
+    private static final int ITERATIONS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    private Path db() {
+        return dir.resolve("users.db");
+    }
+
+    private Path journal() {
+        return dir.resolve("users.db" + FileUserRepository.JOURNAL_SUFFIX);
+    }
+
+    private FileUserRepository open(int compactEvery) {
+        return new FileUserRepository(db().toString(), ITERATIONS, compactEvery);
+    }
+
+    @Test
+    void changesAreAppendedAndReplayedAfterRestart() throws IOException {
+        FileUserRepository repo = open(1000);
+        assertTrue(repo.createUser("alice", "pw1".toCharArray()));
+        assertTrue(repo.createUser("bob", "pw2".toCharArray()));
+        assertFalse(repo.createUser("alice", "anders".toCharArray()));
+        assertTrue(repo.setBanned("bob", true));
+        assertEquals(3, Files.readAllLines(journal()).size());
+        assertFalse(Files.exists(db()));
+
+        FileUserRepository again = open(1000);
+        assertNotNull(again.verifyLogin("alice", "pw1".toCharArray()));
+        assertNull(again.verifyLogin("alice", "pw2".toCharArray()));
+        assertTrue(again.findUser("bob").isBanned());
+        assertEquals(2, again.listUsers().size());
+    }
+
+    @Test
+    void tornLastLineIsCutOff() throws IOException {
+        FileUserRepository repo = open(1000);
+        assertTrue(repo.createUser("alice", "pw".toCharArray()));
+        long size = Files.size(journal());
+        Files.writeString(journal(), "bob;10000;AAAA", StandardOpenOption.APPEND);
+
+        FileUserRepository again = open(1000);
+        assertEquals(size, Files.size(journal()));
+        assertNull(again.findUser("bob"));
+        assertTrue(again.createUser("carol", "pw".toCharArray()));
+        assertNotNull(open(1000).findUser("carol"));
+    }
+
+    @Test
+    void compactionMovesTheJournalIntoTheSnapshot() throws IOException, InterruptedException {
+        FileUserRepository repo = open(3);
+        for (int i = 0; i < 3; i++) assertTrue(repo.createUser("u" + i, "pw".toCharArray()));
+        // Hintergrund-Thread
+        for (int i = 0; i < 200 && (!Files.exists(db()) || Files.size(journal()) > 0); i++) Thread.sleep(10);
+        assertEquals(0, Files.size(journal()));
+        assertEquals(4, Files.readAllLines(db()).size());
+
+        assertTrue(repo.setBanned("u1", true));
+        FileUserRepository again = open(1000);
+        assertEquals(3, again.listUsers().size());
+        assertTrue(again.findUser("u1").isBanned());
+    }
+
+    @Test
+    void controlCharactersAndSeparatorsAreRejected() throws IOException {
+        FileUserRepository repo = open(1000);
+        assertFalse(repo.createUser("foo\nadmin;10000;AAAA;AAAA;false", "pw".toCharArray()));
+        assertFalse(repo.createUser("a;b", "pw".toCharArray()));
+        assertFalse(repo.createUser("a b", "pw".toCharArray()));
+        assertFalse(repo.createUser("a\u0000", "pw".toCharArray()));
+        assertFalse(repo.createUser(" ", "pw".toCharArray()));
+        assertTrue(repo.listUsers().isEmpty());
+        assertFalse(Files.exists(journal()) && Files.size(journal()) > 0);
+    }
+
+    // eine später angehängte Zeile mit anderem Salt/Hash darf das Passwort nicht ersetzen, nur den Ban-Status
+    @Test
+    void laterLinesCannotRedefineCredentials() throws IOException {
+        FileUserRepository repo = open(1000);
+        assertTrue(repo.createUser("alice", "geheim".toCharArray()));
+        User alice = repo.findUser("alice");
+
+        byte[] salt = PasswordUtil.newSalt();
+        byte[] hash = PasswordUtil.pbkdf2("boese".toCharArray(), salt, ITERATIONS);
+        String forged = "alice;" + ITERATIONS + ";" + Base64.getEncoder().encodeToString(salt) + ";"
+                + Base64.getEncoder().encodeToString(hash) + ";false\n";
+        String unban = "alice;" + alice.getIterations() + ";" + Base64.getEncoder().encodeToString(alice.getSalt()) + ";"
+                + Base64.getEncoder().encodeToString(alice.getPasswordHash()) + ";true\n";
+        Files.writeString(journal(), forged + unban, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        FileUserRepository again = open(1000);
+        assertNull(again.verifyLogin("alice", "boese".toCharArray()));
+        assertNotNull(again.verifyLogin("alice", "geheim".toCharArray()));
+        assertTrue(again.findUser("alice").isBanned());
+    }
+}
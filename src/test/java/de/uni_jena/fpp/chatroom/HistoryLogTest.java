@@ -0,0 +1,151 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryLogTest {
+
+    // kleinste erlaubte Segmentgröße, damit wenige tausend Nachrichten mehrere Segmente ergeben
+    private static final long SEGMENT = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private HistoryLog open() {
+        return new HistoryLog(dir, SEGMENT, 0);
+    }
+
+    private static void fill(HistoryLog log, String room, int n) {
+        for (int i = 1; i <= n; i++) log.append(room, "u" + (i % 7), "nachricht " + i);
+        log.flush();
+    }
+
+    private List<Path> files(String room, String suffix) throws IOException {
+        try (Stream<Path> s = Files.list(dir.resolve(room))) {
+            return s.filter(p -> p.getFileName().toString().endsWith(suffix)).sorted().toList();
+        }
+    }
+
+    private static void assertSeqs(List<HistoryLog.Entry> page, long first, long last) {
+        assertEquals(last - first + 1, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(first + i, page.get(i).seq());
+            assertEquals("nachricht " + (first + i), page.get(i).text());
+        }
+    }
+
+    @Test
+    void seqsContinueAcrossRestartAndSegments() throws IOException {
+        fill(open(), "r", 3000);
+        assertTrue(files("r", ".log").size() > 1);
+
+        HistoryLog log = open();
+        assertSeqs(log.tail("r", 50), 2951, 3000);
+        assertEquals(3001, log.append("r", "x", "nachricht 3001"));
+        log.flush();
+        assertSeqs(log.tail("r", 3), 2999, 3001);
+    }
+
+    @Test
+    void readSeeksThroughIndexAcrossSegments() {
+        HistoryLog log = open();
+        fill(log, "r", 3000);
+        for (long before : new long[] {2, 33, 64, 65, 1000, 1777, 2500, 3001}) {
+            List<HistoryLog.Entry> page = log.read("r", before, 40);
+            assertSeqs(page, Math.max(1, before - 40), before - 1);
+        }
+        assertTrue(log.read("r", 1, 10).isEmpty());
+        assertTrue(log.read("r", 5000, 3).isEmpty());
+    }
+
+    @Test
+    void tornTailIsCutOffOnOpen() throws IOException {
+        fill(open(), "r", 500);
+        Path last = files("r", ".log").get(files("r", ".log").size() - 1);
+        long size = Files.size(last);
+        // halber Datensatz am Ende, wie nach einem Absturz mitten im Schreiben
+        try (FileChannel fc = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            fc.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 100, 1, 2, 3}));
+        }
+
+        HistoryLog log = open();
+        assertSeqs(log.tail("r", 5), 496, 500);
+        assertEquals(size, Files.size(last));
+        assertEquals(501, log.append("r", "x", "nachricht 501"));
+        log.flush();
+        assertSeqs(log.tail("r", 5), 497, 501);
+    }
+
+    @Test
+    void corruptRecordEndsTheValidPrefix() throws IOException {
+        fill(open(), "r", 10);
+        Path seg = files("r", ".log").get(0);
+        // Text des 6. Datensatzes verändern -> CRC passt nicht mehr, ab dort gilt nichts
+        List<HistoryLog.Entry> entries = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        HistoryLog.readSegment(seg, entries, offsets);
+        try (FileChannel fc = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+            fc.write(ByteBuffer.wrap(new byte[] {'X'}), offsets.get(5) + 40);
+        }
+
+        HistoryLog log = open();
+        assertSeqs(log.tail("r", 100), 1, 5);
+        assertEquals(6, log.append("r", "x", "nachricht 6"));
+    }
+
+    @Test
+    void missingOrStaleIndexIsRebuilt() throws IOException {
+        fill(open(), "r", 1000);
+        for (Path idx : files("r", ".idx")) Files.delete(idx);
+        HistoryLog log = open();
+        assertSeqs(log.read("r", 400, 50), 350, 399);
+        assertSeqs(log.tail("r", 10), 991, 1000);
+
+        // Index zeigt hinter das Segmentende (Index überlebt, Daten nicht)
+        Path lastIdx = files("r", ".idx").get(files("r", ".idx").size() - 1);
+        try (FileChannel fc = FileChannel.open(lastIdx, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            fc.write(ByteBuffer.allocate(16).putLong(5000).putLong(Long.MAX_VALUE / 2).flip());
+        }
+        log = open();
+        assertEquals(1001, log.append("r", "x", "nachricht 1001"));
+        log.flush();
+        assertSeqs(log.read("r", 1002, 40), 962, 1001);
+    }
+
+    @Test
+    void dropDeletesOnlyTheRoom() throws IOException {
+        HistoryLog log = open();
+        fill(log, "a", 20);
+        fill(log, "b", 20);
+        log.drop("a");
+        assertTrue(Files.notExists(dir.resolve("a")));
+        assertSeqs(log.tail("b", 20), 1, 20);
+        assertEquals(1, log.append("a", "x", "nachricht 1"));
+    }
+
+    @Test
+    void roomNamesCannotEscapeTheDirectory() throws IOException {
+        Path keep = Files.createFile(dir.resolve("keep"));
+        HistoryLog log = new HistoryLog(dir.resolve("history"), SEGMENT, 0);
+        log.drop("..");
+        log.drop("../keep");
+        log.drop(".");
+        assertTrue(Files.exists(keep));
+        assertThrows(IllegalArgumentException.class, () -> log.append("../x", "u", "t"));
+        assertThrows(IllegalArgumentException.class, () -> log.append(".", "u", "t"));
+    }
+}
@@ -0,0 +1,89 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// user-017: ein Schreiber (Chat in einem vollen Raum) gegen R Leser, die wie bei einem Join die letzten
+// 200 Einträge kopieren. Vorher: ArrayDeque unter synchronized, jetzt HistoryRing ohne Lock.
+// Ausgabe: Kopien pro Sekunde und längste Wartezeit des Schreibers auf einen Eintrag.
+// java -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.HistoryRingBenchmark [sekunden] [leser...]
+final class HistoryRingBenchmark {
+
+    private static final int SIZE = 200;
+
+    interface History {
+        void add(Long e);
+        List<Long> tail(int max);
+    }
+
+    // die frühere Variante in ChatServer
+    static final class Locked implements History {
+        private final ArrayDeque<Long> q = new ArrayDeque<>();
+
+        @Override
+        public synchronized void add(Long e) {
+            q.addLast(e);
+            if (q.size() > SIZE) q.removeFirst();
+        }
+
+        @Override
+        public synchronized List<Long> tail(int max) {
+            List<Long> out = new ArrayList<>(q);
+            return out.subList(Math.max(0, out.size() - max), out.size());
+        }
+    }
+
+    static final class Ring implements History {
+        private final HistoryRing<Long> ring = new HistoryRing<>(SIZE + 1);
+
+        @Override
+        public void add(Long e) { ring.add(e); }
+
+        @Override
+        public List<Long> tail(int max) { return ring.tail(max); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = Bench.arg(args, 0, 3);
+        int[] readers = args.length > 1 ? new int[args.length - 1] : new int[] {1, 4, 16};
+        for (int i = 1; i < args.length; i++) readers[i - 1] = Integer.parseInt(args[i]);
+
+        for (int r : readers) {
+            run("synchronized ArrayDeque", new Locked(), r, seconds);
+            run("HistoryRing", new Ring(), r, seconds);
+        }
+    }
+
+    private static void run(String name, History h, int readers, int seconds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder snapshots = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            Thread t = new Thread(() -> {
+                while (!stop.get()) {
+                    if (h.tail(SIZE).size() > SIZE) throw new AssertionError();
+                    snapshots.increment();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        long writes = 0;
+        long maxStall = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            long t0 = System.nanoTime();
+            h.add(writes++);
+            maxStall = Math.max(maxStall, System.nanoTime() - t0);
+        }
+        stop.set(true);
+        for (Thread t : threads) t.join();
+
+        System.out.printf("%-24s R=%-3d snapshots/s %,12d  writes/s %,12d  max writer stall %,8d us%n",
+                name, readers, snapshots.sum() / seconds, writes / seconds, maxStall / 1000);
+    }
+}
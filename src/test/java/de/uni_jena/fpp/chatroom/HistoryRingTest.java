@@ -0,0 +1,75 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class HistoryRingTest {
+
+    @Test
+    void capacityIsRoundedUpAndOneSlotStaysFree() {
+        assertEquals(127, new HistoryRing<Long>(101).capacity());
+        assertEquals(127, new HistoryRing<Long>(128).capacity());
+        assertEquals(255, new HistoryRing<Long>(129).capacity());
+        assertEquals(3, new HistoryRing<Long>(1).capacity());
+    }
+
+    @Test
+    void tailReturnsTheNewestOldestFirst() {
+        HistoryRing<Long> ring = new HistoryRing<>(8);
+        assertTrue(ring.tail(5).isEmpty());
+        for (long i = 1; i <= 5; i++) ring.add(i);
+        assertEquals(List.of(3L, 4L, 5L), ring.tail(3));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), ring.tail(100));
+
+        // über das Array-Ende hinaus: zwei Blockkopien
+        for (long i = 6; i <= 20; i++) ring.add(i);
+        assertEquals(20, ring.count());
+        assertEquals(List.of(14L, 15L, 16L, 17L, 18L, 19L, 20L), ring.tail(100));
+        assertEquals(List.of(19L, 20L), ring.tail(2));
+        assertTrue(ring.tail(0).isEmpty());
+    }
+
+    // Leser laufen gegen einen Schreiber: jedes Ergebnis muss eine lückenlose, aufsteigende Folge sein,
+    // die mit einem tatsächlich geschriebenen Wert endet (nichts halb Überschriebenes)
+    @Test
+    void readersNeverSeeOverwrittenSlots() throws InterruptedException {
+        HistoryRing<Long> ring = new HistoryRing<>(16);
+        long writes = 2_000_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> error = new AtomicReference<>();
+
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (!done.get() && error.get() == null) {
+                    long before = ring.count();
+                    List<Long> t = ring.tail(15);
+                    long after = ring.count();
+                    for (int i = 0; i < t.size(); i++) {
+                        Long v = t.get(i);
+                        if (v == null || (i > 0 && v != t.get(i - 1) + 1)) {
+                            error.set("Lücke: " + t);
+                            return;
+                        }
+                    }
+                    if (!t.isEmpty() && (t.get(t.size() - 1) < before - 15 || t.get(t.size() - 1) > after)) {
+                        error.set("veraltet: " + t + " count " + before + ".." + after);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (long i = 1; i <= writes; i++) ring.add(i);
+        done.set(true);
+        for (Thread t : readers) t.join();
+
+        assertEquals(null, error.get());
+        assertEquals(List.of(writes - 1, writes), ring.tail(2));
+    }
+}
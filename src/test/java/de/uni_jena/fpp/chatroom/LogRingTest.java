@@ -0,0 +1,73 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+class LogRingTest {
+
+    @Test
+    void fullRingRefusesUntilPolled() {
+        LogRing<Integer> ring = new LogRing<>(5);
+        assertEquals(8, ring.capacity());
+        assertNull(ring.poll());
+        for (int i = 0; i < 8; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(8));
+        assertEquals(8, ring.size());
+
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(8));
+        assertFalse(ring.offer(9));
+        for (int i = 1; i <= 8; i++) assertEquals(i, (int) ring.poll());
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    // mehrere Schreiber, ein Leser: jeder angenommene Eintrag kommt genau einmal an,
+    // pro Schreiber in seiner Reihenfolge
+    @Test
+    void everyAcceptedEntryArrivesOnceInWriterOrder() throws InterruptedException {
+        LogRing<long[]> ring = new LogRing<>(64);
+        int writers = 4;
+        int perWriter = 200_000;
+        long[] accepted = new long[writers];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            threads[w] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perWriter; i++) {
+                    if (ring.offer(new long[] {id, accepted[id]})) accepted[id]++;
+                }
+            });
+            threads[w].start();
+        }
+
+        long[] next = new long[writers];
+        start.countDown();
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread t : threads) running |= t.isAlive();
+            long[] e;
+            while ((e = ring.poll()) != null) {
+                assertEquals(next[(int) e[0]], e[1], "Schreiber " + e[0]);
+                next[(int) e[0]]++;
+            }
+        }
+        for (Thread t : threads) t.join();
+        long[] e;
+        while ((e = ring.poll()) != null) next[(int) e[0]]++;
+        for (int w = 0; w < writers; w++) assertEquals(accepted[w], next[w], "Schreiber " + w);
+    }
+}
@@ -0,0 +1,65 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+// user-007/user-008: Kodieren + Dekodieren einer CHAT-Zeile (v1 writeUTF/readUTF + Regex-Split gegen v2)
+// und Kosten pro Kommando beim Zerlegen (Split gegen Tokens, Text und v2).
+// java -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.ProtocolBenchmark [iterationen]
+final class ProtocolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = Bench.arg(args, 0, 2_000_000);
+        String chat = Protocol.buildChat("lobby", "alice", "Hallo zusammen, wer kommt heute zum Treffen? ä");
+        String msg = Protocol.buildMsg("Hallo zusammen, wer kommt heute zum Treffen? ä");
+
+        // v1: Länge + Modified UTF-8, beim Lesen ein String und danach Split
+        ByteArrayOutputStream v1Out = new ByteArrayOutputStream();
+        DataOutputStream v1Data = new DataOutputStream(v1Out);
+        Bench.perOp("v1 writeUTF+readUTF+split CHAT", n, i -> {
+            v1Out.reset();
+            v1Data.writeUTF(chat);
+            String line = new DataInputStream(new ByteArrayInputStream(v1Out.toByteArray())).readUTF();
+            if (line.trim().split("\\s+", 4).length != 4) throw new AssertionError();
+        });
+
+        Tokens v2 = new Tokens();
+        Bench.perOp("v2 encode+read CHAT", n, i -> {
+            byte[] frame = ProtocolV2.encodeLine(chat);
+            v2.read(new DataInputStream(new ByteArrayInputStream(frame)), ProtocolV2.VERSION);
+            if (v2.opcode() != ProtocolV2.OP_CHAT) throw new AssertionError();
+        });
+
+        // nur Zerlegen, Eingabe liegt schon vor
+        Bench.perOp("regex split MSG", n, i -> {
+            String[] p = msg.trim().split("\\s+", 2);
+            if (!p[0].equals(Protocol.CMD_MSG)) throw new AssertionError();
+        });
+        Bench.perOp("split(\" \", 2) MSG", n, i -> {
+            String[] p = msg.split(" ", 2);
+            if (!p[0].equals(Protocol.CMD_MSG)) throw new AssertionError();
+        });
+        Tokens text = new Tokens();
+        Bench.perOp("Tokens text MSG", n, i -> {
+            if (text.parse(msg).opcode() != ProtocolV2.OP_MSG) throw new AssertionError();
+        });
+
+        byte[] msgFrame = ProtocolV2.encodeLine(msg);
+        byte[] chatFrame = ProtocolV2.encodeLine(chat);
+        long msgPeek = ProtocolV2.peekLength(ByteBuffer.wrap(msgFrame));
+        long chatPeek = ProtocolV2.peekLength(ByteBuffer.wrap(chatFrame));
+        Tokens bin = new Tokens();
+        Bench.perOp("Tokens v2 MSG", n, i -> {
+            if (bin.parse(msgFrame, (int) (msgPeek >>> 32), (int) msgPeek).opcode() != ProtocolV2.OP_MSG) {
+                throw new AssertionError();
+            }
+        });
+        Bench.perOp("Tokens v2 CHAT + is()", n, i -> {
+            bin.parse(chatFrame, (int) (chatPeek >>> 32), (int) chatPeek);
+            if (!bin.is(1, "lobby")) throw new AssertionError();
+        });
+    }
+}
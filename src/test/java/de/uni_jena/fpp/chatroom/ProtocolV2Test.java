@@ -0,0 +1,168 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+// Kompatibilität v1 <-> v2: Textzeile -> v2-Frame -> Tokens muss für jeden Opcode dieselben Felder liefern
+class ProtocolV2Test {
+
+    private static Tokens readV2(byte[] frame) throws IOException {
+        return new Tokens().read(new DataInputStream(new ByteArrayInputStream(frame)), ProtocolV2.VERSION);
+    }
+
+    // Frame aus Opcode und rohen Feldern, ohne über eine Textzeile zu gehen
+    private static byte[] frame(int opcode, String... fields) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(opcode);
+        for (String f : fields) {
+            byte[] b = f.getBytes(StandardCharsets.UTF_8);
+            byte[] len = new byte[5];
+            payload.write(len, 0, ProtocolV2.putVarint(len, 0, b.length));
+            payload.write(b, 0, b.length);
+        }
+        byte[] body = payload.toByteArray();
+        byte[] out = new byte[ProtocolV2.varintSize(body.length) + body.length];
+        int p = ProtocolV2.putVarint(out, 0, body.length);
+        System.arraycopy(body, 0, out, p, body.length);
+        return out;
+    }
+
+    @Test
+    void everyOpcodeRoundTripsThroughV2() throws IOException {
+        int opcodes = 0;
+        for (int op = 0; op < 256; op++) {
+            String name = ProtocolV2.name(op);
+            if (name == null || op == ProtocolV2.OP_TEXT) continue;
+            opcodes++;
+
+            int arity = ProtocolV2.arity(op);
+            StringBuilder line = new StringBuilder(name);
+            for (int i = 1; i <= arity; i++) {
+                line.append(' ').append("f").append(i);
+                // Rest-Feld: Leerzeichen und Umlaute müssen erhalten bleiben
+                if (i == arity && ProtocolV2.isRest(op)) line.append(" mit Leerzeichen ä€😀");
+            }
+
+            Tokens v1 = new Tokens().parse(line.toString());
+            assertEquals(op, v1.opcode(), name);
+            byte[] encoded = ProtocolV2.encodeLine(line.toString());
+
+            long peek = ProtocolV2.peekLength(ByteBuffer.wrap(encoded));
+            assertEquals(encoded.length, (int) (peek >>> 32) + (int) peek, name);
+
+            Tokens v2 = readV2(encoded);
+            assertEquals(op, v2.opcode(), name);
+            assertEquals(arity, v2.fields(), name);
+            for (int i = 1; i <= arity; i++) {
+                assertEquals(v1.get(i), v2.get(i), name + " Feld " + i);
+                assertTrue(v2.is(i, v1.get(i)), name + " Feld " + i);
+            }
+            assertEquals(line.toString(), v2.toLine());
+            // erneut kodiert (v2 -> v2) und als Kopie: byte-gleich
+            assertArrayEquals(encoded, v2.encodeV2(), name);
+            assertArrayEquals(encoded, v2.copy().encodeV2(), name);
+        }
+        assertTrue(opcodes > 40);
+    }
+
+    @Test
+    void unknownCommandTravelsAsText() throws IOException {
+        Tokens t = readV2(ProtocolV2.encodeLine("FOO bar baz"));
+        assertEquals(ProtocolV2.OP_TEXT, t.opcode());
+        assertEquals("FOO bar baz", t.toLine());
+    }
+
+    @Test
+    void missingTrailingFieldsAreEmpty() throws IOException {
+        Tokens t = readV2(frame(ProtocolV2.OP_DOWNLOAD_RANGE, "a.txt"));
+        assertEquals("a.txt", t.get(1));
+        assertTrue(t.isEmpty(2));
+        assertEquals("", t.get(4));
+    }
+
+    @Test
+    void varintBoundaries() throws IOException {
+        int[] values = {0, 1, 127, 128, 16_383, 16_384, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        for (int i = 0; i < values.length; i++) {
+            byte[] buf = new byte[5];
+            int n = ProtocolV2.putVarint(buf, 0, values[i]);
+            assertEquals(sizes[i], n, "Länge für " + values[i]);
+            assertEquals(sizes[i], ProtocolV2.varintSize(values[i]));
+            assertEquals(values[i], ProtocolV2.readVarint(new DataInputStream(new ByteArrayInputStream(buf, 0, n))));
+        }
+        byte[] tooLong = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertThrows(IOException.class, () -> ProtocolV2.readVarint(new DataInputStream(new ByteArrayInputStream(tooLong))));
+        assertThrows(IOException.class, () -> ProtocolV2.peekLength(ByteBuffer.wrap(tooLong)));
+        // unvollständiger Varint: NIO wartet auf mehr Bytes
+        assertEquals(-1, ProtocolV2.peekLength(ByteBuffer.wrap(new byte[] {(byte) 0x80})));
+    }
+
+    @Test
+    void maxFrameIsEnforced() throws IOException {
+        // Payload = Opcode + 3 Byte Längen-Varint + Text
+        int fits = ProtocolV2.MAX_FRAME - 4;
+        byte[] encoded = ProtocolV2.encodeLine("MSG " + "x".repeat(fits));
+        assertEquals(fits, readV2(encoded).get(1).length());
+
+        assertThrows(IOException.class, () -> ProtocolV2.encodeLine("MSG " + "x".repeat(fits + 1)));
+
+        byte[] header = new byte[5];
+        int n = ProtocolV2.putVarint(header, 0, ProtocolV2.MAX_FRAME + 1);
+        byte[] oversized = Arrays.copyOf(header, n);
+        assertThrows(IOException.class, () -> readV2(oversized));
+        assertThrows(IOException.class, () -> ProtocolV2.peekLength(ByteBuffer.wrap(oversized)));
+        assertThrows(IOException.class, () -> readV2(new byte[] {0}));
+    }
+
+    @Test
+    void fieldLengthBeyondFrameIsRejected() {
+        // Feld behauptet 10 Bytes, der Frame hat nur 2
+        byte[] broken = {4, (byte) ProtocolV2.OP_JOIN, 10, 'a', 'b'};
+        assertThrows(IOException.class, () -> readV2(broken));
+    }
+
+    @Test
+    void controlBytesStayInsideTheirField() throws IOException {
+        // v2 trennt nicht an Whitespace: \n und \r bleiben Teil des Feldes, die Namensprüfung muss sie abfangen
+        Tokens t = readV2(frame(ProtocolV2.OP_REGISTER, "foo\nadmin", "pw\r\n\0x"));
+        assertEquals(ProtocolV2.OP_REGISTER, t.opcode());
+        assertEquals("foo\nadmin", t.get(1));
+        assertEquals("pw\r\n\0x", t.get(2));
+        assertFalse(t.is(1, "foo"));
+        assertArrayEquals(frame(ProtocolV2.OP_REGISTER, "foo\nadmin", "pw\r\n\0x"), t.encodeV2());
+
+        // v1 kennt das nicht: dort endet der Name am Zeilenumbruch
+        Tokens v1 = new Tokens().parse("REGISTER foo\nadmin pw");
+        assertEquals("foo", v1.get(1));
+    }
+
+    @Test
+    void helloFallsBackToV1() {
+        assertEquals(2, ProtocolV2.negotiate(new Tokens().parse("HELLO 2"), 2));
+        assertEquals(2, ProtocolV2.negotiate(new Tokens().parse("HELLO 9"), 2));
+        // Server mit protocol.version=1 bleibt beim Text
+        assertEquals(1, ProtocolV2.negotiate(new Tokens().parse("HELLO 2"), 1));
+        assertEquals(1, ProtocolV2.negotiate(new Tokens().parse("HELLO zwei"), 2));
+        assertEquals(1, ProtocolV2.negotiate(new Tokens().parse("HELLO"), 2));
+        assertEquals(1, ProtocolV2.negotiate(new Tokens().parse("HELLO -5"), 2));
+
+        assertTrue(ProtocolV2.accepted(new Tokens().parse(Protocol.buildHelloOk(2))));
+        assertFalse(ProtocolV2.accepted(new Tokens().parse(Protocol.buildHelloOk(1))));
+        // älterer Server kennt HELLO nicht
+        assertFalse(ProtocolV2.accepted(new Tokens().parse("ERROR Unbekanntes Kommando: HELLO")));
+    }
+}
@@ -0,0 +1,277 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+// Last gegen einen ChatServer im selben Prozess, über Loopback:
+//   idle <engine> [verbindungen]                     user-002: OS-Threads und Heap bei vielen offenen Verbindungen
+//   download <engine> [clients] [MB] [runden]        user-005: Durchsatz paralleler DOWNLOADs einer großen PDF
+//   rooms <engine> [räume] [mitglieder] [nachr.]     user-010: Zustellungen/s bei vielen vollen Räumen
+//                                                    (Shards über server.room.shards in chatroom.properties)
+//   storm <engine> [clients]                         user-024: Login-Sturm, dann Serverneustart mit RESUME
+// Der Server legt data/ im Arbeitsverzeichnis an -> aus einem leeren Verzeichnis starten. Bei vielen
+// Verbindungen braucht der Prozess zwei Dateideskriptoren pro Verbindung (ulimit -n).
+// java -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.ServerLoadBenchmark idle virtual 5000
+final class ServerLoadBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 5099;
+    private static final String PASSWORD = "pw";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "idle";
+        String engine = args.length > 1 ? args[1] : ChatServer.ENGINE_PLATFORM;
+        switch (mode) {
+            case "idle" -> idle(engine, Bench.arg(args, 2, 5000));
+            case "download" -> download(engine, Bench.arg(args, 2, 8), Bench.arg(args, 3, 50), Bench.arg(args, 4, 3));
+            case "rooms" -> rooms(engine, Bench.arg(args, 2, 8), Bench.arg(args, 3, 5), Bench.arg(args, 4, 100));
+            case "storm" -> storm(engine, Bench.arg(args, 2, 5000));
+            default -> System.err.println("Modus: idle | download | rooms | storm");
+        }
+        System.exit(0);
+    }
+
+    // ---------- user-002 ----------
+
+    private static void idle(String engine, int connections) throws Exception {
+        startServer(engine, users(0));
+        int before = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heap = Bench.usedHeap();
+
+        List<Socket> open = new ArrayList<>();
+        for (int i = 0; i < connections; i++) open.add(new Socket(HOST, PORT));
+        TimeUnit.SECONDS.sleep(2);
+
+        System.out.printf("engine=%s verbindungen=%d  Threads %d -> %d  Heap +%,d MB%n", engine, open.size(), before,
+                ManagementFactory.getThreadMXBean().getThreadCount(), (Bench.usedHeap() - heap) >> 20);
+        for (Socket s : open) s.close();
+    }
+
+    // ---------- user-005 ----------
+
+    private static void download(String engine, int clients, int mb, int rounds) throws Exception {
+        // liegt die Datei schon im Raumordner, übernimmt BlobStore.load() sie beim Start
+        Path pdf = Path.of("data", "rooms", ChatServer.DEFAULT_ROOM, "bench.pdf");
+        Files.createDirectories(pdf.getParent());
+        byte[] content = new byte[mb << 20];
+        new Random(1).nextBytes(content);
+        Files.write(pdf, content);
+
+        startServer(engine, users(clients));
+        List<Raw> raws = new ArrayList<>();
+        for (int i = 0; i < clients; i++) raws.add(Raw.login("u" + i));
+
+        AtomicLong bytes = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(clients);
+        long t0 = System.nanoTime();
+        for (Raw r : raws) {
+            Thread.ofPlatform().start(() -> {
+                byte[] buf = new byte[64 * 1024];
+                try {
+                    for (int k = 0; k < rounds; k++) {
+                        r.send(Protocol.buildDownload(ChatServer.DEFAULT_ROOM, "bench.pdf"));
+                        String header = r.await(Protocol.RES_FILE + " ");
+                        long size = Long.parseLong(header.substring(header.lastIndexOf(' ') + 1));
+                        for (long left = size; left > 0; ) {
+                            int n = r.in.read(buf, 0, (int) Math.min(buf.length, left));
+                            if (n < 0) throw new IOException("EOF");
+                            left -= n;
+                        }
+                        bytes.addAndGet(size);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Download: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("engine=%s clients=%d datei=%d MB runden=%d  %,.0f MB/s%n", engine, clients, mb, rounds,
+                bytes.get() / secs / (1 << 20));
+    }
+
+    // ---------- user-010 ----------
+
+    private static void rooms(String engine, int rooms, int members, int messages) throws Exception {
+        startServer(engine, users(rooms * members));
+        AtomicLong delivered = new AtomicLong();
+        List<Raw[]> all = new ArrayList<>();
+        for (int r = 0; r < rooms; r++) {
+            Raw[] room = new Raw[members];
+            for (int m = 0; m < members; m++) {
+                room[m] = Raw.login("u" + (r * members + m));
+                if (m == 0) room[m].send(Protocol.buildCreateRoom("r" + r));
+                room[m].send(Protocol.buildJoin("r" + r));
+            }
+            all.add(room);
+        }
+        TimeUnit.SECONDS.sleep(1);
+        for (Raw[] room : all) {
+            for (Raw c : room) {
+                Thread.ofPlatform().daemon(true).start(() -> {
+                    try {
+                        while (true) {
+                            if (c.in.readUTF().startsWith(Protocol.RES_CHAT + " ")) delivered.incrementAndGet();
+                        }
+                    } catch (IOException end) {
+                    }
+                });
+            }
+        }
+
+        long expected = (long) rooms * members * messages;
+        long t0 = System.nanoTime();
+        for (Raw[] room : all) {
+            Raw sender = room[0];
+            Thread.ofPlatform().start(() -> {
+                try {
+                    for (int k = 0; k < messages; k++) sender.send(Protocol.buildMsg("nachricht " + k));
+                } catch (IOException e) {
+                    System.err.println("Senden: " + e.getMessage());
+                }
+            });
+        }
+        // fertig, wenn alles angekommen ist oder 5 s lang nichts mehr
+        long last = -1;
+        long lastChange = System.nanoTime();
+        while (delivered.get() < expected && System.nanoTime() - lastChange < 5_000_000_000L) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            if (delivered.get() != last) {
+                last = delivered.get();
+                lastChange = System.nanoTime();
+            }
+        }
+        double secs = (Math.min(System.nanoTime(), lastChange) - t0) / 1e9;
+        System.out.printf("engine=%s shards=%d kerne=%d räume=%d x %d  zugestellt %d/%d  %,.0f/s%n", engine,
+                Config.getRoomShards(), Runtime.getRuntime().availableProcessors(), rooms, members,
+                delivered.get(), expected, delivered.get() / secs);
+    }
+
+    // ---------- user-024 ----------
+
+    private static void storm(String engine, int clients) throws Exception {
+        UserRepository repo = users(clients);
+        ChatServer server = startServer(engine, repo);
+
+        CountDownLatch[] loggedIn = {new CountDownLatch(clients)};
+        List<ChatClient> cs = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            ChatClient c = new ChatClient(HOST, PORT);
+            c.addListener(new ChatClientListener() {
+                @Override
+                public void onInfo(String text) {
+                    if (text.startsWith(Protocol.RES_LOGIN_OK)) loggedIn[0].countDown();
+                }
+            });
+            cs.add(c);
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            cs.get(i).connect();
+            cs.get(i).login("u" + i, PASSWORD);
+        }
+        boolean all = loggedIn[0].await(10, TimeUnit.MINUTES);
+        System.out.printf("Login-Sturm: %d/%d angemeldet nach %,d ms%n", clients - loggedIn[0].getCount(), clients,
+                (System.nanoTime() - t0) / 1_000_000);
+        if (!all) return;
+
+        // Neustart: Clients merken den Abbruch und melden sich mit Backoff + Jitter per RESUME wieder an
+        loggedIn[0] = new CountDownLatch(clients);
+        server.stop();
+        TimeUnit.SECONDS.sleep(2);
+        t0 = System.nanoTime();
+        startServer(engine, repo);
+        loggedIn[0].await(10, TimeUnit.MINUTES);
+        System.out.printf("Neustart: %d/%d wieder angemeldet nach %,d ms%n", clients - loggedIn[0].getCount(), clients,
+                (System.nanoTime() - t0) / 1_000_000);
+        for (ChatClient c : cs) c.disconnect();
+    }
+
+    // ---------- Hilfen ----------
+
+    // Konten u0..u(n-1) mit Passwort PASSWORD; PBKDF2 mit der kleinsten erlaubten Iterationszahl
+    private static UserRepository users(int n) throws IOException {
+        Path dir = Files.createTempDirectory("loadbench");
+        UserRepository repo = new FileUserRepository(dir.resolve("users.db").toString(), 10_000, Integer.MAX_VALUE);
+        IntStream.range(0, n).parallel().forEach(i -> repo.createUser("u" + i, PASSWORD.toCharArray()));
+        return repo;
+    }
+
+    private static ChatServer startServer(String engine, UserRepository repo) throws Exception {
+        ServerLogger logger = new ServerLogger(Path.of("data", "bench.log").toString());
+        ChatServer server = new ChatServer(PORT, repo, logger, engine);
+        Thread.ofPlatform().name("bench-server").daemon(true).start(server::start);
+        for (int i = 0; ; i++) {
+            try (Socket probe = new Socket(HOST, PORT)) {
+                return server;
+            } catch (IOException e) {
+                if (i == 100) throw e;
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+
+    // Textprotokoll-Client ohne HELLO, liest selbst
+    static final class Raw implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        private Raw() throws IOException {
+            socket = new Socket(HOST, PORT);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // LOGIN, bei BUSY nach dem Hinweis des Servers erneut
+        static Raw login(String user) throws IOException, InterruptedException {
+            Raw r = new Raw();
+            while (true) {
+                r.send(Protocol.buildLogin(user, PASSWORD));
+                String reply = r.await(Protocol.RES_LOGIN_OK, Protocol.RES_LOGIN_FAILED);
+                if (reply.startsWith(Protocol.RES_LOGIN_OK)) return r;
+                if (!reply.contains(Protocol.REASON_BUSY)) throw new IOException(reply);
+                TimeUnit.MILLISECONDS.sleep(Long.parseLong(reply.substring(reply.lastIndexOf(' ') + 1)));
+            }
+        }
+
+        void send(String line) throws IOException {
+            out.writeUTF(line);
+            out.flush();
+        }
+
+        // nächste Zeile mit einem der Anfänge, alles davor wird übersprungen
+        String await(String... prefixes) throws IOException {
+            while (true) {
+                String line = in.readUTF();
+                for (String p : prefixes) {
+                    if (line.startsWith(p)) return line;
+                }
+                if (line.startsWith(Protocol.RES_DOWNLOAD_FAILED)) throw new IOException(line);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// user-025: Latenz von log.info() aus T Threads, synchron (server.log.buffer=0) gegen den Ringpuffer.
+// Mit zeilen/s > 0 loggen die Threads zusammen in diesem Takt (wie ein Server unter Last), sonst so schnell es geht.
+// Das Verhalten bei vollem Ring kommt aus server.log.overflow in chatroom.properties.
+// java -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.ServerLoggerBenchmark [threads] [zeilen/thread] [zeilen/s, 0 = ungebremst]
+final class ServerLoggerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = Bench.arg(args, 0, 4);
+        int lines = Bench.arg(args, 1, 50_000);
+        int rate = Bench.arg(args, 2, 25_000);
+        Path dir = Files.createTempDirectory("logbench");
+
+        for (int round = 0; round < 2; round++) {
+            // erste Runde zum Aufwärmen
+            boolean print = round == 1;
+            run("sync", dir.resolve("sync" + round + ".log"), 0, threads, lines, rate, print);
+            run("async", dir.resolve("async" + round + ".log"), Config.getLogBufferLines(), threads, lines, rate, print);
+        }
+    }
+
+    private static void run(String name, Path file, int buffer, int threads, int lines, int rate, boolean print)
+            throws Exception {
+        ServerLogger log = new ServerLogger(file.toString(), 500, buffer);
+        long[][] lat = new long[threads][lines];
+        long pause = rate > 0 ? 1_000_000_000L * threads / rate : 0;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            ts[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long next = System.nanoTime();
+                for (int i = 0; i < lines; i++) {
+                    long t0 = System.nanoTime();
+                    log.info("MSG user=u" + id + " room=lobby len=" + i);
+                    lat[id][i] = System.nanoTime() - t0;
+                    if (pause > 0) {
+                        next += pause;
+                        LockSupport.parkNanos(next - System.nanoTime());
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : ts) t.join();
+        long callers = System.nanoTime() - t0;
+        log.close();
+        long written;
+        try (Stream<String> s = Files.lines(file)) {
+            written = s.count();
+        }
+
+        if (!print) return;
+        long[] all = new long[threads * lines];
+        for (int t = 0; t < threads; t++) System.arraycopy(lat[t], 0, all, t * lines, lines);
+        System.out.printf("%-6s p50 %6.2f us  p99 %6.2f us  max %8.1f us  %,10d lines/s  written %d/%d%n", name,
+                Bench.percentile(all, all.length, 50) / 1000.0, Bench.percentile(all, all.length, 99) / 1000.0,
+                Bench.percentile(all, all.length, 100) / 1000.0, all.length * 1_000_000_000L / callers,
+                written, all.length);
+    }
+}
@@ -0,0 +1,92 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionTokensTest {
+
+    private static final long TTL = 60_000;
+
+    @TempDir
+    Path dir;
+
+    private Path keyFile() {
+        return dir.resolve("session.key");
+    }
+
+    // ausgestellt und widerrufen in derselben Millisekunde zählt als widerrufen -> danach kurz warten
+    private static void nextMillis() throws InterruptedException {
+        Thread.sleep(2);
+    }
+
+    @Test
+    void issuedTokenVerifiesAndSurvivesRestart() throws IOException {
+        String token = new SessionTokens(keyFile(), TTL).issue("änne");
+        SessionTokens.Session s = new SessionTokens(keyFile(), TTL).verify(token);
+        assertEquals("änne", s.username());
+        assertEquals(s.issuedAt() + TTL, s.expiresAt());
+        assertEquals(32, Files.size(keyFile()));
+    }
+
+    @Test
+    void tamperedOrExpiredTokensAreRejected() throws IOException {
+        SessionTokens tokens = new SessionTokens(keyFile(), TTL);
+        String token = tokens.issue("bob");
+        int dot = token.indexOf('.');
+        String other = Base64.getUrlEncoder().withoutPadding().encodeToString("eve".getBytes());
+        assertNull(tokens.verify(other + token.substring(dot)));
+        assertNull(tokens.verify(token.substring(0, token.length() - 2) + "AA"));
+        assertNull(tokens.verify("kaputt"));
+        assertNull(tokens.verify(null));
+
+        // anderer Schlüssel
+        Files.delete(keyFile());
+        assertNull(new SessionTokens(keyFile(), TTL).verify(token));
+        assertNull(new SessionTokens(dir.resolve("k2"), -1).verify(new SessionTokens(dir.resolve("k2"), -1).issue("bob")));
+    }
+
+    @Test
+    void revocationHoldsAcrossRestart() throws IOException, InterruptedException {
+        SessionTokens tokens = new SessionTokens(keyFile(), TTL);
+        String old = tokens.issue("bob");
+        String other = tokens.issue("alice");
+        nextMillis();
+        tokens.revoke("bob");
+        assertNull(tokens.verify(old));
+        nextMillis();
+        String fresh = tokens.issue("bob");
+        assertEquals("bob", tokens.verify(fresh).username());
+
+        SessionTokens restarted = new SessionTokens(keyFile(), TTL);
+        assertNull(restarted.verify(old));
+        assertEquals("bob", restarted.verify(fresh).username());
+        assertEquals("alice", restarted.verify(other).username());
+    }
+
+    @Test
+    void revocationsOlderThanTheTtlAreCompactedAway() throws IOException, InterruptedException {
+        SessionTokens tokens = new SessionTokens(keyFile(), 50);
+        tokens.revoke("bob");
+        tokens.revoke("bob");
+        Path revoked = dir.resolve("session.key.revoked");
+        assertEquals(2, Files.readAllLines(revoked).size());
+        // abgerissene letzte Zeile wie nach einem Absturz
+        Files.writeString(revoked, "Ym9i", StandardOpenOption.APPEND);
+
+        new SessionTokens(keyFile(), 50);
+        assertEquals(1, Files.readAllLines(revoked).size());
+        Thread.sleep(60);
+        new SessionTokens(keyFile(), 50);
+        assertTrue(Files.readAllLines(revoked).isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+package de.uni_jena.fpp.chatroom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+// v1-Zerlegung muss dem früheren split(" ", n) entsprechen; v2 deckt ProtocolV2Test ab
+class TokensTest {
+
+    @Test
+    void restFieldKeepsInnerSpaces() {
+        Tokens t = new Tokens().parse("  MSG   hallo   welt  ");
+        assertEquals(ProtocolV2.OP_MSG, t.opcode());
+        assertEquals("MSG", t.name());
+        assertEquals(1, t.fields());
+        assertEquals("hallo   welt", t.get(1));
+        assertEquals("MSG   hallo   welt", t.toLine());
+    }
+
+    @Test
+    void fixedFieldsSplitAtWhitespaceAndExtraWordsAreIgnored() {
+        Tokens t = new Tokens().parse("JOIN lobby zu viel");
+        assertEquals("lobby", t.get(1));
+        assertTrue(t.is(1, "lobby"));
+        assertFalse(t.is(1, "lob"));
+        assertFalse(t.is(1, "lobby2"));
+        assertEquals("", t.get(2));
+
+        t.parse("DOWNLOAD_RANGE r a.png\t10 20 v7");
+        assertEquals("a.png", t.get(2));
+        assertEquals(10, t.parseLong(3));
+        assertEquals(20, t.parseInt(4));
+    }
+
+    @Test
+    void missingFieldsAreEmptyAndUnknownCommandsAreText() {
+        Tokens t = new Tokens().parse("LOGIN bob");
+        assertEquals("bob", t.get(1));
+        assertTrue(t.isEmpty(2));
+        assertTrue(t.is(2, ""));
+        assertTrue(t.isEmpty(0));
+        assertTrue(t.isEmpty(99));
+
+        t.parse("FOO bar");
+        assertEquals(ProtocolV2.OP_TEXT, t.opcode());
+        assertEquals("FOO", t.name());
+        assertTrue(new Tokens().parse("   ").isBlank());
+        assertTrue(new Tokens().parse(null).isBlank());
+    }
+
+    @Test
+    void numbersAreParsedWithoutRegex() {
+        Tokens t = new Tokens().parse("UPLOAD_CHUNK id -42 +7");
+        assertEquals(-42, t.parseLong(2));
+        assertEquals(7, t.parseLong(3));
+        t.parse("UPLOAD_CHUNK id 9223372036854775807 12x");
+        assertEquals(Long.MAX_VALUE, t.parseLong(2));
+        assertThrows(NumberFormatException.class, () -> t.parseLong(3));
+        assertThrows(NumberFormatException.class, () -> t.parseInt(2));
+        t.parse("UPLOAD_CHUNK id 99999999999999999999 -");
+        assertThrows(NumberFormatException.class, () -> t.parseLong(2));
+        assertThrows(NumberFormatException.class, () -> t.parseLong(3));
+        assertThrows(NumberFormatException.class, () -> t.parseLong(4));
+    }
+
+    @Test
+    void reuseAndCopyAreIndependent() throws IOException {
+        Tokens t = new Tokens().parse("MSG erste");
+        Tokens copy = t.copy();
+        t.parse("JOIN raum");
+        assertEquals("erste", copy.get(1));
+        assertEquals("raum", t.get(1));
+        assertEquals(ProtocolV2.OP_MSG, copy.opcode());
+
+        byte[] frame = ProtocolV2.encodeLine("MSG ä€ und mehr");
+        long peek = ProtocolV2.peekLength(ByteBuffer.wrap(frame));
+        t.parse(frame, (int) (peek >>> 32), (int) peek);
+        assertEquals("ä€ und mehr", t.get(1));
+        assertTrue(t.is(1, "ä€ und mehr"));
+    }
+}
@@ -0,0 +1,73 @@
+package de.uni_jena.fpp.chatroom;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+// user-021: Start und Login-Lookup mit N Konten, users.db im Heap (FileUserRepository) gegen die
+// per mmap eingeblendete Tabelle (MappedUserRepository, erster Start mit Import und Neustart).
+// Die Konten haben iterations=1, damit PBKDF2 die Lookup-Zeit nicht überdeckt.
+// java -Xmx2g -cp target/classes:target/test-classes de.uni_jena.fpp.chatroom.UserStoreBenchmark [konten] [logins]
+final class UserStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int users = Bench.arg(args, 0, 1_000_000);
+        int logins = Bench.arg(args, 1, 200_000);
+        Path dir = Files.createTempDirectory("userbench");
+        Path db = dir.resolve("users.db");
+        Path map = dir.resolve("users.map");
+
+        // alle Konten mit demselben Passwort, jeweils eigenes Salt
+        Random rnd = new Random(1);
+        try (BufferedWriter w = Files.newBufferedWriter(db, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < users; i++) {
+                byte[] salt = new byte[16];
+                rnd.nextBytes(salt);
+                byte[] hash = PasswordUtil.pbkdf2("pw".toCharArray(), salt, 1);
+                w.write("user" + i + ";1;" + Base64.getEncoder().encodeToString(salt) + ";"
+                        + Base64.getEncoder().encodeToString(hash) + ";false\n");
+            }
+        }
+        System.out.printf("%,d Konten, users.db %,d MB%n", users, Files.size(db) >> 20);
+
+        long heap = Bench.usedHeap();
+        long t0 = System.nanoTime();
+        UserRepository file = new FileUserRepository(db.toString(), 10_000, Integer.MAX_VALUE);
+        long start = System.nanoTime() - t0;
+        report("FileUserRepository", file, start, Bench.usedHeap() - heap, users, logins);
+        file = null;
+
+        heap = Bench.usedHeap();
+        t0 = System.nanoTime();
+        UserRepository imported = new MappedUserRepository(map.toString(), 10_000, db.toString());
+        System.out.printf("%-28s start %,6d ms (Import aus users.db)%n", "MappedUserRepository", (System.nanoTime() - t0) / 1_000_000);
+        imported = null;
+
+        heap = Bench.usedHeap();
+        t0 = System.nanoTime();
+        UserRepository mapped = new MappedUserRepository(map.toString(), 10_000);
+        start = System.nanoTime() - t0;
+        report("MappedUserRepository", mapped, start, Bench.usedHeap() - heap, users, logins);
+        System.out.printf("users.map %,d MB%n", Files.size(map) >> 20);
+    }
+
+    private static void report(String name, UserRepository repo, long startNanos, long heap, int users, int logins) {
+        Random rnd = new Random(2);
+        char[] pw = "pw".toCharArray();
+        // Aufwärmen, dann messen
+        for (int i = 0; i < logins; i++) repo.verifyLogin("user" + rnd.nextInt(users), pw);
+        long[] lat = new long[logins];
+        for (int i = 0; i < logins; i++) {
+            String user = "user" + rnd.nextInt(users);
+            long t0 = System.nanoTime();
+            if (repo.verifyLogin(user, pw) == null) throw new AssertionError(user);
+            lat[i] = System.nanoTime() - t0;
+        }
+        System.out.printf("%-28s start %,6d ms  heap %,5d MB  verifyLogin p50 %5.1f us  p99 %5.1f us%n", name,
+                startNanos / 1_000_000, heap >> 20, Bench.percentile(lat, logins, 50) / 1000.0,
+                Bench.percentile(lat, logins, 99) / 1000.0);
+    }
+}